@@ -2,6 +2,9 @@ package controller;
 
 import model.entity.Person;
 import model.entity.PersonException;
+import model.entity.PersonSummary;
+import model.dao.AsyncDAO;
+import model.dao.CachingDAO;
 import model.dao.DAOArrayList;
 import model.dao.DAOFile;
 import model.dao.DAOFileSerializable;
@@ -9,6 +12,8 @@ import model.dao.DAOHashMap;
 import model.dao.DAOJPA;
 import model.dao.DAOSQL;
 import model.dao.IDAO;
+import model.dao.SynchronizedDAO;
+import model.dao.WriteBehindDAO;
 import start.Routes;
 import view.DataStorageSelection;
 import view.Delete;
@@ -18,19 +23,29 @@ import view.Read;
 import view.ReadAll;
 import view.Update;
 
+import java.awt.Component;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileWriter;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.text.ParseException;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.concurrent.CompletionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -38,6 +53,9 @@ import javax.persistence.*;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
 import javax.swing.JOptionPane;
+import javax.swing.JScrollBar;
+import javax.swing.SwingUtilities;
+import javax.swing.WindowConstants;
 import javax.swing.table.DefaultTableModel;
 import model.entity.Admin;
 import model.entity.User;
@@ -61,12 +79,24 @@ public class ControllerImplementation implements IController, ActionListener {
     //accessed from the Controller.
     private DataStorageSelection dSS;
     private IDAO dao;
+    //The same storage system, for the operations run off the event thread.
+    private AsyncDAO asyncDao;
+    //The write-behind tier of the admins, null for the other users.
+    private WriteBehindDAO writeBehind;
+    //Version of the person shown in the Update dialog when it was read.
+    private long readVersion;
     private Menu menu;
     private Insert insert;
     private Read read;
     private Delete delete;
     private Update update;
     private ReadAll readAll;
+    //NIF of the last person shown in the Read All table, null when all of
+    //them are shown.
+    private String lastShown;
+    //People read from the storage system every time the Read All table
+    //needs more rows.
+    private static final int PAGE_SIZE = 100;
     private final Login login;
     private String currentRole;
 
@@ -137,6 +167,8 @@ public class ControllerImplementation implements IController, ActionListener {
             handleUpdatePerson();
         } else if (e.getSource() == menu.getReadAll()) {
             handleReadAll();
+        } else if (readAll != null && e.getSource() == readAll.getExport()) {
+            handleExport();
         } else if (e.getSource() == menu.getDeleteAll()) {
             handleDeleteAll();
         } else if (e.getSource() == menu.getCount()) {
@@ -167,9 +199,58 @@ public class ControllerImplementation implements IController, ActionListener {
                 setupJPADatabase();
                 break;
         }
+        //Not for the database: the write-behind tier would overwrite the
+        //changes made by the other clients.
+        if (UserRoles.ADMIN.equals(currentRole) && daoSelected.equals(Constants.FILE)) {
+            setupWriteBehind();
+        } else {
+            //Reading the same NIF again is answered from memory.
+            dao = new CachingDAO(dao);
+        }
         setupMenu();
     }
 
+    /**
+     * Admins write to memory and the changes reach the file in the
+     * background; the ones still queued are written when the
+     * application exits. A background write that fails is handled as the
+     * errors of the other operations.
+     */
+    private void setupWriteBehind() {
+        WriteBehindDAO tiered = null;
+        try {
+            tiered = new WriteBehindDAO(dao);
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(dSS, ex.getMessage() + " Closing application.", "People v1.1.0", JOptionPane.ERROR_MESSAGE);
+            System.exit(0);
+        }
+        tiered.setErrorListener(ex -> SwingUtilities.invokeLater(() -> storageError(ex, menu, "People v1.1.0")));
+        WriteBehindDAO toClose = tiered;
+        //In case the application exits without closing the menu.
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                toClose.close();
+            } catch (Exception ex) {
+                Logger.getLogger(ControllerImplementation.class.getName()).log(Level.SEVERE, "Changes not saved.", ex);
+            }
+        }));
+        dao = tiered;
+        writeBehind = tiered;
+    }
+
+    /**
+     * Writes the changes still queued before closing the menu, so an error
+     * can be shown.
+     */
+    private void closeWriteBehind() {
+        try {
+            writeBehind.close();
+        } catch (Exception ex) {
+            JOptionPane.showMessageDialog(menu, ex.getMessage() + " Changes not saved. Closing application.", "People v1.1.0", JOptionPane.ERROR_MESSAGE);
+        }
+        System.exit(0);
+    }
+
     private void setupFileStorage() {
         File folderPath = new File(Routes.FILE.getFolderPath());
         File folderPhotos = new File(Routes.FILE.getFolderPhotos());
@@ -184,7 +265,12 @@ public class ControllerImplementation implements IController, ActionListener {
                 System.exit(0);
             }
         }
-        dao = new DAOFile();
+        try {
+            dao = new DAOFile();
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(dSS, "File index not created. Closing application.", "File - People v1.1.0", JOptionPane.ERROR_MESSAGE);
+            System.exit(0);
+        }
     }
 
     private void setupFileSerialization() {
@@ -199,7 +285,12 @@ public class ControllerImplementation implements IController, ActionListener {
                 System.exit(0);
             }
         }
-        dao = new DAOFileSerializable();
+        try {
+            dao = new DAOFileSerializable();
+        } catch (IOException | ClassNotFoundException ex) {
+            JOptionPane.showMessageDialog(dSS, "File index not created. Closing application.", "FileSer - People v1.1.0", JOptionPane.ERROR_MESSAGE);
+            System.exit(0);
+        }
     }
 
     private void setupSQLDatabase() {
@@ -218,7 +309,18 @@ public class ControllerImplementation implements IController, ActionListener {
                         + "nif varchar(9) primary key not null, "
                         + "name varchar(50), "
                         + "dateOfBirth DATE, "
-                        + "photo varchar(200) );");
+                        + "photo varchar(200), "
+                        + "version bigint not null default 0 );");
+                //Tables created before the version was added.
+                ResultSet rs = stmt.executeQuery("select count(*) from information_schema.columns where table_schema = '"
+                        + Routes.DB.getDbServerDB() + "' and table_name = '" + Routes.DB.getDbServerTABLE()
+                        + "' and column_name = 'version';");
+                rs.next();
+                if (rs.getInt(1) == 0) {
+                    stmt.executeUpdate("alter table " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE()
+                            + " add column version bigint not null default 0;");
+                }
+                rs.close();
                 
                 stmt.executeUpdate("create table if not exists " + Routes.DB2.getDbServerDB() + "." + Routes.DB2.getDbServerTABLE() + "("
                         + "username varchar(50) primary key, "
@@ -258,7 +360,22 @@ public class ControllerImplementation implements IController, ActionListener {
     }
 
     private void setupMenu() {
+        //The event thread and the threads of asyncDao share the storage
+        //system, so the ones that are not thread-safe take one call at a time.
+        if (!AsyncDAO.isThreadSafe(dao)) {
+            dao = new SynchronizedDAO(dao);
+        }
+        asyncDao = new AsyncDAO(dao);
         menu = new Menu();
+        if (writeBehind != null) {
+            menu.setDefaultCloseOperation(WindowConstants.DO_NOTHING_ON_CLOSE);
+            menu.addWindowListener(new WindowAdapter() {
+                @Override
+                public void windowClosing(WindowEvent e) {
+                    closeWriteBehind();
+                }
+            });
+        }
         configureMenuBasedOnRole();
         menu.setVisible(true);
         
@@ -404,6 +521,7 @@ public class ControllerImplementation implements IController, ActionListener {
             Person p = new Person(update.getNif().getText());
             Person pNew = read(p);
             if (pNew != null) {
+                readVersion = pNew.getVersion();
                 update.getNam().setEnabled(true);
                 update.getDateOfBirth().setEnabled(true);
                 update.getPhoto().setEnabled(true);
@@ -465,58 +583,151 @@ public class ControllerImplementation implements IController, ActionListener {
             }
             p.setPhoneNumber(update.getPhoneNumber().getText());
 
-            try {
-                update(p);
+            p.setVersion(readVersion);
+            if (update(p)) {
                 JOptionPane.showMessageDialog(insert, "Person updated successfully!", "Update - People v1.1.0", JOptionPane.INFORMATION_MESSAGE);
                 update.getReset().doClick();
-            } catch (Exception ex) {
             }
 
         }
     }
 
     public void handleCountPeople() {
-        int count = readAll().size();
-        Count countDialog = new Count(menu, true, count);
-        countDialog.setVisible(true);
-
+        //Counted off the event thread; the dialog opens when it is done.
+        asyncDao.count().whenComplete((count, ex) -> SwingUtilities.invokeLater(() -> {
+            if (ex != null) {
+                storageError(ex, menu, "Count - People v1.1.0");
+            } else {
+                Count countDialog = new Count(menu, true, count);
+                countDialog.setVisible(true);
+            }
+        }));
     }
 
     public void handleReadAll() {
-        ArrayList<Person> s = readAll();
-        if (s.isEmpty()) {
+        readAll = new ReadAll(menu, true);
+        lastShown = null;
+        //Only the first page is read now; the next ones when the table is
+        //scrolled to its end.
+        if (!showNextPage()) {
+            readAll.dispose();
             JOptionPane.showMessageDialog(menu, "There are not people registered yet.", "Read All - People v1.1.0", JOptionPane.WARNING_MESSAGE);
         } else {
-            readAll = new ReadAll(menu, true);
-            DefaultTableModel model = (DefaultTableModel) readAll.getTable().getModel();
-            for (int i = 0; i < s.size(); i++) {
-                model.addRow(new Object[i]);
-                model.setValueAt(s.get(i).getNif(), i, 0);
-                model.setValueAt(s.get(i).getName(), i, 1);
-                if (s.get(i).getDateOfBirth() != null) {
-                    model.setValueAt(s.get(i).getDateOfBirth().toString(), i, 2);
-                } else {
-                    model.setValueAt("", i, 2);
-                }
-                if (s.get(i).getPhoto() != null) {
-                    model.setValueAt("yes", i, 3);
-                } else {
-                    model.setValueAt("no", i, 3);
-                }
-                if (s.get(i).getEmail() != null) {
-                    model.setValueAt(s.get(i).getEmail(), i, 4);
+            readAll.getScrollPane().getVerticalScrollBar().addAdjustmentListener(e -> {
+                JScrollBar bar = (JScrollBar) e.getAdjustable();
+                if (!e.getValueIsAdjusting() && lastShown != null
+                        && bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum()) {
+                    showNextPage();
                 }
-                if (s.get(i).getPostalCode() != null) {
-                    model.setValueAt(s.get(i).getPostalCode(), i, 5);
-                    }
-                if (s.get(i).getPhoneNumber() != null) {
-                    model.setValueAt(s.get(i).getPhoneNumber(), i, 6);
+            });
+            readAll.getExport().addActionListener(this);
+            readAll.setVisible(true);
+        }
+    }
+
+    /**
+     * Adds the next page of people to the Read All table.
+     *
+     * @return true if there was any person to add
+     */
+    private boolean showNextPage() {
+        ArrayList<PersonSummary> page = readSummaryPage(lastShown, PAGE_SIZE);
+        DefaultTableModel model = (DefaultTableModel) readAll.getTable().getModel();
+        for (PersonSummary p : page) {
+            model.addRow(row(p));
+        }
+        lastShown = page.size() == PAGE_SIZE ? page.get(page.size() - 1).getNif() : null;
+        return !page.isEmpty();
+    }
+
+    /**
+     * Writes the people registered to "people_data_yyyyMMdd.csv" as they are
+     * read from the storage system, with the columns of the Read All table.
+     */
+    public void handleExport() {
+        String filename = "people_data_" + new SimpleDateFormat("yyyyMMdd").format(new Date()) + ".csv";
+        BufferedWriter bw;
+        try {
+            bw = new BufferedWriter(new FileWriter(filename));
+            for (int i = 0; i < readAll.getTable().getColumnCount(); i++) {
+                bw.write((i > 0 ? "," : "") + readAll.getTable().getColumnName(i));
+            }
+            bw.write("\n");
+        } catch (IOException ex) {
+            JOptionPane.showMessageDialog(readAll, "Error exporting: " + ex.getMessage());
+            return;
+        }
+        ReadAll dialog = readAll;
+        dialog.getExport().setEnabled(false);
+        //A write error is kept, so it is not taken for a storage error.
+        IOException[] error = {null};
+        //Read off the event thread a page at a time, so the table can still
+        //be used.
+        asyncDao.forEachSummary(p -> {
+            if (error[0] != null) {
+                return;
+            }
+            try {
+                Object[] row = row(p);
+                for (int i = 0; i < row.length; i++) {
+                    bw.write((i > 0 ? "," : "") + row[i]);
                 }
+                bw.write("\n");
+            } catch (IOException ex) {
+                error[0] = ex;
             }
-            readAll.setVisible(true);
+        }).whenComplete((count, ex) -> {
+            try {
+                bw.close();
+            } catch (IOException closeEx) {
+                error[0] = error[0] != null ? error[0] : closeEx;
+            }
+            SwingUtilities.invokeLater(() -> {
+                dialog.getExport().setEnabled(true);
+                if (ex != null) {
+                    storageError(ex, dialog, "Read All - People v1.1.0");
+                } else if (error[0] != null) {
+                    JOptionPane.showMessageDialog(dialog, "Error exporting: " + error[0].getMessage());
+                } else {
+                    JOptionPane.showMessageDialog(dialog, "Exported to CSV!");
+                }
+            });
+        });
+    }
+
+    /**
+     * Handles the error of an asynchronous operation as the other operations
+     * do: if there is any access problem with the storage device, the
+     * program stops.
+     */
+    private void storageError(Throwable ex, Component parent, String title) {
+        //The futures and the streams wrap the original exception.
+        while ((ex instanceof CompletionException || ex instanceof UncheckedIOException) && ex.getCause() != null) {
+            ex = ex.getCause();
+        }
+        if (ex instanceof FileNotFoundException || ex instanceof IOException
+                || ex instanceof ParseException || ex instanceof ClassNotFoundException
+                || ex instanceof SQLException || ex instanceof PersistenceException) {
+            JOptionPane.showMessageDialog(parent, ex.getMessage() + " Closing application.", title, JOptionPane.ERROR_MESSAGE);
+            System.exit(0);
         }
     }
 
+    /**
+     * @return the columns of the person in the Read All table
+     */
+    private Object[] row(PersonSummary p) {
+        return new Object[]{
+            p.getNif(),
+            p.getName(),
+            p.getDateOfBirth() != null ? p.getDateOfBirth().toString() : "",
+            p.hasPhoto() ? "yes" : "no",
+            p.getEmail() != null ? p.getEmail() : "",
+            p.getPostalCode() != null ? p.getPostalCode() : "",
+            p.getPhoneNumber() != null ? p.getPhoneNumber() : ""
+        };
+    }
+
     public void handleDeleteAll() {
         Object[] options = {"Yes", "No"};
         int answer = JOptionPane.showOptionDialog(menu, "Are you sure you want to delete all registered people?", "Delete All - People v1.1.0", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[1]);
@@ -602,7 +813,7 @@ public class ControllerImplementation implements IController, ActionListener {
     @Override
     public void insert(Person p) {
         try {
-            if (dao.read(p) == null) {
+            if (!dao.exists(p.getNif())) {
                 dao.insert(p);
             } else {
                 throw new PersonException(p.getNif() + " is registered and can not "
@@ -625,15 +836,18 @@ public class ControllerImplementation implements IController, ActionListener {
 
     /**
      * This function updates the Person object with the requested NIF, if it
-     * doesn't exist. NIF can not be aupdated. If there is any access problem
-     * with the storage device, the program stops.
+     * exists and nobody has updated it since it was read with the version of
+     * p. NIF can not be aupdated. If there is any access problem with the
+     * storage device, the program stops.
      *
-     * @param p Person to update
+     * @param p Person to update, with the version it was read with
+     * @return true if it has been updated
      */
     @Override
-    public void update(Person p) {
+    public boolean update(Person p) {
         try {
-            dao.update(p);
+            dao.update(p, p.getVersion());
+            return true;
         } catch (Exception ex) {
             //Exceptions generated by file read/write access. If something goes 
             // wrong the application closes.
@@ -643,6 +857,10 @@ public class ControllerImplementation implements IController, ActionListener {
                 JOptionPane.showMessageDialog(update, ex.getMessage() + ex.getClass() + " Closing application.", update.getTitle(), JOptionPane.ERROR_MESSAGE);
                 System.exit(0);
             }
+            if (ex instanceof PersonException) {
+                JOptionPane.showMessageDialog(update, ex.getMessage(), update.getTitle(), JOptionPane.WARNING_MESSAGE);
+            }
+            return false;
         }
     }
 
@@ -656,7 +874,7 @@ public class ControllerImplementation implements IController, ActionListener {
     @Override
     public void delete(Person p) {
         try {
-            if (dao.read(p) != null) {
+            if (dao.exists(p.getNif())) {
                 dao.delete(p);
             } else {
                 throw new PersonException(p.getNif() + " is not registered and can not "
@@ -728,6 +946,31 @@ public class ControllerImplementation implements IController, ActionListener {
         return people;
     }
 
+    /**
+     * This function returns the summaries of the first size people, in NIF
+     * order, whose NIF is greater than after. If there is any access problem
+     * with the storage device, the program stops.
+     *
+     * @param after NIF of the last person of the previous page or null
+     * @param size maximum number of people
+     * @return ArrayList
+     */
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) {
+        ArrayList<PersonSummary> people = new ArrayList<>();
+        try {
+            people = dao.readSummaryPage(after, size);
+        } catch (Exception ex) {
+            if (ex instanceof FileNotFoundException || ex instanceof IOException
+                    || ex instanceof ParseException || ex instanceof ClassNotFoundException
+                    || ex instanceof SQLException || ex instanceof PersistenceException) {
+                JOptionPane.showMessageDialog(menu, ex.getMessage() + " Closing application.", "Read All - People v1.1.0", JOptionPane.ERROR_MESSAGE);
+                System.exit(0);
+            }
+        }
+        return people;
+    }
+
     /**
      * This function deletes all the people registered. If there is any access
      * problem with the storage device, the program stops.
@@ -746,9 +989,4 @@ public class ControllerImplementation implements IController, ActionListener {
         }
     }
 
-    @Override
-    public void count() {
-        throw new UnsupportedOperationException("Not supported yet."); // Generated from nbfs://nbhost/SystemFileSystem/Templates/Classes/Code/GeneratedMethodBody
-    }
-
 }
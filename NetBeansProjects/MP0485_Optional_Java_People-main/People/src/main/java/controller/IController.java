@@ -1,6 +1,7 @@
 package controller;
 
 import model.entity.Person;
+import model.entity.PersonSummary;
 import java.util.ArrayList;
 
 /**
@@ -12,10 +13,10 @@ import java.util.ArrayList;
 public interface IController {
     public abstract Person read(Person p);
     public abstract ArrayList<Person> readAll();
+    public abstract ArrayList<PersonSummary> readSummaryPage(String after, int size);
     public abstract void insert(Person p) throws Exception;
-    public abstract void update(Person p);
+    public abstract boolean update(Person p);
     public abstract void delete(Person p);
     public abstract void start();
     public abstract void deleteAll();
-    public abstract void count();
 }
@@ -0,0 +1,234 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Asynchronous version of an IDAO: every operation is run by a pool of
+ * threads of its own and returns a CompletableFuture at once, so the Swing
+ * event thread does not wait for the storage system. The size of the pool
+ * is the number of calls that can run at the same time, which depends on
+ * the storage system (see limitFor): the SQL and JPA ones open a connection
+ * or an EntityManager per call, so several calls overlap, while the ones
+ * that are not thread-safe or are synchronized get one thread, which also
+ * keeps the calls in the order they were made. With more than one thread,
+ * calls that depend on each other must be chained on their futures.
+ * The pool only orders its own calls: a storage system that is not
+ * thread-safe and is also called from other threads must be wrapped in a
+ * SynchronizedDAO first (see isThreadSafe).
+ * An operation that fails completes its future exceptionally with the
+ * exception of the IDAO.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class AsyncDAO {
+
+    //People read at a time by forEachSummary.
+    private static final int PAGE_SIZE = 500;
+
+    private final IDAO dao;
+    private final ThreadPoolExecutor executor;
+
+    /**
+     * @param dao storage system, with the limit of limitFor()
+     */
+    public AsyncDAO(IDAO dao) {
+        this(dao, limitFor(dao));
+    }
+
+    /**
+     * @param dao storage system
+     * @param limit maximum number of calls running at the same time
+     */
+    public AsyncDAO(IDAO dao, int limit) {
+        if (limit < 1) {
+            throw new IllegalArgumentException("The limit must be at least 1.");
+        }
+        this.dao = dao;
+        AtomicInteger threads = new AtomicInteger();
+        executor = new ThreadPoolExecutor(limit, limit, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+            Thread thread = new Thread(r, "AsyncDAO-" + dao.getClass().getSimpleName() + "-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * @param dao storage system
+     * @return how many calls to it can run at the same time
+     */
+    public static int limitFor(IDAO dao) {
+        if (dao instanceof CachingDAO) {
+            return limitFor(((CachingDAO) dao).getDAO());
+        }
+        if (dao instanceof DAOSQL) {
+            //A connection per call; kept well below the server limit.
+            return 8;
+        }
+        if (dao instanceof DAOJPA) {
+            //An EntityManager per call.
+            return 4;
+        }
+        if (dao instanceof DAOConcurrentHashMap) {
+            return Runtime.getRuntime().availableProcessors();
+        }
+        //Not thread-safe, or synchronized so the calls would wait anyway.
+        return 1;
+    }
+
+    /**
+     * @param dao storage system
+     * @return true if it can be called from several threads at the same
+     * time; otherwise it must be wrapped in a SynchronizedDAO before it is
+     * shared by an AsyncDAO and other threads
+     */
+    public static boolean isThreadSafe(IDAO dao) {
+        if (dao instanceof CachingDAO) {
+            return isThreadSafe(((CachingDAO) dao).getDAO());
+        }
+        return dao instanceof DAOSQL || dao instanceof DAOJPA || dao instanceof DAOConcurrentHashMap
+                || dao instanceof WriteBehindDAO || dao instanceof SynchronizedDAO;
+    }
+
+    public IDAO getDAO() {
+        return dao;
+    }
+
+    public CompletableFuture<Person> read(Person p) {
+        return submit(() -> dao.read(p));
+    }
+
+    public CompletableFuture<ArrayList<Person>> readAll() {
+        return submit(dao::readAll);
+    }
+
+    public CompletableFuture<ArrayList<Person>> readPage(String after, int size) {
+        return submit(() -> dao.readPage(after, size));
+    }
+
+    public CompletableFuture<ArrayList<PersonSummary>> readSummaryPage(String after, int size) {
+        return submit(() -> dao.readSummaryPage(after, size));
+    }
+
+    /**
+     * Reads the summaries of the people on a thread of the pool, in pages of
+     * PAGE_SIZE in NIF order, and passes them, one by one, to the action
+     * there. Only a page is read at a time, so a storage system shared with
+     * other threads (see SynchronizedDAO) is not held for the whole reading.
+     * @param action what to do with every person
+     * @return future of the number of people read
+     */
+    public CompletableFuture<Integer> forEachSummary(Consumer<PersonSummary> action) {
+        return submit(() -> {
+            int count = 0;
+            String after = null;
+            ArrayList<PersonSummary> page;
+            do {
+                page = dao.readSummaryPage(after, PAGE_SIZE);
+                for (PersonSummary p : page) {
+                    action.accept(p);
+                    count++;
+                }
+                after = !page.isEmpty() ? page.get(page.size() - 1).getNif() : null;
+            } while (page.size() == PAGE_SIZE);
+            return count;
+        });
+    }
+
+    public CompletableFuture<ArrayList<Person>> query(Query query) {
+        return submit(() -> dao.query(query));
+    }
+
+    public CompletableFuture<Integer> count() {
+        return submit(dao::count);
+    }
+
+    public CompletableFuture<Boolean> exists(String nif) {
+        return submit(() -> dao.exists(nif));
+    }
+
+    public CompletableFuture<Void> insert(Person p) {
+        return submit(() -> {
+            dao.insert(p);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> update(Person p) {
+        return submit(() -> {
+            dao.update(p);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> delete(Person p) {
+        return submit(() -> {
+            dao.delete(p);
+            return null;
+        });
+    }
+
+    public CompletableFuture<Void> deleteAll() {
+        return submit(() -> {
+            dao.deleteAll();
+            return null;
+        });
+    }
+
+    public CompletableFuture<BatchReport> insertAll(Collection<Person> people) {
+        return submit(() -> dao.insertAll(people));
+    }
+
+    public CompletableFuture<BatchReport> updateAll(Collection<Person> people) {
+        return submit(() -> dao.updateAll(people));
+    }
+
+    public CompletableFuture<BatchReport> deleteAll(Collection<Person> people) {
+        return submit(() -> dao.deleteAll(people));
+    }
+
+    /**
+     * Lets the calls already made finish and stops the threads. Calls made
+     * afterwards fail with a RejectedExecutionException.
+     * @throws InterruptedException
+     */
+    public void close() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    //An IDAO call, which can throw any exception.
+    private interface Call<T> {
+
+        T call() throws Exception;
+    }
+
+    private <T> CompletableFuture<T> submit(Call<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        try {
+            executor.execute(() -> {
+                try {
+                    future.complete(call.call());
+                } catch (Exception | Error ex) {
+                    future.completeExceptionally(ex);
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            future.completeExceptionally(ex);
+        }
+        return future;
+    }
+
+}
@@ -0,0 +1,457 @@
+package model.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * On-disk B+tree that maps a NIF to a long value (a file offset or a record
+ * number, depending on the storage that uses it). It is saved in 4 KiB pages
+ * in a sidecar file next to the data file, so point lookups, existence checks
+ * and ordered range scans cost O(log n) page reads and the index survives
+ * restarts. The header remembers the length and modification time of the
+ * data file it was last synchronized with, so the owner can detect that the
+ * data file was changed behind its back and rebuild it.
+ * Removing keys does not merge underfull pages; a rebuild packs them again.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class BPlusTreeIndex {
+
+    private static final int PAGE_SIZE = 4096;
+    private static final int MAGIC = 0x50504958;
+    private static final int VERSION = 1;
+    private static final int KEY_SIZE = 16;
+    private static final byte LEAF = 0;
+    private static final byte INTERNAL = 1;
+    //Page header: type (byte), number of keys (short), next leaf (int).
+    private static final int PAGE_HEADER = 8;
+    private static final int LEAF_ENTRY = KEY_SIZE + 8;
+    private static final int INTERNAL_ENTRY = KEY_SIZE + 4;
+    private static final int MAX_LEAF_KEYS = (PAGE_SIZE - PAGE_HEADER) / LEAF_ENTRY;
+    private static final int MAX_INTERNAL_KEYS = (PAGE_SIZE - PAGE_HEADER - 4) / INTERNAL_ENTRY;
+    private static final int NO_PAGE = -1;
+
+    private final FileChannel channel;
+    private int root;
+    private int pageCount;
+    private long size;
+    private long syncedLength;
+    private long syncedModified;
+
+    /**
+     * In-memory copy of a page. Leaves use values, internal nodes children
+     * (one more than keys).
+     */
+    private static final class Node {
+
+        private final int page;
+        private final boolean leaf;
+        private final ArrayList<String> keys = new ArrayList<>();
+        private final ArrayList<Long> values = new ArrayList<>();
+        private final ArrayList<Integer> children = new ArrayList<>();
+        private int next = NO_PAGE;
+
+        private Node(int page, boolean leaf) {
+            this.page = page;
+            this.leaf = leaf;
+        }
+    }
+
+    /**
+     * Result of splitting a node: the key that goes up and the new right page.
+     */
+    private static final class Split {
+
+        private final String key;
+        private final int page;
+
+        private Split(String key, int page) {
+            this.key = key;
+            this.page = page;
+        }
+    }
+
+    public BPlusTreeIndex(File file) throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < PAGE_SIZE) {
+            clear();
+        } else {
+            ByteBuffer header = readPage(0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+                clear();
+            } else {
+                root = header.getInt(8);
+                pageCount = header.getInt(12);
+                size = header.getLong(16);
+                syncedLength = header.getLong(24);
+                syncedModified = header.getLong(32);
+            }
+        }
+    }
+
+    /**
+     * @param key NIF
+     * @return value stored for the NIF or -1 if it is not indexed
+     * @throws IOException
+     */
+    public synchronized long get(String key) throws IOException {
+        if (!fits(key)) {
+            return -1;
+        }
+        Node node = readNode(root);
+        while (!node.leaf) {
+            node = readNode(node.children.get(childIndex(node, key)));
+        }
+        int i = search(node.keys, key);
+        return i >= 0 ? node.values.get(i) : -1;
+    }
+
+    public boolean contains(String key) throws IOException {
+        return get(key) >= 0;
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    public synchronized void put(String key, long value) throws IOException {
+        if (!fits(key)) {
+            throw new IllegalArgumentException(key + " is too long to be indexed.");
+        }
+        Split split = insert(readNode(root), key, value);
+        if (split != null) {
+            Node newRoot = new Node(pageCount++, false);
+            newRoot.children.add(root);
+            newRoot.keys.add(split.key);
+            newRoot.children.add(split.page);
+            writeNode(newRoot);
+            root = newRoot.page;
+        }
+        writeHeader();
+    }
+
+    public synchronized void remove(String key) throws IOException {
+        if (!fits(key)) {
+            return;
+        }
+        Node node = readNode(root);
+        while (!node.leaf) {
+            node = readNode(node.children.get(childIndex(node, key)));
+        }
+        int i = search(node.keys, key);
+        if (i >= 0) {
+            node.keys.remove(i);
+            node.values.remove(i);
+            writeNode(node);
+            size--;
+            writeHeader();
+        }
+    }
+
+    /**
+     * Returns, in NIF order, the entries whose key is between from and to
+     * (both included). A null bound means no bound.
+     * @param from first NIF or null
+     * @param to last NIF or null
+     * @param limit maximum number of entries, 0 or less for no limit
+     * @return NIF to value, in NIF order
+     * @throws IOException
+     */
+    public synchronized LinkedHashMap<String, Long> range(String from, String to, int limit) throws IOException {
+        LinkedHashMap<String, Long> entries = new LinkedHashMap<>();
+        Node node = readNode(root);
+        while (!node.leaf) {
+            node = readNode(node.children.get(from != null ? childIndex(node, from) : 0));
+        }
+        while (true) {
+            for (int i = 0; i < node.keys.size(); i++) {
+                String key = node.keys.get(i);
+                if (from != null && key.compareTo(from) < 0) {
+                    continue;
+                }
+                if ((to != null && key.compareTo(to) > 0) || (limit > 0 && entries.size() == limit)) {
+                    return entries;
+                }
+                entries.put(key, node.values.get(i));
+            }
+            if (node.next == NO_PAGE) {
+                return entries;
+            }
+            node = readNode(node.next);
+        }
+    }
+
+    public synchronized void clear() throws IOException {
+        channel.truncate(0);
+        pageCount = 1;
+        Node leaf = new Node(pageCount++, true);
+        writeNode(leaf);
+        root = leaf.page;
+        size = 0;
+        syncedLength = -1;
+        syncedModified = -1;
+        writeHeader();
+    }
+
+    /**
+     * Replaces the whole index with the given entries, which must come in
+     * NIF order. Pages are filled completely and written once, bottom-up.
+     * @param sorted entries in NIF order
+     * @throws IOException
+     */
+    public synchronized void rebuild(Iterator<Map.Entry<String, Long>> sorted) throws IOException {
+        channel.truncate(0);
+        pageCount = 1;
+        size = 0;
+        ArrayList<Integer> level = new ArrayList<>();
+        ArrayList<String> firstKeys = new ArrayList<>();
+        Node leaf = new Node(pageCount++, true);
+        while (sorted.hasNext()) {
+            Map.Entry<String, Long> entry = sorted.next();
+            if (!fits(entry.getKey())) {
+                throw new IllegalArgumentException(entry.getKey() + " is too long to be indexed.");
+            }
+            if (leaf.keys.size() == MAX_LEAF_KEYS) {
+                Node nextLeaf = new Node(pageCount++, true);
+                leaf.next = nextLeaf.page;
+                writeNode(leaf);
+                level.add(leaf.page);
+                firstKeys.add(leaf.keys.get(0));
+                leaf = nextLeaf;
+            }
+            leaf.keys.add(entry.getKey());
+            leaf.values.add(entry.getValue());
+            size++;
+        }
+        writeNode(leaf);
+        level.add(leaf.page);
+        firstKeys.add(leaf.keys.isEmpty() ? "" : leaf.keys.get(0));
+        while (level.size() > 1) {
+            ArrayList<Integer> parents = new ArrayList<>();
+            ArrayList<String> parentKeys = new ArrayList<>();
+            for (int start = 0; start < level.size(); start += MAX_INTERNAL_KEYS + 1) {
+                int end = Math.min(start + MAX_INTERNAL_KEYS + 1, level.size());
+                Node node = new Node(pageCount++, false);
+                node.children.add(level.get(start));
+                for (int i = start + 1; i < end; i++) {
+                    node.keys.add(firstKeys.get(i));
+                    node.children.add(level.get(i));
+                }
+                writeNode(node);
+                parents.add(node.page);
+                parentKeys.add(firstKeys.get(start));
+            }
+            level = parents;
+            firstKeys = parentKeys;
+        }
+        root = level.get(0);
+        writeHeader();
+    }
+
+    /**
+     * Remembers the state of the data file the index now describes.
+     * @param dataFile data file
+     * @throws IOException
+     */
+    public void sync(File dataFile) throws IOException {
+        sync(dataFile.length(), dataFile.lastModified());
+    }
+
+    /**
+     * Same as sync(File) for data kept in more than one file.
+     * @param length length of the data
+     * @param modified modification stamp of the data
+     * @throws IOException
+     */
+    public synchronized void sync(long length, long modified) throws IOException {
+        syncedLength = length;
+        syncedModified = modified;
+        writeHeader();
+    }
+
+    /**
+     * @param dataFile data file
+     * @return true if the data file changed since the last sync
+     */
+    public boolean isStale(File dataFile) {
+        return isStale(dataFile.length(), dataFile.lastModified());
+    }
+
+    public synchronized boolean isStale(long length, long modified) {
+        return syncedLength != length || syncedModified != modified;
+    }
+
+    public synchronized void close() throws IOException {
+        channel.close();
+    }
+
+    private Split insert(Node node, String key, long value) throws IOException {
+        if (node.leaf) {
+            int i = search(node.keys, key);
+            if (i >= 0) {
+                node.values.set(i, value);
+                writeNode(node);
+                return null;
+            }
+            i = -i - 1;
+            node.keys.add(i, key);
+            node.values.add(i, value);
+            size++;
+            if (node.keys.size() <= MAX_LEAF_KEYS) {
+                writeNode(node);
+                return null;
+            }
+            Node right = new Node(pageCount++, true);
+            int half = node.keys.size() / 2;
+            right.keys.addAll(node.keys.subList(half, node.keys.size()));
+            right.values.addAll(node.values.subList(half, node.values.size()));
+            node.keys.subList(half, node.keys.size()).clear();
+            node.values.subList(half, node.values.size()).clear();
+            right.next = node.next;
+            node.next = right.page;
+            writeNode(right);
+            writeNode(node);
+            return new Split(right.keys.get(0), right.page);
+        }
+        int i = childIndex(node, key);
+        Split split = insert(readNode(node.children.get(i)), key, value);
+        if (split == null) {
+            return null;
+        }
+        node.keys.add(i, split.key);
+        node.children.add(i + 1, split.page);
+        if (node.keys.size() <= MAX_INTERNAL_KEYS) {
+            writeNode(node);
+            return null;
+        }
+        Node right = new Node(pageCount++, false);
+        int half = node.keys.size() / 2;
+        String promoted = node.keys.get(half);
+        right.keys.addAll(node.keys.subList(half + 1, node.keys.size()));
+        right.children.addAll(node.children.subList(half + 1, node.children.size()));
+        node.keys.subList(half, node.keys.size()).clear();
+        node.children.subList(half + 1, node.children.size()).clear();
+        writeNode(right);
+        writeNode(node);
+        return new Split(promoted, right.page);
+    }
+
+    /**
+     * Child of an internal node that may contain the key: the number of keys
+     * smaller than or equal to it.
+     */
+    private static int childIndex(Node node, String key) {
+        int i = search(node.keys, key);
+        return i >= 0 ? i + 1 : -i - 1;
+    }
+
+    private static int search(ArrayList<String> keys, String key) {
+        int low = 0;
+        int high = keys.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            int cmp = keys.get(mid).compareTo(key);
+            if (cmp < 0) {
+                low = mid + 1;
+            } else if (cmp > 0) {
+                high = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(low + 1);
+    }
+
+    private static boolean fits(String key) {
+        return key != null && key.getBytes(StandardCharsets.UTF_8).length < KEY_SIZE;
+    }
+
+    private Node readNode(int page) throws IOException {
+        ByteBuffer buffer = readPage(page);
+        Node node = new Node(page, buffer.get() == LEAF);
+        int count = buffer.getShort();
+        buffer.get();
+        node.next = buffer.getInt();
+        if (!node.leaf) {
+            node.children.add(buffer.getInt());
+        }
+        byte[] key = new byte[KEY_SIZE];
+        for (int i = 0; i < count; i++) {
+            buffer.get(key);
+            node.keys.add(new String(key, 1, key[0], StandardCharsets.UTF_8));
+            if (node.leaf) {
+                node.values.add(buffer.getLong());
+            } else {
+                node.children.add(buffer.getInt());
+            }
+        }
+        return node;
+    }
+
+    private void writeNode(Node node) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        buffer.put(node.leaf ? LEAF : INTERNAL);
+        buffer.putShort((short) node.keys.size());
+        buffer.put((byte) 0);
+        buffer.putInt(node.next);
+        if (!node.leaf) {
+            buffer.putInt(node.children.get(0));
+        }
+        for (int i = 0; i < node.keys.size(); i++) {
+            byte[] key = node.keys.get(i).getBytes(StandardCharsets.UTF_8);
+            buffer.put((byte) key.length);
+            buffer.put(key);
+            buffer.position(buffer.position() + KEY_SIZE - 1 - key.length);
+            if (node.leaf) {
+                buffer.putLong(node.values.get(i));
+            } else {
+                buffer.putInt(node.children.get(i + 1));
+            }
+        }
+        buffer.clear();
+        writePage(node.page, buffer);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(PAGE_SIZE);
+        header.putInt(MAGIC);
+        header.putInt(VERSION);
+        header.putInt(root);
+        header.putInt(pageCount);
+        header.putLong(size);
+        header.putLong(syncedLength);
+        header.putLong(syncedModified);
+        header.clear();
+        writePage(0, header);
+    }
+
+    private ByteBuffer readPage(int page) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(PAGE_SIZE);
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void writePage(int page, ByteBuffer buffer) throws IOException {
+        long position = (long) page * PAGE_SIZE;
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+}
@@ -0,0 +1,113 @@
+package model.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Result of a bulk operation (insertAll, updateAll or deleteAll of a
+ * collection): one entry per person saying whether the operation was done,
+ * skipped (the person was already registered for an insert or was not
+ * registered for an update or a delete) or failed.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class BatchReport {
+
+    public enum Status {
+        DONE, SKIPPED, FAILED
+    }
+
+    /**
+     * Result of the operation on one person.
+     */
+    public static class Result {
+
+        private final String nif;
+        private final Status status;
+        private final String message;
+
+        public Result(String nif, Status status, String message) {
+            this.nif = nif;
+            this.status = status;
+            this.message = message;
+        }
+
+        public String getNif() {
+            return nif;
+        }
+
+        public Status getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        @Override
+        public String toString() {
+            return nif + " " + status + (message != null ? ": " + message : "");
+        }
+    }
+
+    private final ArrayList<Result> results = new ArrayList<>();
+
+    public void done(String nif) {
+        results.add(new Result(nif, Status.DONE, null));
+    }
+
+    public void skipped(String nif, String message) {
+        results.add(new Result(nif, Status.SKIPPED, message));
+    }
+
+    public void failed(String nif, Exception ex) {
+        results.add(new Result(nif, Status.FAILED, ex.getMessage()));
+    }
+
+    /**
+     * Marks every DONE result from the given position on as FAILED, when the
+     * storage system could not make them permanent.
+     * @param from position of the first result
+     * @param ex cause
+     */
+    public void failFrom(int from, Exception ex) {
+        for (int i = from; i < results.size(); i++) {
+            if (results.get(i).getStatus() == Status.DONE) {
+                results.set(i, new Result(results.get(i).getNif(), Status.FAILED, ex.getMessage()));
+            }
+        }
+    }
+
+    /**
+     * Appends the results of another report, e.g. of a part of the batch.
+     * @param other report
+     */
+    void addAll(BatchReport other) {
+        results.addAll(other.results);
+    }
+
+    public List<Result> getResults() {
+        return Collections.unmodifiableList(results);
+    }
+
+    /**
+     * @param status status
+     * @return number of people with that status
+     */
+    public int count(Status status) {
+        int count = 0;
+        for (Result result : results) {
+            if (result.getStatus() == status) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    public int size() {
+        return results.size();
+    }
+
+}
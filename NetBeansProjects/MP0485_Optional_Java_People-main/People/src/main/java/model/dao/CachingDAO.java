@@ -0,0 +1,402 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * IDAO that keeps the last people read from another IDAO in memory, so
+ * reading the same NIF again does not go to the database or the file. The
+ * NIFs that are not registered are also kept (negative caching), so asking
+ * again for a missing NIF is not a round trip either.
+ * Other clients can write the same storage system, so every entry expires:
+ * a person after one minute and a missing NIF after five seconds by default,
+ * so a NIF registered by another client is soon seen as registered.
+ * The cache is a segmented LRU bounded by number of people and by an
+ * estimate of their bytes: a NIF read for the first time enters the
+ * probation segment and, if it is read again, moves to the protected one,
+ * which keeps up to 80% of the entries. The least recently used people of
+ * probation are evicted first, so a scan of many NIFs read once does not
+ * push out the ones read often.
+ * Every write goes to the IDAO and then removes the NIFs it touches from the
+ * cache; deleteAll empties it. The other reads go straight to the IDAO.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class CachingDAO implements IDAO {
+
+    //Stands for a NIF that is not registered.
+    private static final Person MISSING = new Person();
+    private static final int DEFAULT_ENTRIES = 1000;
+    private static final long DEFAULT_BYTES = 64L * 1024 * 1024;
+    private static final long DEFAULT_TTL_MILLIS = 60_000;
+    private static final long DEFAULT_MISSING_TTL_MILLIS = 5_000;
+
+    private final IDAO dao;
+    private final int maxEntries;
+    private final long maxBytes;
+    private final int maxProtected;
+    private final long ttlNanos;
+    private final long missingTtlNanos;
+    //Both in access order: the first entry is the least recently used.
+    private final LinkedHashMap<String, Entry> probation = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Entry> protectedPeople = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+    private long hits;
+    private long misses;
+    //Counts the writes, so a read that overlaps one does not cache what it read.
+    private long writes;
+
+    private static final class Entry {
+
+        private final Person person;
+        private final long weight;
+        private final long expires;
+
+        private Entry(Person person, long expires) {
+            this.person = person;
+            this.weight = weigh(person);
+            this.expires = expires;
+        }
+    }
+
+    /**
+     * @param dao storage system, with room for 1000 people or 64 MiB
+     */
+    public CachingDAO(IDAO dao) {
+        this(dao, DEFAULT_ENTRIES, DEFAULT_BYTES);
+    }
+
+    /**
+     * @param dao storage system
+     * @param maxEntries maximum number of NIFs kept, registered or not
+     * @param maxBytes maximum estimated size of the people kept
+     */
+    public CachingDAO(IDAO dao, int maxEntries, long maxBytes) {
+        this(dao, maxEntries, maxBytes, DEFAULT_TTL_MILLIS, DEFAULT_MISSING_TTL_MILLIS);
+    }
+
+    /**
+     * @param dao storage system
+     * @param maxEntries maximum number of NIFs kept, registered or not
+     * @param maxBytes maximum estimated size of the people kept
+     * @param ttlMillis time a person read is kept
+     * @param missingTtlMillis time a NIF found not to be registered is kept
+     */
+    public CachingDAO(IDAO dao, int maxEntries, long maxBytes, long ttlMillis, long missingTtlMillis) {
+        if (maxEntries < 1 || maxBytes < 1) {
+            throw new IllegalArgumentException("The cache must have room for one person.");
+        }
+        if (ttlMillis < 0 || missingTtlMillis < 0) {
+            throw new IllegalArgumentException("The time an entry is kept cannot be negative.");
+        }
+        this.dao = dao;
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.maxProtected = maxEntries * 4 / 5;
+        this.ttlNanos = ttlMillis * 1_000_000;
+        this.missingTtlNanos = missingTtlMillis * 1_000_000;
+    }
+
+    public IDAO getDAO() {
+        return dao;
+    }
+
+    @Override
+    public Person read(Person p) throws Exception {
+        Entry cached;
+        long seen;
+        synchronized (this) {
+            cached = lookup(p.getNif());
+            seen = writes;
+        }
+        if (cached != null) {
+            return cached.person != MISSING ? cached.person : null;
+        }
+        Person read = dao.read(p);
+        store(p.getNif(), read != null ? read : MISSING, seen);
+        return read;
+    }
+
+    /**
+     * Answered from the cache when the NIF is in it and has not expired. A
+     * NIF found not to be registered is cached as missing.
+     */
+    @Override
+    public boolean exists(String nif) throws Exception {
+        Entry cached;
+        long seen;
+        synchronized (this) {
+            cached = lookup(nif);
+            seen = writes;
+        }
+        if (cached != null) {
+            return cached.person != MISSING;
+        }
+        boolean exists = dao.exists(nif);
+        if (!exists) {
+            store(nif, MISSING, seen);
+        }
+        return exists;
+    }
+
+    @Override
+    public ArrayList<Person> readAll() throws Exception {
+        return dao.readAll();
+    }
+
+    @Override
+    public int count() throws Exception {
+        return dao.count();
+    }
+
+    @Override
+    public Stream<Person> stream() throws Exception {
+        return dao.stream();
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws Exception {
+        return dao.streamSummaries();
+    }
+
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws Exception {
+        return dao.readPage(after, size);
+    }
+
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws Exception {
+        return dao.readSummaryPage(after, size);
+    }
+
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        return dao.query(query);
+    }
+
+    @Override
+    public void insert(Person p) throws Exception {
+        try {
+            dao.insert(p);
+        } finally {
+            invalidate(p.getNif());
+        }
+    }
+
+    @Override
+    public void update(Person p) throws Exception {
+        try {
+            dao.update(p);
+        } finally {
+            invalidate(p.getNif());
+        }
+    }
+
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        try {
+            dao.update(p, expectedVersion);
+        } finally {
+            invalidate(p.getNif());
+        }
+    }
+
+    @Override
+    public void upsert(Person p) throws Exception {
+        try {
+            dao.upsert(p);
+        } finally {
+            invalidate(p.getNif());
+        }
+    }
+
+    @Override
+    public void delete(Person p) throws Exception {
+        try {
+            dao.delete(p);
+        } finally {
+            invalidate(p.getNif());
+        }
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+        try {
+            dao.deleteAll();
+        } finally {
+            clear();
+        }
+    }
+
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        try {
+            return dao.insertAll(people);
+        } finally {
+            invalidate(people);
+        }
+    }
+
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        try {
+            return dao.updateAll(people);
+        } finally {
+            invalidate(people);
+        }
+    }
+
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        try {
+            return dao.deleteAll(people);
+        } finally {
+            invalidate(people);
+        }
+    }
+
+    /**
+     * @return reads of read() and exists() answered by the cache
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return reads of read() and exists() that went to the storage system
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return number of NIFs in the cache, registered or not
+     */
+    public synchronized int size() {
+        return probation.size() + protectedPeople.size();
+    }
+
+    /**
+     * @return estimated size of the people in the cache
+     */
+    public synchronized long bytes() {
+        return bytes;
+    }
+
+    /**
+     * Empties the cache, e.g. after the data has been changed by another
+     * application. The counters are kept.
+     */
+    public synchronized void clear() {
+        writes++;
+        probation.clear();
+        protectedPeople.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Counts the hit or the miss; a hit in probation promotes the entry and
+     * an expired entry is removed and counted as a miss.
+     */
+    private Entry lookup(String nif) {
+        Entry entry = protectedPeople.get(nif);
+        if (entry != null && expired(entry)) {
+            protectedPeople.remove(nif);
+            bytes -= entry.weight;
+            entry = null;
+        }
+        if (entry == null) {
+            entry = probation.remove(nif);
+            if (entry != null && expired(entry)) {
+                bytes -= entry.weight;
+                entry = null;
+            }
+            if (entry != null) {
+                protectedPeople.put(nif, entry);
+                //The least recently used protected ones go back to probation.
+                Iterator<Map.Entry<String, Entry>> eldest = protectedPeople.entrySet().iterator();
+                while (protectedPeople.size() > maxProtected && eldest.hasNext()) {
+                    Map.Entry<String, Entry> demoted = eldest.next();
+                    eldest.remove();
+                    probation.put(demoted.getKey(), demoted.getValue());
+                }
+            }
+        }
+        if (entry != null) {
+            hits++;
+        } else {
+            misses++;
+        }
+        return entry;
+    }
+
+    private synchronized void store(String nif, Person p, long seen) {
+        if (writes != seen) {
+            return;
+        }
+        Entry entry = new Entry(p, System.nanoTime() + (p != MISSING ? ttlNanos : missingTtlNanos));
+        if (entry.weight > maxBytes) {
+            return;
+        }
+        Entry previous = probation.put(nif, entry);
+        bytes += entry.weight - (previous != null ? previous.weight : 0);
+        evict();
+    }
+
+    private static boolean expired(Entry entry) {
+        return System.nanoTime() - entry.expires >= 0;
+    }
+
+    private void evict() {
+        while (size() > maxEntries || bytes > maxBytes) {
+            LinkedHashMap<String, Entry> segment = !probation.isEmpty() ? probation : protectedPeople;
+            Iterator<Entry> eldest = segment.values().iterator();
+            bytes -= eldest.next().weight;
+            eldest.remove();
+        }
+    }
+
+    private synchronized void invalidate(String nif) {
+        writes++;
+        Entry entry = probation.remove(nif);
+        if (entry == null) {
+            entry = protectedPeople.remove(nif);
+        }
+        if (entry != null) {
+            bytes -= entry.weight;
+        }
+    }
+
+    private synchronized void invalidate(Collection<Person> people) {
+        for (Person p : people) {
+            invalidate(p.getNif());
+        }
+    }
+
+    /**
+     * @return rough size of the person in memory: the strings, the pixels of
+     * the photo and the photo bytes
+     */
+    static long weigh(Person p) {
+        long weight = 64;
+        for (String s : new String[]{p.getNif(), p.getName(), p.getEmail(), p.getPhoneNumber(), p.getPostalCode()}) {
+            weight += s != null ? 40 + 2L * s.length() : 0;
+        }
+        if (p.getPhoto() != null) {
+            weight += 4L * Math.max(0, p.getPhoto().getIconWidth()) * Math.max(0, p.getPhoto().getIconHeight());
+        }
+        if (p.getPhotoOnlyJPA() != null) {
+            weight += p.getPhotoOnlyJPA().length;
+        }
+        return weight;
+    }
+
+}
@@ -0,0 +1,58 @@
+package model.dao;
+
+import model.entity.Person;
+
+/**
+ * A write made through an ObservableDAO: what was done, to which NIF and
+ * the person as it was saved. The events are numbered in the order they
+ * were published.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class ChangeEvent {
+
+    public enum Type {
+        INSERT, UPDATE, DELETE, DELETE_ALL
+    }
+
+    private final long sequence;
+    private final Type type;
+    private final String nif;
+    private final Person person;
+
+    ChangeEvent(long sequence, Type type, String nif, Person person) {
+        this.sequence = sequence;
+        this.type = type;
+        this.nif = nif;
+        this.person = person;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return NIF changed, null for DELETE_ALL
+     */
+    public String getNif() {
+        return nif;
+    }
+
+    /**
+     * @return the person saved, null for DELETE and DELETE_ALL
+     */
+    public Person getPerson() {
+        return person;
+    }
+
+    @Override
+    public String toString() {
+        return "ChangeEvent {Sequence = " + sequence + ", Type = " + type + ", NIF = " + nif + "}";
+    }
+
+}
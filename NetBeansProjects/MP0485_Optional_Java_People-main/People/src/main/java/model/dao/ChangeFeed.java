@@ -0,0 +1,172 @@
+package model.dao;
+
+import model.entity.Person;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers the changes published to every subscriber, in order, on a thread
+ * of each subscriber. The events are kept in a ring buffer without locks:
+ * a publisher takes the next sequence number with an atomic increment and
+ * stores the event in the slot of that number, and every subscriber follows
+ * the slots with its own cursor, so publishing does not wait for the
+ * listeners. A publisher only waits when the ring is full, until the
+ * slowest subscriber has taken the oldest event (backpressure), so a
+ * listener must not publish to the feed it listens to.
+ * A subscriber gets the events published after it subscribed. An exception
+ * of a listener is logged and the next event is delivered.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class ChangeFeed {
+
+    private static final int DEFAULT_CAPACITY = 1024;
+    private static final long FULL_NANOS = 50_000;
+
+    private final AtomicReferenceArray<ChangeEvent> ring;
+    private final int mask;
+    private final AtomicLong claimed = new AtomicLong();
+    private final AtomicInteger threads = new AtomicInteger();
+    private final CopyOnWriteArrayList<Subscription> subscriptions = new CopyOnWriteArrayList<>();
+
+    /**
+     * A listener and its thread. close() stops it.
+     */
+    public final class Subscription implements AutoCloseable {
+
+        private final ChangeListener listener;
+        private final Thread thread;
+        //Sequence of the last event delivered; only its thread writes it once
+        //it is started.
+        private volatile long cursor;
+        private volatile boolean closed;
+
+        private Subscription(ChangeListener listener, long cursor) {
+            this.listener = listener;
+            this.cursor = cursor;
+            thread = new Thread(this::deliver, "People change feed " + threads.incrementAndGet());
+            thread.setDaemon(true);
+        }
+
+        /**
+         * @return sequence of the last event delivered to the listener
+         */
+        public long getCursor() {
+            return cursor;
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            subscriptions.remove(this);
+            LockSupport.unpark(thread);
+        }
+
+        private void deliver() {
+            while (!closed) {
+                long next = cursor + 1;
+                ChangeEvent event = ring.get(index(next));
+                if (event == null || event.getSequence() != next) {
+                    //Publishers unpark it after storing an event, and an
+                    //unpark before the park is not lost, so it checks again.
+                    LockSupport.park(this);
+                    continue;
+                }
+                try {
+                    listener.onChange(event);
+                } catch (Exception ex) {
+                    Logger.getLogger(ChangeFeed.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                cursor = next;
+            }
+        }
+    }
+
+    /**
+     * With room for 1024 events not delivered yet.
+     */
+    public ChangeFeed() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param capacity events not delivered yet before the publishers wait, a
+     * power of two
+     */
+    public ChangeFeed(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two.");
+        }
+        ring = new AtomicReferenceArray<>(capacity);
+        mask = capacity - 1;
+    }
+
+    /**
+     * @param listener receives the events published from now on
+     * @return the subscription, to close it
+     */
+    public Subscription subscribe(ChangeListener listener) {
+        //Until it is registered, a publisher does not wait for it, so its
+        //cursor is only taken afterwards. Meanwhile the older one holds the
+        //publishers back.
+        Subscription subscription = new Subscription(listener, claimed.get());
+        subscriptions.add(subscription);
+        subscription.cursor = claimed.get();
+        subscription.thread.start();
+        return subscription;
+    }
+
+    /**
+     * Does nothing when there are no subscribers.
+     * @param type change
+     * @param nif NIF changed, null for DELETE_ALL
+     * @param person person saved, null for the deletes
+     */
+    public void publish(ChangeEvent.Type type, String nif, Person person) {
+        if (subscriptions.isEmpty()) {
+            return;
+        }
+        long sequence = claimed.incrementAndGet();
+        while (sequence - ring.length() > slowest()) {
+            wakeUp();
+            LockSupport.parkNanos(this, FULL_NANOS);
+        }
+        ring.set(index(sequence), new ChangeEvent(sequence, type, nif, person));
+        wakeUp();
+    }
+
+    /**
+     * Closes all the subscriptions.
+     */
+    public void close() {
+        for (Subscription subscription : subscriptions) {
+            subscription.close();
+        }
+    }
+
+    private int index(long sequence) {
+        return (int) (sequence & mask);
+    }
+
+    private long slowest() {
+        long slowest = Long.MAX_VALUE;
+        for (Subscription subscription : subscriptions) {
+            slowest = Math.min(slowest, subscription.cursor);
+        }
+        return slowest;
+    }
+
+    private void wakeUp() {
+        for (Subscription subscription : subscriptions) {
+            LockSupport.unpark(subscription.thread);
+        }
+    }
+
+}
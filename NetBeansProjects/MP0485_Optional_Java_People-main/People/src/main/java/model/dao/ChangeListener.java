@@ -0,0 +1,15 @@
+package model.dao;
+
+/**
+ * Receives the changes published by an ObservableDAO, one at a time and in
+ * order, on a thread of its own.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+@FunctionalInterface
+public interface ChangeListener {
+
+    public abstract void onChange(ChangeEvent event) throws Exception;
+
+}
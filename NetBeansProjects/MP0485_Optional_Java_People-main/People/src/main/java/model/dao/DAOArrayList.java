@@ -35,14 +35,38 @@ public class DAOArrayList implements IDAO{
         people.clear();
     }
     
+    @Override
+    public void upsert(Person p) {
+        int i = people.indexOf(p);
+        if (i >= 0) {
+            p.setVersion(people.get(i).getVersion() + 1);
+            people.set(i, p);
+        } else {
+            people.add(p);
+        }
+    }
+
     @Override
     public void update(Person p){
-        people.set(people.indexOf(p), p);
+        int i = people.indexOf(p);
+        p.setVersion(people.get(i).getVersion() + 1);
+        people.set(i, p);
     }
     
     @Override
     public ArrayList<Person> readAll(){
-        return people;
+        //A copy, so the caller can not change the stored list.
+        return new ArrayList<>(people);
+    }
+
+    @Override
+    public int count(){
+        return people.size();
+    }
+
+    @Override
+    public boolean exists(String nif){
+        return people.contains(new Person(nif));
     }
    
 }
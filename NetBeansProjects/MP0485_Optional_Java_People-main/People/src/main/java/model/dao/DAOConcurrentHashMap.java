@@ -0,0 +1,98 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * This class implements the IDAO interface and completes the function code
+ * blocks so that they can operate with a ConcurrentHashMap structure, so the
+ * same object can be shared by several threads. Reads do not lock, writes
+ * only lock the bin of the NIF (or use a CAS when the bin is empty) and
+ * readAll returns a weakly consistent snapshot: a copy that can include or
+ * miss the writes made while it is being built, but never fails because of
+ * them. The NIF is used as the key.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOConcurrentHashMap implements IDAO {
+
+    private final ConcurrentHashMap<String, Person> people = new ConcurrentHashMap<>();
+
+    @Override
+    public Person read(Person p) {
+        return people.get(p.getNif());
+    }
+
+    @Override
+    public void insert(Person p) {
+        people.put(p.getNif(), p);
+    }
+
+    @Override
+    public void delete(Person p) {
+        people.remove(p.getNif());
+    }
+
+    @Override
+    public void deleteAll() {
+        people.clear();
+    }
+
+    @Override
+    public void upsert(Person p) {
+        people.merge(p.getNif(), p, (current, given) -> {
+            given.setVersion(current.getVersion() + 1);
+            return given;
+        });
+    }
+
+    /**
+     * The version is checked and the person replaced inside compute, which
+     * locks the bin of the NIF.
+     */
+    @Override
+    public void update(Person p, long expectedVersion) throws PersonException {
+        PersonException[] error = {null};
+        people.compute(p.getNif(), (nif, current) -> {
+            try {
+                VersionConflictException.check(current, nif, expectedVersion);
+            } catch (PersonException ex) {
+                error[0] = ex;
+                return current;
+            }
+            p.setVersion(current.getVersion() + 1);
+            return p;
+        });
+        if (error[0] != null) {
+            throw error[0];
+        }
+    }
+
+    @Override
+    public void update(Person p) {
+        people.computeIfPresent(p.getNif(), (nif, current) -> {
+            p.setVersion(current.getVersion() + 1);
+            return p;
+        });
+    }
+
+    @Override
+    public ArrayList<Person> readAll() {
+        return new ArrayList<>(people.values());
+    }
+
+    @Override
+    public int count() {
+        return people.size();
+    }
+
+    @Override
+    public boolean exists(String nif) {
+        return people.containsKey(nif);
+    }
+
+}
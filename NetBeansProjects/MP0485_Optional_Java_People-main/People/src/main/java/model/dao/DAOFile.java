@@ -1,25 +1,39 @@
 package model.dao;
 
 import model.entity.Person;
+import model.entity.PersonSummary;
 import start.Routes;
 
 import java.awt.image.BufferedImage;
+import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 
@@ -27,37 +41,96 @@ import javax.swing.ImageIcon;
  * This class implements the IDAO interface and completes the code of the
  * functions so that they can work with files. User data is saved in the
  * "dataFile.txt" file and the associated photos, if any, are saved with the
- * name NIF.png in the "Photos" folder.
+ * name NIF.png in the "Photos" folder, both in the "File" folder unless
+ * another one is given. A B+tree index saved in "dataFile.idx" keeps the
+ * offset of the line of every NIF, so a read only reads one line.
  * @author Francesc Perez
  * @version 1.1.0
  */
 public class DAOFile implements IDAO {
 
+    private final File dataFile;
+    private final File folderPhotos;
+    private final BPlusTreeIndex index;
+
+    public DAOFile() throws IOException {
+        this(new File(Routes.FILE.getFolderPath()));
+    }
+
+    /**
+     * @param folder folder of the data file, the index and the "Photos"
+     * folder, which are created if they do not exist
+     * @throws IOException
+     */
+    public DAOFile(File folder) throws IOException {
+        dataFile = new File(folder, new File(Routes.FILE.getDataFile()).getName());
+        folderPhotos = new File(folder, new File(Routes.FILE.getFolderPhotos()).getName());
+        folderPhotos.mkdirs();
+        dataFile.createNewFile();
+        index = new BPlusTreeIndex(new File(folder, "dataFile.idx"));
+        if (index.isStale(dataFile)) {
+            rebuildIndex();
+        }
+    }
+
     @Override
     public Person read(Person p) throws Exception {
-        Person personToRead = null;
-        FileReader fr;
-        BufferedReader br;
-        fr = new FileReader(Routes.FILE.getDataFile());
-        br = new BufferedReader(fr);
-        String line;
-        line = br.readLine();
-        while (line != null) {
-            String data[] = line.split("\t");
-            if (data[1].equals(p.getNif())) {
-                Date date = null;
-                if (!data[2].equals("null")) {
-                    DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-                    date = dateFormat.parse(data[2]);
-                }
-                ImageIcon photo = null;
-                if (!data[3].equals("null")) {
-                    photo = new ImageIcon(data[3]);
-                }
-                personToRead = new Person(data[0], data[1], date, photo);
-                break;
+        //The index gives the offset of the line, so only that line is read.
+        long offset = index.get(p.getNif());
+        if (offset < 0) {
+            return null;
+        }
+        Person pr = readAt(offset, this::parse);
+        return pr != null && pr.getNif().equals(p.getNif()) ? pr : null;
+    }
+
+    /**
+     * The B+tree index seeks the first NIF after the given one and gives the
+     * offsets of the page, so only its lines are read.
+     */
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws IOException, ParseException {
+        return page(after, size, this::parse);
+    }
+
+    /**
+     * Like readPage, but the photo path is only compared with "null", so no
+     * photo file is loaded.
+     */
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws IOException, ParseException {
+        return page(after, size, this::summarize);
+    }
+
+    private <T> ArrayList<T> page(String after, int size, Line<T> parser) throws IOException, ParseException {
+        ArrayList<T> people = new ArrayList<>();
+        if (size <= 0) {
+            return people;
+        }
+        //The range includes after, so one more is asked.
+        for (Map.Entry<String, Long> entry : index.range(after, null, size + 1).entrySet()) {
+            T pr = !entry.getKey().equals(after) && people.size() < size ? readAt(entry.getValue(), parser) : null;
+            if (pr != null) {
+                people.add(pr);
             }
-            line = br.readLine();
+        }
+        return people;
+    }
+
+    /**
+     * @return the person of the line that starts at the offset or null if
+     * the file ends there
+     */
+    private <T> T readAt(long offset, Line<T> parser) throws IOException, ParseException {
+        T personToRead = null;
+        FileInputStream fis;
+        BufferedReader br;
+        fis = new FileInputStream(dataFile);
+        fis.getChannel().position(offset);
+        br = new BufferedReader(new InputStreamReader(fis));
+        String line = br.readLine();
+        if (line != null) {
+            personToRead = parser.parse(line);
         }
         br.close();
         return personToRead;
@@ -68,46 +141,154 @@ public class DAOFile implements IDAO {
         ArrayList<Person> people = new ArrayList<>();
         FileReader fr;
         BufferedReader br;
-        fr = new FileReader(Routes.FILE.getDataFile());
+        fr = new FileReader(dataFile);
         br = new BufferedReader(fr);
         String line;
         line = br.readLine();
         while (line != null) {
-            String data[] = line.split("\t");
-            Date date = null;
-            if (!data[2].equals("null")) {
-                DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
-                date = dateFormat.parse(data[2]);
-            }
-            ImageIcon photo = null;
-            if (!data[3].equals("null")) {
-                photo = new ImageIcon(data[3]);
-            }
-            people.add(new Person(data[0], data[1], date, photo));
+            people.add(parse(line));
             line = br.readLine();
         }
         br.close();
         return people;
     }
 
+    @Override
+    public int count() {
+        //Every registered NIF has one entry in the index.
+        return (int) index.size();
+    }
+
+    @Override
+    public boolean exists(String nif) throws IOException {
+        return index.contains(nif);
+    }
+
     @Override
     public void insert(Person p) throws IOException {
-        String sep = File.separator;
+        long offset = dataFile.length();
+        FileWriter fw;
+        BufferedWriter bw;
+        fw = new FileWriter(dataFile, true);
+        bw = new BufferedWriter(fw);
+        bw.write(line(p));
+        bw.flush();
+        bw.close();
+        //As in a scan, the first line of a NIF is the one that counts.
+        if (!index.contains(p.getNif())) {
+            index.put(p.getNif(), offset);
+        }
+        index.sync(dataFile);
+    }
+
+    /**
+     * Appends the lines of all the people not registered yet with a single
+     * write and syncs the index once.
+     */
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws IOException {
+        BatchReport report = new BatchReport();
+        append(lines(people, report, true));
+        return report;
+    }
+
+    /**
+     * Rewrites the data file once, with the new lines of the registered
+     * people where the old ones were.
+     */
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws IOException {
+        BatchReport report = new BatchReport();
+        rewriteLines(lines(people, report, false));
+        return report;
+    }
+
+    /**
+     * Rewrites the data file once without the registered people.
+     */
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws IOException {
+        BatchReport report = new BatchReport();
+        HashSet<String> nifs = new HashSet<>();
+        for (Person p : people) {
+            if (index.contains(p.getNif()) && nifs.add(p.getNif())) {
+                report.done(p.getNif());
+            } else {
+                report.skipped(p.getNif(), "Not registered.");
+            }
+        }
+        removeLines(nifs);
+        return report;
+    }
+
+    /**
+     * Builds the lines of the people to insert (not registered) or update
+     * (registered), once per NIF, before the data file is touched.
+     * @return line of every NIF, in the order of the collection
+     */
+    private LinkedHashMap<String, String> lines(Collection<Person> people, BatchReport report, boolean insert) throws IOException {
+        LinkedHashMap<String, String> lines = new LinkedHashMap<>();
+        for (Person p : people) {
+            if (lines.containsKey(p.getNif())) {
+                report.skipped(p.getNif(), "Repeated in the batch.");
+            } else if (index.contains(p.getNif()) == insert) {
+                report.skipped(p.getNif(), insert ? "Already registered." : "Not registered.");
+            } else {
+                long previous = p.getVersion();
+                try {
+                    if (!insert) {
+                        p.setVersion(version(p.getNif()) + 1);
+                    }
+                    lines.put(p.getNif(), line(p));
+                    report.done(p.getNif());
+                } catch (IOException ex) {
+                    p.setVersion(previous);
+                    report.failed(p.getNif(), ex);
+                }
+            }
+        }
+        return lines;
+    }
+
+    private void append(LinkedHashMap<String, String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
+        long offset = dataFile.length();
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> line : lines.entrySet()) {
+            text.append(line.getValue());
+            index.put(line.getKey(), offset);
+            offset += line.getValue().getBytes().length;
+        }
         FileWriter fw;
         BufferedWriter bw;
-        fw = new FileWriter(Routes.FILE.getDataFile(), true);
+        fw = new FileWriter(dataFile, true);
         bw = new BufferedWriter(fw);
+        bw.write(text.toString());
+        bw.flush();
+        bw.close();
+        index.sync(dataFile);
+    }
+
+    /**
+     * Saves the photo, if any, as NIF.png in the "Photos" folder.
+     * @return line of the person in the data file
+     */
+    private String line(Person p) throws IOException {
+        String sep = File.separator;
+        StringBuilder line = new StringBuilder();
         if (p.getDateOfBirth() != null) {
             DateFormat dateFormat = new SimpleDateFormat("yyy/MM/dd");
             String dateAsString = dateFormat.format(p.getDateOfBirth());
-            bw.write(p.getName() + "\t" + p.getNif() + "\t" + dateAsString + "\t");
+            line.append(p.getName() + "\t" + p.getNif() + "\t" + dateAsString + "\t");
         } else {
-            bw.write(p.getName() + "\t" + p.getNif() + "\t" + "null" + "\t");
+            line.append(p.getName() + "\t" + p.getNif() + "\t" + "null" + "\t");
         }
         if (p.getPhoto() != null) {
             FileOutputStream out;
             BufferedOutputStream outB;
-            String fileName = Routes.FILE.getFolderPhotos() + sep + p.getNif() + ".png";         
+            String fileName = folderPhotos.getPath() + sep + p.getNif() + ".png";         
             out = new FileOutputStream(fileName);
             outB = new BufferedOutputStream(out);
             BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
@@ -124,53 +305,273 @@ public class DAOFile implements IDAO {
             }
             outB.flush();
             outB.close();
-            bw.write(fileName + "\n");
+            line.append(fileName);
         } else {
-            bw.write("null" + "\n");
+            line.append("null");
         }
-        bw.flush();
-        bw.close();
+        //Lines written before the version existed end with the photo.
+        if (p.getVersion() != 0) {
+            line.append("\t" + p.getVersion());
+        }
+        line.append("\n");
+        return line.toString();
     }
 
     @Override
     public void delete(Person p) throws IOException {
+        if (!index.contains(p.getNif())) {
+            return;
+        }
+        HashSet<String> nifs = new HashSet<>();
+        nifs.add(p.getNif());
+        removeLines(nifs);
+    }
+
+    /**
+     * Rewrites the data file without the lines of the given NIFs and deletes
+     * their photos.
+     */
+    private void removeLines(Set<String> nifs) throws IOException {
+        HashMap<String, String> lines = new HashMap<>();
+        for (String nif : nifs) {
+            lines.put(nif, null);
+        }
+        rewriteLines(lines);
+    }
+
+    /**
+     * Rewrites the data file in a single pass: the lines of every NIF in the
+     * map are replaced by its new line, where the first one was, or removed
+     * if the new line is null. The index is built in the same pass.
+     */
+    private void rewriteLines(Map<String, String> lines) throws IOException {
+        if (lines.isEmpty()) {
+            return;
+        }
         String sep = File.separator;
+        TreeMap<String, Long> offsets = new TreeMap<>();
         RandomAccessFile rafRW;
-        rafRW = new RandomAccessFile(Routes.FILE.getDataFile(), "rw");
-        String textoNuevo = "";
+        rafRW = new RandomAccessFile(dataFile, "rw");
+        StringBuilder textoNuevo = new StringBuilder();
         while (rafRW.getFilePointer() < rafRW.length()) {
             String l = rafRW.readLine();
             String d[] = l.split("\t");
-            if (p.getNif().equals(d[1])) {
-                if (!d[3].equals("null")) {
-                    File photoFile = new File(Routes.FILE.getFolderPhotos() + sep + p.getNif()
+            if (lines.containsKey(d[1])) {
+                String line = lines.get(d[1]);
+                //The new photo has already been saved with the same name.
+                if (!d[3].equals("null") && (line == null || line.split("[\t\n]")[3].equals("null"))) {
+                    File photoFile = new File(folderPhotos.getPath() + sep + d[1]
                             + ".png");
                     photoFile.delete();
                 }
+                if (line != null && !offsets.containsKey(d[1])) {
+                    offsets.put(d[1], (long) textoNuevo.length());
+                    //readLine and writeBytes take every byte as a char.
+                    textoNuevo.append(new String(line.getBytes(), StandardCharsets.ISO_8859_1));
+                }
             } else {
-                textoNuevo += d[0] + "\t" + d[1] + "\t" + d[2] + "\t" + d[3]
-                        + "\n";
+                offsets.putIfAbsent(d[1], (long) textoNuevo.length());
+                textoNuevo.append(l + "\n");
             }
         }
         rafRW.setLength(0);
-        rafRW.writeBytes(textoNuevo);
+        rafRW.writeBytes(textoNuevo.toString());
         rafRW.close();
+        //Every line after a changed one has moved.
+        index.rebuild(offsets.entrySet().iterator());
+        index.sync(dataFile);
     }
 
     @Override
     public void deleteAll() throws IOException {
-        File file = new File(Routes.FILE.getDataFile());
+        File file = dataFile;
         file.delete();
         file.createNewFile();
-        file = new File(Routes.FILE.getFolderPhotos());
+        file = folderPhotos;
         for(File f : file.listFiles())
             f.delete();
+        index.clear();
+        index.sync(dataFile);
     }
     
     @Override
     public void update(Person p) throws IOException {
-        delete(p);
-        insert(p);
+        upsert(p);
+    }
+
+    /**
+     * A new person is appended; a registered one gets its new line where the
+     * old one was, with a single rewrite of the data file.
+     */
+    @Override
+    public void upsert(Person p) throws IOException {
+        if (index.contains(p.getNif())) {
+            long previous = p.getVersion();
+            p.setVersion(version(p.getNif()) + 1);
+            try {
+                rewriteLines(Map.of(p.getNif(), line(p)));
+            } catch (IOException ex) {
+                p.setVersion(previous);
+                throw ex;
+            }
+        } else {
+            insert(p);
+        }
+    }
+
+    //Only the version field of the registered line is parsed.
+    private long version(String nif) throws IOException {
+        try {
+            Long version = readAt(index.get(nif), line -> {
+                String data[] = line.split("\t");
+                return data.length > 4 ? Long.parseLong(data[4]) : 0L;
+            });
+            return version == null ? 0 : version;
+        } catch (ParseException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private Person parse(String line) throws ParseException {
+        String data[] = line.split("\t");
+        Date date = null;
+        if (!data[2].equals("null")) {
+            DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
+            date = dateFormat.parse(data[2]);
+        }
+        ImageIcon photo = null;
+        if (!data[3].equals("null")) {
+            photo = new ImageIcon(data[3]);
+        }
+        Person p = new Person(data[0], data[1], date, photo);
+        if (data.length > 4) {
+            p.setVersion(Long.parseLong(data[4]));
+        }
+        return p;
+    }
+
+    private PersonSummary summarize(String line) throws ParseException {
+        String data[] = line.split("\t");
+        Date date = null;
+        if (!data[2].equals("null")) {
+            DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd");
+            date = dateFormat.parse(data[2]);
+        }
+        return new PersonSummary(data[1], data[0], date, null, null, null, !data[3].equals("null"));
     }
 
+    //Parses a line of the data file.
+    private interface Line<T> {
+
+        T parse(String line) throws ParseException;
+    }
+
+    /**
+     * Scans the data file byte by byte to know where every line starts and
+     * loads the NIF index with it.
+     */
+    private void rebuildIndex() throws IOException {
+        TreeMap<String, Long> offsets = new TreeMap<>();
+        if (dataFile.exists()) {
+            BufferedInputStream in = new BufferedInputStream(new FileInputStream(dataFile));
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            long position = 0;
+            long lineStart = 0;
+            int b;
+            while ((b = in.read()) != -1) {
+                position++;
+                if (b == '\n') {
+                    addLine(offsets, line.toByteArray(), lineStart);
+                    line.reset();
+                    lineStart = position;
+                } else {
+                    line.write(b);
+                }
+            }
+            addLine(offsets, line.toByteArray(), lineStart);
+            in.close();
+        }
+        index.rebuild(offsets.entrySet().iterator());
+        index.sync(dataFile);
+    }
+
+    private void addLine(TreeMap<String, Long> offsets, byte[] line, long offset) {
+        //The NIF is the second field of the line.
+        int start = 0;
+        while (start < line.length && line[start] != '\t') {
+            start++;
+        }
+        int end = start + 1;
+        while (end < line.length && line[end] != '\t') {
+            end++;
+        }
+        if (end < line.length) {
+            offsets.putIfAbsent(new String(line, start + 1, end - start - 1), offset);
+        }
+    }
+
+    /**
+     * Parses the data file line by line as the stream is consumed.
+     */
+    @Override
+    public Stream<Person> stream() throws IOException {
+        return lines(this::parse);
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws IOException {
+        return lines(this::summarize);
+    }
+
+    private <T> Stream<T> lines(Line<T> parser) throws IOException {
+        BufferedReader br = new BufferedReader(new FileReader(dataFile));
+        return new PersonCursor<T>() {
+            @Override
+            protected T fetch() throws IOException, ParseException {
+                String line = br.readLine();
+                return line != null ? parser.parse(line) : null;
+            }
+
+            @Override
+            protected void release() throws IOException {
+                br.close();
+            }
+        }.stream();
+    }
+
+    /**
+     * If the query limits the NIFs, only the records of that range of the
+     * B+tree index are read, in NIF order; otherwise the file is read from
+     * start to end, which is cheaper than reading every record at its
+     * offset.
+     */
+    @Override
+    public ArrayList<Person> query(Query query) throws IOException {
+        String[] bounds = query.nifBounds();
+        if (bounds[0] == null && bounds[1] == null) {
+            try (Stream<Person> people = stream()) {
+                return query.apply(people, false);
+            }
+        }
+        Iterator<Map.Entry<String, Long>> entries = index.range(bounds[0], bounds[1], 0).entrySet().iterator();
+        try (Stream<Person> people = new PersonCursor<Person>() {
+            @Override
+            protected Person fetch() throws IOException, ParseException {
+                while (entries.hasNext()) {
+                    Map.Entry<String, Long> entry = entries.next();
+                    Person p = readAt(entry.getValue(), DAOFile.this::parse);
+                    if (p != null) {
+                        return p;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void release() {
+            }
+        }.stream()) {
+            return query.apply(people, true);
+        }
+    }
 }
@@ -0,0 +1,207 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import start.Routes;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+import javax.imageio.ImageIO;
+
+/**
+ * This class implements the IDAO interface and completes the code of the
+ * functions so that they can work with an append-only log of files (see
+ * SegmentLog). Inserts, updates and deletes never rewrite data: they only
+ * append one record (a tombstone in the case of a delete) to the active
+ * segment file. Records are encoded with PersonCodec, with a reference to
+ * the photo file. An in-memory HashMap keeps, for every NIF, where its last
+ * record is, so a read needs a single positioned read. Segments are saved in
+ * the "FileLog" folder and the associated photos, if any, are saved with the
+ * name NIF.png in the "Photos" folder.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOFileLog implements IDAO, SegmentLog.Owner {
+
+    private static final long SEGMENT_SIZE = 4 * 1024 * 1024;
+
+    private final File folderPhotos;
+    private final HashMap<String, Long> index = new HashMap<>();
+    private final SegmentLog log;
+
+    public DAOFileLog() throws IOException {
+        this(new File(Routes.FILELOG.getFolderPath()), new File(Routes.FILELOG.getFolderPhotos()));
+    }
+
+    public DAOFileLog(File folder, File folderPhotos) throws IOException {
+        this(folder, folderPhotos, SEGMENT_SIZE);
+    }
+
+    DAOFileLog(File folder, File folderPhotos, long segmentSize) throws IOException {
+        this.folderPhotos = folderPhotos;
+        folderPhotos.mkdirs();
+        log = new SegmentLog(folder, "segment-", ".log", segmentSize, this);
+        log.open();
+        log.replay();
+    }
+
+    @Override
+    public synchronized Person read(Person p) throws IOException {
+        Long location = index.get(p.getNif());
+        if (location == null) {
+            return null;
+        }
+        return PersonCodec.decode(log.read(location));
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() throws IOException {
+        //Reading in file order keeps the disk access sequential.
+        ArrayList<Map.Entry<String, Long>> locations = new ArrayList<>(index.entrySet());
+        locations.sort(Map.Entry.comparingByValue());
+        ArrayList<Person> people = new ArrayList<>(locations.size());
+        for (Map.Entry<String, Long> location : locations) {
+            people.add(PersonCodec.decode(log.read(location.getValue())));
+        }
+        return people;
+    }
+
+    @Override
+    public synchronized int count() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        return index.containsKey(nif);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException {
+        put(p);
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException {
+        //Like insert: the newest record of a NIF is the one that counts.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void update(Person p) throws IOException {
+        put(p);
+    }
+
+    /**
+     * Appends the record of the person; a registered one is stored with the
+     * version after the one of its last record.
+     */
+    private void put(Person p) throws IOException {
+        Long location = index.get(p.getNif());
+        long previous = p.getVersion();
+        if (location != null) {
+            p.setVersion(PersonCodec.version(log.read(location)) + 1);
+        }
+        try {
+            index.put(p.getNif(), log.append(SegmentLog.PUT, p.getNif(), PersonCodec.encode(p, savePhoto(p))));
+        } catch (IOException ex) {
+            p.setVersion(previous);
+            throw ex;
+        }
+    }
+
+    /**
+     * Checks the version and updates under the same lock.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, PersonException {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        update(p);
+    }
+
+    @Override
+    public synchronized void delete(Person p) throws IOException {
+        if (!index.containsKey(p.getNif())) {
+            return;
+        }
+        log.append(SegmentLog.TOMBSTONE, p.getNif(), new byte[0]);
+        index.remove(p.getNif());
+        new File(folderPhotos, p.getNif() + ".png").delete();
+    }
+
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        log.clear();
+        index.clear();
+        File[] photos = folderPhotos.listFiles();
+        if (photos != null) {
+            for (File f : photos) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Waits for a running compaction and closes the segment files. The object
+     * can not be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        log.close();
+        synchronized (this) {
+            index.clear();
+        }
+    }
+
+    @Override
+    public void replayed(String nif, byte kind, long location) {
+        if (kind == SegmentLog.PUT) {
+            index.put(nif, location);
+        } else {
+            index.remove(nif);
+        }
+    }
+
+    @Override
+    public Map<String, Long> live(int lastSegment) {
+        HashMap<String, Long> live = new HashMap<>();
+        for (Map.Entry<String, Long> entry : index.entrySet()) {
+            if (SegmentLog.segment(entry.getValue()) <= lastSegment) {
+                live.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return live;
+    }
+
+    @Override
+    public void relocated(Map<String, Long> from, Map<String, Long> to) {
+        for (Map.Entry<String, Long> entry : to.entrySet()) {
+            //Only records not overwritten while copying move.
+            if (from.get(entry.getKey()).equals(index.get(entry.getKey()))) {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private String savePhoto(Person p) throws IOException {
+        File photoFile = new File(folderPhotos, p.getNif() + ".png");
+        if (p.getPhoto() == null) {
+            photoFile.delete();
+            return null;
+        }
+        BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
+                p.getPhoto().getImage().getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        bi.getGraphics().drawImage(p.getPhoto().getImage(), 0, 0, null);
+        ImageIO.write(bi, "png", photoFile);
+        return photoFile.getPath();
+    }
+
+}
@@ -1,149 +1,370 @@
 package model.dao;
 
 import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.PersonSummary;
+import model.entity.VersionConflictException;
 import start.Routes;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
 
 /**
  * This class implements the IDAO interface and completes the code of the
- * functions so that they can work with files to store objects. User data is
- * saved in the "dataFileS.ser" file and the associated photos, if any, are
- * saved with the name NIF.png in the "Photos" folder.
+ * functions so that they can work with files to store objects. Every person
+ * is encoded on its own with PersonCodec, photo included, and appended,
+ * length-prefixed, to the segment files of the "FileSer" folder (see
+ * SegmentLog), so an insert is a single append. Deletes append a tombstone and updates a newer record instead of
+ * rewriting the file, and the closed segments are merged in the background.
+ * A B+tree index saved in "dataFile.idx" keeps where the last record of every
+ * NIF is. People saved by older versions in "dataFile.ser" are moved to the
+ * segments the first time the file is opened.
  *
  * @author Francesc Perez
  * @version 1.1.0
  */
-public class DAOFileSerializable implements IDAO {
+public class DAOFileSerializable implements IDAO, SegmentLog.Owner {
 
-    @Override
-    public Person read(Person p) throws IOException, ClassNotFoundException {
-        Person personToRead = null;
-        FileInputStream fIS = null;
-        ObjectInputStream o = null;
-        try {
-            fIS = new FileInputStream(Routes.FILES.getDataFile());
-            o = new ObjectInputStream(fIS);
-            Person pr;
-            while ((pr = (Person) o.readObject()) != null) {
-                if (pr.getNif().equals(p.getNif())) {
-                    personToRead = pr;
-                    break;
-                }
-            }
-            o.close();
-        } catch (java.io.EOFException ex) {
-            //Do nothing
-//            System.out.println("El archivo está vacío y no se puede crear"
-//                    + "el objeto ObjectInputStream");
-        } finally {
-            if (o != null) {
-                o.close();
+    private static final long SEGMENT_SIZE = 16 * 1024 * 1024;
+
+    private final BPlusTreeIndex index;
+    private final SegmentLog log;
+    //Only used while the segments are replayed to rebuild the index.
+    private TreeMap<String, Long> replayed;
+
+    public DAOFileSerializable() throws IOException, ClassNotFoundException {
+        this(new File(Routes.FILES.getFolderPath()));
+    }
+
+    public DAOFileSerializable(File folder) throws IOException, ClassNotFoundException {
+        this(folder, SEGMENT_SIZE);
+    }
+
+    DAOFileSerializable(File folder, long segmentSize) throws IOException, ClassNotFoundException {
+        folder.mkdirs();
+        index = new BPlusTreeIndex(new File(folder, "dataFile.idx"));
+        log = new SegmentLog(folder, "segment-", ".ser", segmentSize, this);
+        synchronized (this) {
+            log.open();
+            long[] signature = log.signature();
+            if (index.isStale(signature[0], signature[1])) {
+                replayed = new TreeMap<>();
+                log.replay();
+                index.rebuild(replayed.entrySet().iterator());
+                replayed = null;
+                sync();
             }
-            if (fIS != null) {
-                fIS.close();
+            File legacy = new File(folder, "dataFile.ser");
+            if (legacy.length() > 0) {
+                for (Person p : readLegacy(legacy)) {
+                    insert(p);
+                }
+                new FileOutputStream(legacy).close();
             }
         }
-        return personToRead;
     }
 
     @Override
-    public ArrayList<Person> readAll() throws IOException, ClassNotFoundException {
+    public synchronized Person read(Person p) throws IOException, ClassNotFoundException {
+        long location = index.get(p.getNif());
+        return location >= 0 ? deserialize(log.read(location)) : null;
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() throws IOException, ClassNotFoundException {
         ArrayList<Person> people = new ArrayList<>();
-        ObjectInputStream ois = null;
-        FileInputStream fIS = null;
-        try {
-            
-            fIS = new FileInputStream(Routes.FILES.getDataFile());
-            ois = new ObjectInputStream(fIS);
-            Person pr;
-            while ((pr = (Person) ois.readObject()) != null) {
-                people.add(pr);
-            }
-            ois.close();
-        } catch (java.io.EOFException ex) {
-            //Do nothing
-//            System.out.println("El archivo está vacío y no se puede crear"
-//                    + "el objeto ObjectInputStream");
-        } finally {
-            if (ois != null) {
-                ois.close();
-            }
-            if (fIS != null) {
-                fIS.close();
+        for (long location : index.range(null, null, 0).values()) {
+            people.add(deserialize(log.read(location)));
+        }
+        return people;
+    }
+
+    /**
+     * The B+tree index seeks the first NIF after the given one and gives
+     * where the records of the page are, so only they are read.
+     */
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws IOException, ClassNotFoundException {
+        return page(after, size, DAOFileSerializable::deserialize);
+    }
+
+    /**
+     * Like readPage, but the photo of every record is skipped, not decoded.
+     */
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws IOException, ClassNotFoundException {
+        return page(after, size, DAOFileSerializable::summarize);
+    }
+
+    private synchronized <T> ArrayList<T> page(String after, int size, Record<T> decoder) throws IOException, ClassNotFoundException {
+        ArrayList<T> people = new ArrayList<>();
+        if (size <= 0) {
+            return people;
+        }
+        //The range includes after, so one more is asked.
+        for (Map.Entry<String, Long> entry : index.range(after, null, size + 1).entrySet()) {
+            if (!entry.getKey().equals(after) && people.size() < size) {
+                people.add(decoder.decode(log.read(entry.getValue())));
             }
         }
-        
         return people;
     }
 
     @Override
-    public void delete(Person p) throws IOException, ClassNotFoundException {
-        ArrayList<Person> peopleRead = new ArrayList<>();
-        FileInputStream fIS = null;
-        ObjectInputStream ois = null;
+    public synchronized int count() {
+        return (int) index.size();
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) throws IOException {
+        return index.contains(nif);
+    }
+
+    @Override
+    public synchronized void delete(Person p) throws IOException {
+        if (!index.contains(p.getNif())) {
+            return;
+        }
+        log.append(SegmentLog.TOMBSTONE, p.getNif(), new byte[0]);
+        index.remove(p.getNif());
+        sync();
+    }
+
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        log.clear();
+        index.clear();
+        sync();
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException {
+        //insert already replaces the person if it is registered.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException {
+        long location = index.get(p.getNif());
+        long previous = p.getVersion();
+        if (location >= 0) {
+            p.setVersion(version(location) + 1);
+        }
         try {
-            fIS = new FileInputStream(Routes.FILES.getDataFile());
-            ois = new ObjectInputStream(fIS);
-            Person pr;
-            while ((pr = (Person) ois.readObject()) != null) {
-                if (!pr.getNif().equals(p.getNif())) {
-                    peopleRead.add(pr);
-                }
+            index.put(p.getNif(), log.append(SegmentLog.PUT, p.getNif(), serialize(p)));
+        } catch (IOException ex) {
+            p.setVersion(previous);
+            throw ex;
+        }
+        sync();
+    }
+
+    @Override
+    public synchronized void update(Person p) throws FileNotFoundException, IOException {
+        //The newer record hides the previous one until it is compacted away.
+        insert(p);
+    }
+
+    /**
+     * Checks the version and updates under the same lock.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, ClassNotFoundException, PersonException {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        update(p);
+    }
+
+    /**
+     * Appends the records of the people not registered yet and syncs the
+     * index once for all of them.
+     */
+    @Override
+    public synchronized BatchReport insertAll(Collection<Person> people) throws IOException {
+        return putAll(people, true);
+    }
+
+    /**
+     * Appends the newer records of the registered people and syncs the index
+     * once for all of them.
+     */
+    @Override
+    public synchronized BatchReport updateAll(Collection<Person> people) throws IOException {
+        return putAll(people, false);
+    }
+
+    /**
+     * Appends the tombstones of the registered people and syncs the index once
+     * for all of them.
+     */
+    @Override
+    public synchronized BatchReport deleteAll(Collection<Person> people) throws IOException {
+        BatchReport report = new BatchReport();
+        for (Person p : people) {
+            if (!index.contains(p.getNif())) {
+                report.skipped(p.getNif(), "Not registered.");
+                continue;
             }
-        } catch (java.io.EOFException ex) {
-            //Do nothing
-//            System.out.println("El archivo está vacío y no se puede crear"
-//                    + "el objeto ObjectInputStream");
-        }finally {
-            if (ois != null) {
-                ois.close();
+            log.append(SegmentLog.TOMBSTONE, p.getNif(), new byte[0]);
+            index.remove(p.getNif());
+            report.done(p.getNif());
+        }
+        sync();
+        return report;
+    }
+
+    private BatchReport putAll(Collection<Person> people, boolean insert) throws IOException {
+        BatchReport report = new BatchReport();
+        for (Person p : people) {
+            if (index.contains(p.getNif()) == insert) {
+                report.skipped(p.getNif(), insert ? "Already registered." : "Not registered.");
+                continue;
             }
-            if (fIS != null) {
-                fIS.close();
+            byte[] record;
+            long previous = p.getVersion();
+            try {
+                if (!insert) {
+                    p.setVersion(version(index.get(p.getNif())) + 1);
+                }
+                record = serialize(p);
+            } catch (IOException ex) {
+                p.setVersion(previous);
+                report.failed(p.getNif(), ex);
+                continue;
             }
+            index.put(p.getNif(), log.append(SegmentLog.PUT, p.getNif(), record));
+            report.done(p.getNif());
         }
-        ObjectOutputStream oos;
-        FileOutputStream fOS;
-        fOS = new FileOutputStream(Routes.FILES.getDataFile());
-        oos = new ObjectOutputStream(fOS);
-        for (Person pf : peopleRead) {
-            oos.writeObject(pf);
+        sync();
+        return report;
+    }
+
+    /**
+     * Waits for a running compaction and closes the files. The object can not
+     * be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        log.close();
+        index.close();
+    }
+
+    @Override
+    public void replayed(String nif, byte kind, long location) {
+        if (kind == SegmentLog.PUT) {
+            replayed.put(nif, location);
+        } else {
+            replayed.remove(nif);
         }
-        oos.flush();
-        oos.close();
     }
 
     @Override
-    public void deleteAll() throws IOException, ClassNotFoundException {
-        File file = new File(Routes.FILES.getDataFile());
-        file.delete();
-        file.createNewFile();
+    public Map<String, Long> live(int lastSegment) throws IOException {
+        HashMap<String, Long> live = new HashMap<>();
+        for (Map.Entry<String, Long> entry : index.range(null, null, 0).entrySet()) {
+            if (SegmentLog.segment(entry.getValue()) <= lastSegment) {
+                live.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return live;
     }
 
     @Override
-    public void insert(Person p) throws IOException, ClassNotFoundException {
-        ArrayList<Person> personRead = new ArrayList<>();
+    public void relocated(Map<String, Long> from, Map<String, Long> to) throws IOException {
+        for (Map.Entry<String, Long> entry : to.entrySet()) {
+            //Only records not overwritten while copying move.
+            if (index.get(entry.getKey()) == from.get(entry.getKey())) {
+                index.put(entry.getKey(), entry.getValue());
+            }
+        }
+        sync();
+    }
+
+    /**
+     * Tells the index which state of the segments it describes, so a change
+     * it has not seen (a crash between both writes) forces a rebuild.
+     */
+    private void sync() throws IOException {
+        long[] signature = log.signature();
+        index.sync(signature[0], signature[1]);
+    }
+
+    //The version of the record, without decoding the photo of a codec one.
+    private long version(long location) throws IOException {
+        byte[] bytes = log.read(location);
+        if (PersonCodec.isEncoded(bytes)) {
+            return PersonCodec.version(bytes);
+        }
+        try {
+            return deserialize(bytes).getVersion();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException(ex);
+        }
+    }
+
+    private static byte[] serialize(Person p) throws IOException {
+        return PersonCodec.encode(p);
+    }
+
+    private synchronized <T> T readRecord(String nif, Record<T> decoder) throws IOException, ClassNotFoundException {
+        long location = index.get(nif);
+        return location >= 0 ? decoder.decode(log.read(location)) : null;
+    }
+
+    //Decodes a record, as Person or PersonSummary.
+    private interface Record<T> {
+
+        T decode(byte[] bytes) throws IOException, ClassNotFoundException;
+    }
+
+    private static PersonSummary summarize(byte[] bytes) throws IOException, ClassNotFoundException {
+        //Records written with Java serialization can only be read whole.
+        return PersonCodec.isEncoded(bytes) ? PersonCodec.summary(bytes) : PersonSummary.of(deserialize(bytes));
+    }
+
+    /**
+     * Decodes a record, either encoded with PersonCodec or, if it was written
+     * before it existed, with Java serialization.
+     */
+    private static Person deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (PersonCodec.isEncoded(bytes)) {
+            return PersonCodec.decode(bytes);
+        }
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Person p = (Person) ois.readObject();
+        ois.close();
+        return p;
+    }
+
+    /**
+     * Reads the people saved by older versions, all in one object stream.
+     */
+    private static ArrayList<Person> readLegacy(File legacy) throws IOException, ClassNotFoundException {
+        ArrayList<Person> people = new ArrayList<>();
         FileInputStream fIS = null;
         ObjectInputStream ois = null;
         try {
-            fIS = new FileInputStream(Routes.FILES.getDataFile());
+            fIS = new FileInputStream(legacy);
             ois = new ObjectInputStream(fIS);
             Person pr;
             while ((pr = (Person) ois.readObject()) != null) {
-                personRead.add(pr);
+                people.add(pr);
             }
         } catch (java.io.EOFException ex) {
-            //Do nothing
-//            System.out.println("El archivo está vacío y no se puede crear"
-//                   + "el objeto ObjectInputStream");
+            //End of the file
         } finally {
             if (ois != null) {
                 ois.close();
@@ -152,24 +373,95 @@ public class DAOFileSerializable implements IDAO {
                 fIS.close();
             }
         }
-        ObjectOutputStream oos;
-        FileOutputStream fOS;
-        fOS = new FileOutputStream(Routes.FILES.getDataFile());
-        oos = new ObjectOutputStream(fOS);
-        personRead.add(p);
-        for (Person pf : personRead) {
-            oos.writeObject(pf);
-        }
-        fOS.flush();
-        oos.flush();
-        oos.close();
-        fOS.close();
+        return people;
     }
 
+    //NIFs read from the index at a time by stream().
+    private static final int STREAM_CHUNK = 256;
+
+    /**
+     * Reads the records one by one, in NIF order. The index is walked
+     * STREAM_CHUNK NIFs at a time, and every record is read when it is
+     * reached, so changes made meanwhile are seen.
+     */
     @Override
-    public void update(Person p) throws FileNotFoundException, IOException, ClassNotFoundException{
-        delete(p);
-        insert(p);
+    public Stream<Person> stream() {
+        return records(DAOFileSerializable::deserialize);
     }
 
+    @Override
+    public Stream<PersonSummary> streamSummaries() {
+        return records(DAOFileSerializable::summarize);
+    }
+
+    private <T> Stream<T> records(Record<T> decoder) {
+        return new PersonCursor<T>() {
+            private Iterator<String> chunk = Collections.emptyIterator();
+            private String last;
+            private boolean lastChunk;
+
+            @Override
+            protected T fetch() throws IOException, ClassNotFoundException {
+                while (true) {
+                    if (!chunk.hasNext()) {
+                        if (lastChunk) {
+                            return null;
+                        }
+                        //The range includes the last NIF read, so one more is asked.
+                        ArrayList<String> nifs = new ArrayList<>(index.range(last, null, STREAM_CHUNK + 1).keySet());
+                        if (last != null && !nifs.isEmpty() && nifs.get(0).equals(last)) {
+                            nifs.remove(0);
+                        }
+                        lastChunk = nifs.size() < STREAM_CHUNK;
+                        chunk = nifs.iterator();
+                        continue;
+                    }
+                    last = chunk.next();
+                    T p = readRecord(last, decoder);
+                    if (p != null) {
+                        return p;
+                    }
+                }
+            }
+
+            @Override
+            protected void release() {
+            }
+        }.stream();
+    }
+
+    /**
+     * If the query limits the NIFs, only the records of that range of the
+     * B+tree index are read, in NIF order; otherwise they are read as
+     * stream() does, without taking the whole index into memory.
+     */
+    @Override
+    public ArrayList<Person> query(Query query) throws IOException {
+        String[] bounds = query.nifBounds();
+        if (bounds[0] == null && bounds[1] == null) {
+            try (Stream<Person> people = stream()) {
+                return query.apply(people, true);
+            }
+        }
+        Iterator<Map.Entry<String, Long>> entries = index.range(bounds[0], bounds[1], 0).entrySet().iterator();
+        try (Stream<Person> people = new PersonCursor<Person>() {
+            @Override
+            protected Person fetch() throws IOException, ClassNotFoundException {
+                while (entries.hasNext()) {
+                    Map.Entry<String, Long> entry = entries.next();
+                    Person p = readRecord(entry.getKey(), DAOFileSerializable::deserialize);
+                    if (p != null) {
+                        return p;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            protected void release() {
+            }
+        }.stream()) {
+            return query.apply(people, true);
+        }
+    }
 }
@@ -36,9 +36,22 @@ public class DAOHashMap implements IDAO {
         people.clear();
     }
     
+    @Override
+    public void upsert(Person p) {
+        Person current = people.get(p.getNif());
+        if (current != null) {
+            p.setVersion(current.getVersion() + 1);
+        }
+        people.put(p.getNif(), p);
+    }
+
     @Override
     public void update(Person p) {
-        people.replace(p.getNif(), p);
+        Person current = people.get(p.getNif());
+        if (current != null) {
+            p.setVersion(current.getVersion() + 1);
+            people.put(p.getNif(), p);
+        }
     }
 
     @Override
@@ -46,4 +59,14 @@ public class DAOHashMap implements IDAO {
         return new ArrayList<>(people.values());
     }
 
+    @Override
+    public int count() {
+        return people.size();
+    }
+
+    @Override
+    public boolean exists(String nif) {
+        return people.containsKey(nif);
+    }
+
 }
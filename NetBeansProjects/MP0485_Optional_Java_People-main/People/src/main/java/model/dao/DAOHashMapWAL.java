@@ -0,0 +1,594 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import start.Routes;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent mode of DAOHashMap. The people are still kept in a DAOHashMap,
+ * so reads cost the same, but every change is first appended to a
+ * write-ahead log ("wal-N.log" in the "FileWal" folder). Every SNAPSHOT_EVERY
+ * changes a new log is started and the map is written in the background to
+ * "snapshot-N.snap"; once it is complete the older snapshot and logs are
+ * deleted. When the object is created it loads the latest snapshot and
+ * replays the logs written after it. Both files hold people encoded with
+ * PersonCodec, photo included.
+ * When a change is safe on disk depends on the SyncPolicy: after every
+ * change, after a forced write shared by the changes made at the same time
+ * (group commit) or at most a given interval later.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOHashMapWAL implements IDAO {
+
+    /**
+     * When the log is forced to disk.
+     */
+    public enum SyncPolicy {
+        //Every change waits for its own force.
+        PER_WRITE,
+        //Every change waits for a force, but one force covers all the changes
+        //written while the previous one was running.
+        GROUP_COMMIT,
+        //Changes do not wait; the log is forced every interval.
+        INTERVAL
+    }
+
+    private static final int SNAPSHOT_EVERY = 10_000;
+    private static final long DEFAULT_INTERVAL = 1000;
+    private static final byte INSERT = 1;
+    private static final byte UPDATE = 2;
+    private static final byte DELETE = 3;
+    private static final byte DELETE_ALL = 4;
+    //Record: int length of the body, int CRC32 of the body, body (operation
+    //and PersonCodec bytes or NIF).
+    private static final int RECORD_HEADER = 8;
+
+    private final DAOHashMap map = new DAOHashMap();
+    private final File folder;
+    private final SyncPolicy policy;
+    private final int snapshotEvery;
+    private final Object syncLock = new Object();
+    private final ExecutorService snapshotter = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "People WAL snapshot");
+        t.setDaemon(true);
+        return t;
+    });
+    private ScheduledExecutorService syncer;
+    private FileChannel log;
+    private int generation;
+    private int changes;
+    private boolean snapshotRunning;
+    //Bytes written to the logs since the object was created and how many of
+    //them are known to be on disk.
+    private long written;
+    private long synced;
+
+    public DAOHashMapWAL() throws IOException {
+        this(new File(Routes.FILEWAL.getFolderPath()), SyncPolicy.GROUP_COMMIT, DEFAULT_INTERVAL);
+    }
+
+    /**
+     * @param folder folder of the snapshots and logs
+     * @param policy when the log is forced to disk
+     * @param interval milliseconds between forces with SyncPolicy.INTERVAL
+     * @throws IOException
+     */
+    public DAOHashMapWAL(File folder, SyncPolicy policy, long interval) throws IOException {
+        this(folder, policy, interval, SNAPSHOT_EVERY);
+    }
+
+    DAOHashMapWAL(File folder, SyncPolicy policy, long interval, int snapshotEvery) throws IOException {
+        this.folder = folder;
+        this.policy = policy;
+        this.snapshotEvery = snapshotEvery;
+        folder.mkdirs();
+        recover();
+        if (policy == SyncPolicy.INTERVAL) {
+            syncer = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "People WAL sync");
+                t.setDaemon(true);
+                return t;
+            });
+            syncer.scheduleWithFixedDelay(() -> {
+                try {
+                    force();
+                } catch (IOException ex) {
+                    Logger.getLogger(DAOHashMapWAL.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }, interval, interval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    @Override
+    public synchronized Person read(Person p) {
+        return map.read(p);
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() {
+        return map.readAll();
+    }
+
+    @Override
+    public synchronized int count() {
+        return map.count();
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        return map.exists(nif);
+    }
+
+    @Override
+    public void insert(Person p) throws IOException {
+        byte[] bytes = PersonCodec.encode(p);
+        long end;
+        synchronized (this) {
+            end = logged(INSERT, bytes);
+            map.insert(p);
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    @Override
+    public void upsert(Person p) throws IOException {
+        byte[] bytes = PersonCodec.encode(p);
+        long end;
+        synchronized (this) {
+            //Logged as an update if it is registered, so the version goes up
+            //also when the log is replayed.
+            if (map.exists(p.getNif())) {
+                end = logged(UPDATE, bytes);
+                map.update(p);
+            } else {
+                end = logged(INSERT, bytes);
+                map.insert(p);
+            }
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    @Override
+    public void update(Person p) throws IOException {
+        byte[] bytes = PersonCodec.encode(p);
+        long end;
+        synchronized (this) {
+            end = logged(UPDATE, bytes);
+            map.update(p);
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    /**
+     * The person is encoded with the next version outside the lock, as in
+     * the other writes, and the version is checked under it.
+     */
+    @Override
+    public void update(Person p, long expectedVersion) throws IOException, PersonException {
+        long previous = p.getVersion();
+        p.setVersion(expectedVersion + 1);
+        byte[] bytes = PersonCodec.encode(p);
+        long end;
+        synchronized (this) {
+            try {
+                VersionConflictException.check(map.read(p), p.getNif(), expectedVersion);
+            } catch (PersonException ex) {
+                p.setVersion(previous);
+                throw ex;
+            }
+            end = logged(UPDATE, bytes);
+            map.update(p);
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    @Override
+    public void delete(Person p) throws IOException {
+        long end;
+        synchronized (this) {
+            end = logged(DELETE, p.getNif().getBytes(StandardCharsets.UTF_8));
+            map.delete(p);
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    @Override
+    public void deleteAll() throws IOException {
+        long end;
+        synchronized (this) {
+            end = logged(DELETE_ALL, new byte[0]);
+            map.deleteAll();
+            changed();
+        }
+        awaitSynced(end);
+    }
+
+    /**
+     * Logs the people not registered yet one after the other and waits for a
+     * single force of the log for all of them.
+     */
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws IOException {
+        return writeAll(people, INSERT);
+    }
+
+    /**
+     * Logs the registered people one after the other and waits for a single
+     * force of the log for all of them.
+     */
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws IOException {
+        return writeAll(people, UPDATE);
+    }
+
+    /**
+     * Logs the deletes of the registered people one after the other and waits
+     * for a single force of the log for all of them.
+     */
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws IOException {
+        return writeAll(people, DELETE);
+    }
+
+    private BatchReport writeAll(Collection<Person> people, byte operation) throws IOException {
+        BatchReport report = new BatchReport();
+        long end;
+        synchronized (this) {
+            for (Person p : people) {
+                if (map.exists(p.getNif()) == (operation == INSERT)) {
+                    report.skipped(p.getNif(), operation == INSERT ? "Already registered." : "Not registered.");
+                    continue;
+                }
+                byte[] data = operation == DELETE ? p.getNif().getBytes(StandardCharsets.UTF_8) : PersonCodec.encode(p);
+                append(operation, data);
+                if (operation == INSERT) {
+                    map.insert(p);
+                } else if (operation == UPDATE) {
+                    map.update(p);
+                } else {
+                    map.delete(p);
+                }
+                report.done(p.getNif());
+                changed();
+            }
+            if (policy == SyncPolicy.PER_WRITE) {
+                log.force(false);
+            }
+            end = written;
+        }
+        awaitSynced(end);
+        return report;
+    }
+
+    /**
+     * Forces the log to disk, covering every change written so far.
+     * @throws IOException
+     */
+    public void force() throws IOException {
+        synchronized (syncLock) {
+            long target;
+            FileChannel channel;
+            synchronized (this) {
+                target = written;
+                channel = log;
+                if (synced >= target) {
+                    return;
+                }
+            }
+            try {
+                channel.force(false);
+            } catch (ClosedChannelException ex) {
+                //A new log was started, and the old one forced before closing.
+            }
+            synchronized (this) {
+                synced = Math.max(synced, target);
+            }
+        }
+    }
+
+    /**
+     * Starts a new log and writes the snapshot of the current map. The method
+     * returns when the snapshot is complete.
+     * @throws IOException
+     */
+    public void snapshot() throws IOException {
+        Callable<Void> task;
+        synchronized (this) {
+            task = startSnapshot();
+        }
+        try {
+            //Through the executor, so it never runs with another snapshot.
+            snapshotter.submit(task).get();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException(ex);
+        } catch (ExecutionException ex) {
+            throw ex.getCause() instanceof IOException ? (IOException) ex.getCause() : new IOException(ex.getCause());
+        }
+    }
+
+    /**
+     * Stops the background threads, forces the log and closes it. The object
+     * can not be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        //Not shutdownNow: an interrupt during a force would close the log.
+        if (syncer != null) {
+            syncer.shutdown();
+        }
+        snapshotter.shutdown();
+        try {
+            if (syncer != null) {
+                syncer.awaitTermination(1, TimeUnit.MINUTES);
+            }
+            snapshotter.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        force();
+        synchronized (this) {
+            log.close();
+        }
+    }
+
+    /**
+     * Under the lock, before the change is made in the map: appends it.
+     * @return position of the end of the change, to wait for it
+     */
+    private long logged(byte operation, byte[] data) throws IOException {
+        long end = append(operation, data);
+        if (policy == SyncPolicy.PER_WRITE) {
+            log.force(false);
+        }
+        return end;
+    }
+
+    /**
+     * Under the lock, after the change is made in the map: every
+     * snapshotEvery changes starts a snapshot in the background.
+     */
+    private void changed() throws IOException {
+        if (++changes >= snapshotEvery && !snapshotRunning) {
+            changes = 0;
+            Callable<Void> task = startSnapshot();
+            //Nobody waits for it, so a failure is only logged; the logs are
+            //kept and the next snapshot tries again.
+            snapshotter.execute(() -> {
+                try {
+                    task.call();
+                } catch (Exception ex) {
+                    Logger.getLogger(DAOHashMapWAL.class.getName()).log(Level.SEVERE, "Snapshot not written.", ex);
+                }
+            });
+        }
+    }
+
+    private void awaitSynced(long end) throws IOException {
+        if (policy == SyncPolicy.GROUP_COMMIT) {
+            //The changes that wait here while a force is running share the
+            //next one.
+            synchronized (syncLock) {
+                synchronized (this) {
+                    if (synced >= end) {
+                        return;
+                    }
+                }
+                force();
+            }
+        }
+    }
+
+    private long append(byte operation, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(RECORD_HEADER + 1 + data.length);
+        CRC32 crc = new CRC32();
+        crc.update(operation);
+        crc.update(data);
+        buffer.putInt(1 + data.length).putInt((int) crc.getValue()).put(operation).put(data).flip();
+        while (buffer.hasRemaining()) {
+            written += log.write(buffer);
+        }
+        return written;
+    }
+
+    /**
+     * Under the lock: starts the next log and copies the map. The returned
+     * task writes the copy and deletes the files it makes useless.
+     */
+    private Callable<Void> startSnapshot() throws IOException {
+        log.force(false);
+        log.close();
+        synced = written;
+        int next = ++generation;
+        log = openLog(next);
+        ArrayList<Person> copy = map.readAll();
+        snapshotRunning = true;
+        return () -> {
+            try {
+                writeSnapshot(next, copy);
+            } finally {
+                synchronized (this) {
+                    snapshotRunning = false;
+                }
+            }
+            return null;
+        };
+    }
+
+    private void writeSnapshot(int number, ArrayList<Person> copy) throws IOException {
+        File temp = new File(folder, "snapshot-" + number + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(temp);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos))) {
+            out.writeInt(copy.size());
+            for (Person p : copy) {
+                byte[] bytes = PersonCodec.encode(p);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+            out.flush();
+            fos.getFD().sync();
+        }
+        Files.move(temp.toPath(), new File(folder, "snapshot-" + number + ".snap").toPath(),
+                StandardCopyOption.ATOMIC_MOVE);
+        deleteOlderThan(number);
+    }
+
+    /**
+     * Loads the latest complete snapshot, replays the logs written since it
+     * and starts a new log after them.
+     */
+    private void recover() throws IOException {
+        TreeMap<Integer, File> snapshots = numbered(".snap");
+        TreeMap<Integer, File> logs = numbered(".log");
+        int first = 0;
+        if (!snapshots.isEmpty()) {
+            first = snapshots.lastKey();
+            readSnapshot(snapshots.lastEntry().getValue());
+        }
+        for (File f : logs.tailMap(first).values()) {
+            replay(f);
+        }
+        generation = Math.max(first, logs.isEmpty() ? 0 : logs.lastKey()) + 1;
+        log = openLog(generation);
+        deleteOlderThan(first);
+        File[] temps = folder.listFiles((dir, name) -> name.endsWith(".tmp"));
+        if (temps != null) {
+            for (File f : temps) {
+                f.delete();
+            }
+        }
+    }
+
+    private void readSnapshot(File snapshot) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshot)))) {
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                byte[] bytes = new byte[in.readInt()];
+                in.readFully(bytes);
+                map.insert(PersonCodec.decode(bytes));
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a log until its end or the first torn or
+     * corrupted one, which is cut off with everything after it.
+     */
+    private void replay(File file) throws IOException {
+        long valid = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length <= 0 || length > file.length()) {
+                    break;
+                }
+                byte[] body = new byte[length];
+                in.readFully(body);
+                CRC32 crc = new CRC32();
+                crc.update(body);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                apply(body[0], ByteBuffer.wrap(body, 1, length - 1));
+                valid += RECORD_HEADER + length;
+            }
+        } catch (EOFException ex) {
+            //End of the log
+        }
+        if (valid < file.length()) {
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(valid);
+            }
+        }
+    }
+
+    private void apply(byte operation, ByteBuffer data) throws IOException {
+        byte[] bytes = new byte[data.remaining()];
+        data.get(bytes);
+        switch (operation) {
+            case INSERT:
+                map.insert(PersonCodec.decode(bytes));
+                break;
+            case UPDATE:
+                map.update(PersonCodec.decode(bytes));
+                break;
+            case DELETE:
+                map.delete(new Person(new String(bytes, StandardCharsets.UTF_8)));
+                break;
+            case DELETE_ALL:
+                map.deleteAll();
+                break;
+            default:
+                throw new IOException("Unknown log operation " + operation + ".");
+        }
+    }
+
+    private FileChannel openLog(int number) throws IOException {
+        return FileChannel.open(new File(folder, "wal-" + number + ".log").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    private void deleteOlderThan(int number) {
+        for (File f : numbered(".snap").headMap(number).values()) {
+            f.delete();
+        }
+        for (File f : numbered(".log").headMap(number).values()) {
+            f.delete();
+        }
+    }
+
+    private TreeMap<Integer, File> numbered(String suffix) {
+        TreeMap<Integer, File> files = new TreeMap<>();
+        File[] list = folder.listFiles((dir, name) -> name.endsWith(suffix) && name.indexOf('-') > 0);
+        if (list != null) {
+            for (File f : list) {
+                String name = f.getName();
+                try {
+                    files.put(Integer.valueOf(name.substring(name.indexOf('-') + 1, name.length() - suffix.length())), f);
+                } catch (NumberFormatException ex) {
+                    //Not one of our files
+                }
+            }
+        }
+        return files;
+    }
+
+}
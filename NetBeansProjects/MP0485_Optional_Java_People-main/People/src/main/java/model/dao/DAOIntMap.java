@@ -0,0 +1,206 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import utils.DataValidation;
+
+/**
+ * This class implements the IDAO interface and completes the function code
+ * blocks so that they can operate with a primitive hash table. The eight
+ * digits of the NIF are the int key, since the letter can be calculated from
+ * them, and the table is a pair of arrays with open addressing (linear
+ * probing), so neither String keys nor entry objects are created. A NIF whose
+ * letter does not match its digits can not be stored.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOIntMap implements IDAO {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int EMPTY = -1;
+    private static final int DELETED = -2;
+
+    private int[] keys;
+    private Person[] people;
+    private int size;
+    //Slots that are not empty, deleted ones included.
+    private int used;
+
+    public DAOIntMap() {
+        clear(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public synchronized Person read(Person p) {
+        int key = key(p.getNif());
+        if (key < 0) {
+            return null;
+        }
+        int slot = find(key);
+        return slot >= 0 ? people[slot] : null;
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws PersonException {
+        //insert already replaces the person if it is registered.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws PersonException {
+        int key = validKey(p);
+        int slot = find(key);
+        if (slot >= 0) {
+            p.setVersion(people[slot].getVersion() + 1);
+            people[slot] = p;
+            return;
+        }
+        if ((used + 1) * 2 > keys.length) {
+            //A table full of deleted slots is only cleaned, not grown.
+            rehash(size * 4 > keys.length ? keys.length * 2 : keys.length);
+        }
+        slot = mix(key) & (keys.length - 1);
+        while (keys[slot] >= 0) {
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        if (keys[slot] == EMPTY) {
+            used++;
+        }
+        keys[slot] = key;
+        people[slot] = p;
+        size++;
+    }
+
+    @Override
+    public synchronized void update(Person p) throws PersonException {
+        int slot = find(validKey(p));
+        if (slot >= 0) {
+            p.setVersion(people[slot].getVersion() + 1);
+            people[slot] = p;
+        }
+    }
+
+    /**
+     * Checks the version and updates under the same lock.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws PersonException {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        update(p);
+    }
+
+    @Override
+    public synchronized void delete(Person p) {
+        int key = key(p.getNif());
+        int slot = key >= 0 ? find(key) : -1;
+        if (slot >= 0) {
+            keys[slot] = DELETED;
+            people[slot] = null;
+            size--;
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        clear(INITIAL_CAPACITY);
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() {
+        ArrayList<Person> all = new ArrayList<>(size);
+        for (Person p : people) {
+            if (p != null) {
+                all.add(p);
+            }
+        }
+        return all;
+    }
+
+    @Override
+    public synchronized int count() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        int key = key(nif);
+        return key >= 0 && find(key) >= 0;
+    }
+
+    /**
+     * @param nif NIF
+     * @return its digits as an int or -1 if it is not eight digits followed
+     * by the right letter
+     */
+    static int key(String nif) {
+        if (nif == null || nif.length() != 9) {
+            return -1;
+        }
+        int key = 0;
+        for (int i = 0; i < 8; i++) {
+            char c = nif.charAt(i);
+            if (!DataValidation.isNumber(c)) {
+                return -1;
+            }
+            key = key * 10 + (c - '0');
+        }
+        return DataValidation.calculateNifLetter(nif.substring(0, 8)).equals(nif) ? key : -1;
+    }
+
+    private static int validKey(Person p) throws PersonException {
+        int key = key(p.getNif());
+        if (key < 0) {
+            throw new PersonException("The NIF " + p.getNif() + " is not valid.");
+        }
+        return key;
+    }
+
+    private int find(int key) {
+        int slot = mix(key) & (keys.length - 1);
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == key) {
+                return slot;
+            }
+            slot = (slot + 1) & (keys.length - 1);
+        }
+        return -1;
+    }
+
+    private void rehash(int capacity) {
+        int[] oldKeys = keys;
+        Person[] oldPeople = people;
+        clear(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] >= 0) {
+                int slot = mix(oldKeys[i]) & (capacity - 1);
+                while (keys[slot] != EMPTY) {
+                    slot = (slot + 1) & (capacity - 1);
+                }
+                keys[slot] = oldKeys[i];
+                people[slot] = oldPeople[i];
+                size++;
+                used++;
+            }
+        }
+    }
+
+    private void clear(int capacity) {
+        keys = new int[capacity];
+        Arrays.fill(keys, EMPTY);
+        people = new Person[capacity];
+        size = 0;
+        used = 0;
+    }
+
+    //Consecutive NIFs must not end up in consecutive slots.
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -1,6 +1,8 @@
 package model.dao;
 
 import model.entity.Person;
+import model.entity.PersonSummary;
+import model.entity.VersionConflictException;
 import start.Routes;
 
 import java.awt.Image;
@@ -9,11 +11,17 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
 import javax.persistence.EntityManager;
 import javax.persistence.EntityManagerFactory;
+import javax.persistence.OptimisticLockException;
 import javax.persistence.Persistence;
+import javax.persistence.RollbackException;
 import javax.persistence.TypedQuery;
 import javax.swing.ImageIcon;
 
@@ -90,6 +98,25 @@ public class DAOJPA implements IDAO {
         return (ArrayList) people;
     }
 
+    @Override
+    public int count() throws Exception {
+        EntityManager em = emf.createEntityManager();
+        String query = "SELECT COUNT(p) FROM Person p";
+        Long count = em.createQuery(query, Long.class).getSingleResult();
+        em.close();
+        return count.intValue();
+    }
+
+    @Override
+    public boolean exists(String nif) throws Exception {
+        EntityManager em = emf.createEntityManager();
+        //Only the key is selected, so the photo is not loaded.
+        String query = "SELECT p.nif FROM Person p WHERE p.nif = :value";
+        List<String> nifs = em.createQuery(query, String.class).setParameter("value", nif).setMaxResults(1).getResultList();
+        em.close();
+        return !nifs.isEmpty();
+    }
+
     @Override
     public void insert(Person p) throws Exception {
         EntityManager em = emf.createEntityManager();
@@ -119,6 +146,58 @@ public class DAOJPA implements IDAO {
         em.close();
     }
 
+    /**
+     * The version is checked twice: here, against the person read in the
+     * transaction, and by JPA on commit through @Version, which only updates
+     * the row if nobody has changed it since.
+     */
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        EntityManager em = emf.createEntityManager();
+        try {
+            em.getTransaction().begin();
+            Person pC = em.find(Person.class, p.getNif());
+            VersionConflictException.check(pC, p.getNif(), expectedVersion);
+            pC.setName(p.getName());
+            pC.setDateOfBirth(p.getDateOfBirth());
+            pC.setPhotoOnlyJPA(p.getPhoto() != null ? imageIconToBytes(p.getPhoto()) : null);
+            em.getTransaction().commit();
+            p.setVersion(pC.getVersion());
+        } catch (RollbackException ex) {
+            if (!(ex.getCause() instanceof OptimisticLockException)) {
+                throw ex;
+            }
+            //Updated between the read and the commit.
+            Person current = read(p);
+            VersionConflictException.check(current, p.getNif(), expectedVersion);
+            throw new VersionConflictException(p.getNif(), expectedVersion, current.getVersion());
+        } finally {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            em.close();
+        }
+    }
+
+    /**
+     * merge inserts the person or copies it over the registered one in the
+     * same transaction. It takes the registered version, so that @Version
+     * does not reject it.
+     */
+    @Override
+    public void upsert(Person p) throws Exception {
+        EntityManager em = emf.createEntityManager();
+        p.setPhotoOnlyJPA(p.getPhoto() != null ? imageIconToBytes(p.getPhoto()) : null);
+        em.getTransaction().begin();
+        Person current = em.find(Person.class, p.getNif());
+        if (current != null) {
+            p.setVersion(current.getVersion());
+        }
+        em.merge(p);
+        em.getTransaction().commit();
+        em.close();
+    }
+
     @Override
     public void delete(Person p) throws Exception {
         EntityManager em = emf.createEntityManager();
@@ -144,4 +223,323 @@ public class DAOJPA implements IDAO {
         em.getTransaction().commit();
     }
 
+    /**
+     * Inserts the people not registered yet in one transaction. The
+     * persistence context is flushed and cleared every BATCH_SIZE people so
+     * that it does not keep all of them.
+     */
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        int pending = 0;
+        for (Person p : people) {
+            if (em.find(Person.class, p.getNif()) != null) {
+                report.skipped(p.getNif(), "Already registered.");
+                continue;
+            }
+            if (p.getPhoto() != null) {
+                p.setPhotoOnlyJPA(imageIconToBytes(p.getPhoto()));
+            }
+            em.persist(p);
+            report.done(p.getNif());
+            pending = flush(em, pending);
+        }
+        commit(em, report);
+        return report;
+    }
+
+    /**
+     * Updates the registered people in one transaction.
+     */
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        int pending = 0;
+        for (Person p : people) {
+            Person pC = em.find(Person.class, p.getNif());
+            if (pC == null) {
+                report.skipped(p.getNif(), "Not registered.");
+                continue;
+            }
+            pC.setName(p.getName());
+            pC.setDateOfBirth(p.getDateOfBirth());
+            if (p.getPhoto() != null) {
+                pC.setPhotoOnlyJPA(imageIconToBytes(p.getPhoto()));
+            } else {
+                pC.setPhotoOnlyJPA(null);
+            }
+            report.done(p.getNif());
+            pending = flush(em, pending);
+        }
+        commit(em, report);
+        return report;
+    }
+
+    /**
+     * Deletes the registered people in one transaction.
+     */
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        EntityManager em = emf.createEntityManager();
+        em.getTransaction().begin();
+        int pending = 0;
+        for (Person p : people) {
+            Person pR = em.find(Person.class, p.getNif());
+            if (pR == null) {
+                report.skipped(p.getNif(), "Not registered.");
+                continue;
+            }
+            em.remove(pR);
+            report.done(p.getNif());
+            pending = flush(em, pending);
+        }
+        commit(em, report);
+        return report;
+    }
+
+    //People changed between two flushes of the persistence context.
+    private static final int BATCH_SIZE = 100;
+
+    private int flush(EntityManager em, int pending) {
+        if (++pending < BATCH_SIZE) {
+            return pending;
+        }
+        em.flush();
+        em.clear();
+        return 0;
+    }
+
+    /**
+     * Commits the transaction. If it fails, it is rolled back and every
+     * person reported as done is reported as failed.
+     */
+    private void commit(EntityManager em, BatchReport report) {
+        try {
+            em.getTransaction().commit();
+        } catch (RuntimeException ex) {
+            if (em.getTransaction().isActive()) {
+                em.getTransaction().rollback();
+            }
+            report.failFrom(0, ex);
+        } finally {
+            em.close();
+        }
+    }
+
+    /**
+     * Reads the people in NIF order, BATCH_SIZE at a time, with a query for
+     * the NIFs after the last one read. The persistence context is cleared
+     * before every query, so only one chunk is kept in memory.
+     */
+    @Override
+    public Stream<Person> stream() {
+        EntityManager em = emf.createEntityManager();
+        return new PersonCursor<Person>() {
+            private Iterator<Person> chunk = Collections.emptyIterator();
+            private String last;
+            private boolean lastChunk;
+
+            @Override
+            protected Person fetch() {
+                if (!chunk.hasNext()) {
+                    if (lastChunk) {
+                        return null;
+                    }
+                    em.clear();
+                    TypedQuery<Person> query;
+                    if (last == null) {
+                        query = em.createQuery("SELECT p FROM Person p ORDER BY p.nif", Person.class);
+                    } else {
+                        query = em.createQuery("SELECT p FROM Person p WHERE p.nif > :last ORDER BY p.nif", Person.class)
+                                .setParameter("last", last);
+                    }
+                    List<Person> people = query.setMaxResults(BATCH_SIZE).getResultList();
+                    lastChunk = people.size() < BATCH_SIZE;
+                    chunk = people.iterator();
+                    if (!chunk.hasNext()) {
+                        return null;
+                    }
+                }
+                Person p = chunk.next();
+                last = p.getNif();
+                if (p.getPhotoOnlyJPA() != null) {
+                    p.setPhoto(bytesToImageIcon(p.getPhotoOnlyJPA()));
+                }
+                return p;
+            }
+
+            @Override
+            protected void release() {
+                em.close();
+            }
+        }.stream();
+    }
+
+    @Override
+    public ArrayList<Person> readPage(String after, int size) {
+        EntityManager em = emf.createEntityManager();
+        TypedQuery<Person> query = em.createQuery("SELECT p FROM Person p WHERE p.nif > :after ORDER BY p.nif", Person.class);
+        //Every NIF is greater than the empty string.
+        List<Person> people = query.setParameter("after", after != null ? after : "").setMaxResults(size).getResultList();
+        for (Person p : people) {
+            if (p.getPhotoOnlyJPA() != null) {
+                p.setPhoto(bytesToImageIcon(p.getPhotoOnlyJPA()));
+            }
+        }
+        em.close();
+        return new ArrayList<>(people);
+    }
+
+    /**
+     * The summaries are built by the query, so the photo bytes are not even
+     * loaded.
+     */
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) {
+        EntityManager em = emf.createEntityManager();
+        TypedQuery<PersonSummary> query = em.createQuery("SELECT NEW model.entity.PersonSummary(p.nif, p.name, "
+                + "p.dateOfBirth, p.email, p.postalCode, p.phoneNumber, "
+                + "CASE WHEN p.photoOnlyJPA IS NULL THEN FALSE ELSE TRUE END) "
+                + "FROM Person p WHERE p.nif > :after ORDER BY p.nif", PersonSummary.class);
+        List<PersonSummary> people = query.setParameter("after", after != null ? after : "").setMaxResults(size).getResultList();
+        em.close();
+        return new ArrayList<>(people);
+    }
+
+    /**
+     * Reads the summaries page by page, BATCH_SIZE at a time.
+     */
+    @Override
+    public Stream<PersonSummary> streamSummaries() {
+        return new PersonCursor<PersonSummary>() {
+            private Iterator<PersonSummary> chunk = Collections.emptyIterator();
+            private String last;
+            private boolean lastChunk;
+
+            @Override
+            protected PersonSummary fetch() {
+                if (!chunk.hasNext()) {
+                    if (lastChunk) {
+                        return null;
+                    }
+                    List<PersonSummary> people = readSummaryPage(last, BATCH_SIZE);
+                    lastChunk = people.size() < BATCH_SIZE;
+                    chunk = people.iterator();
+                    if (!chunk.hasNext()) {
+                        return null;
+                    }
+                }
+                PersonSummary p = chunk.next();
+                last = p.getNif();
+                return p;
+            }
+
+            @Override
+            protected void release() {
+            }
+        }.stream();
+    }
+
+    /**
+     * Translates the query to JPQL with parameters. People without value in
+     * the field of the order are asked last with a second query, so they go
+     * last as in Query.
+     */
+    @Override
+    public ArrayList<Person> query(Query query) {
+        ArrayList<Object> params = new ArrayList<>();
+        String where = query.getCondition() != null ? where(query.getCondition(), params) : "TRUE = TRUE";
+        ArrayList<Person> people = new ArrayList<>();
+        EntityManager em = emf.createEntityManager();
+        if (query.getOrderBy() == null) {
+            people.addAll(select(em, where, params, "", query.getLimit()));
+        } else {
+            String field = "p." + attribute(query.getOrderBy());
+            people.addAll(select(em, where + " AND " + field + " IS NOT NULL", params,
+                    " ORDER BY " + field + (query.isDescending() ? " DESC" : " ASC"), query.getLimit()));
+            if (query.getLimit() == 0 || people.size() < query.getLimit()) {
+                people.addAll(select(em, where + " AND " + field + " IS NULL", params, " ORDER BY p.nif",
+                        query.getLimit() == 0 ? 0 : query.getLimit() - people.size()));
+            }
+        }
+        for (Person p : people) {
+            if (p.getPhotoOnlyJPA() != null) {
+                p.setPhoto(bytesToImageIcon(p.getPhotoOnlyJPA()));
+            }
+        }
+        em.close();
+        return people;
+    }
+
+    private List<Person> select(EntityManager em, String where, ArrayList<Object> params, String orderBy, int limit) {
+        TypedQuery<Person> query = em.createQuery("SELECT p FROM Person p WHERE " + where + orderBy, Person.class);
+        for (int i = 0; i < params.size(); i++) {
+            query.setParameter(i + 1, params.get(i));
+        }
+        if (limit > 0) {
+            query.setMaxResults(limit);
+        }
+        return query.getResultList();
+    }
+
+    /**
+     * @return the condition in JPQL, with a positional parameter for every
+     * value added to params
+     */
+    private String where(Query.Condition condition, ArrayList<Object> params) {
+        switch (condition.getKind()) {
+            case AND:
+            case OR:
+                if (condition.getChildren().isEmpty()) {
+                    return condition.getKind() == Query.Condition.Kind.AND ? "TRUE = TRUE" : "TRUE = FALSE";
+                }
+                StringBuilder jpql = new StringBuilder("(");
+                for (Query.Condition child : condition.getChildren()) {
+                    jpql.append(jpql.length() > 1 ? " " + condition.getKind() + " " : "").append(where(child, params));
+                }
+                return jpql.append(")").toString();
+            default:
+                String field = "p." + attribute(condition.getField());
+                if (condition.getKind() == Query.Condition.Kind.EQUALS) {
+                    params.add(condition.getValue());
+                    return field + " = ?" + params.size();
+                }
+                if (condition.getKind() == Query.Condition.Kind.PREFIX) {
+                    params.add(Query.likePrefix((String) condition.getValue()));
+                    return field + " LIKE ?" + params.size() + " ESCAPE '!'";
+                }
+                ArrayList<String> bounds = new ArrayList<>();
+                if (condition.getValue() != null) {
+                    params.add(condition.getValue());
+                    bounds.add(field + " >= ?" + params.size());
+                }
+                if (condition.getTo() != null) {
+                    params.add(condition.getTo());
+                    bounds.add(field + " < ?" + params.size());
+                }
+                return bounds.isEmpty() ? field + " IS NOT NULL" : "(" + String.join(" AND ", bounds) + ")";
+        }
+    }
+
+    private static String attribute(Query.Field field) {
+        switch (field) {
+            case NIF:
+                return "nif";
+            case NAME:
+                return "name";
+            case DATE_OF_BIRTH:
+                return "dateOfBirth";
+            case EMAIL:
+                return "email";
+            case POSTAL_CODE:
+                return "postalCode";
+            default:
+                return "phoneNumber";
+        }
+    }
 }
@@ -0,0 +1,681 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import start.Routes;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * This class implements the IDAO interface and completes the code of the
+ * functions so that they can work with a log-structured merge tree saved in
+ * the "FileLSM" folder. Changes go to the memtable, a TreeMap kept in memory
+ * and appended to "memtable-N.log", in records checked with a CRC32, to
+ * survive a crash, so a write never reads or rewrites anything on disk. When the memtable reaches MEMTABLE_SIZE bytes
+ * it is written in the background as a sorted run (see SortedRun) of level 0.
+ * When level 0 has L0_RUNS runs they are merged with level 1, and every
+ * level from 1 on is a single run ten times bigger than the previous one
+ * that is merged into the next one when it grows over its limit. A read
+ * looks at the memtable and then at the runs from the newest to the oldest,
+ * and the bloom filters skip almost every run that does not have the NIF.
+ * The "MANIFEST" file lists the runs of every level. People are encoded
+ * with PersonCodec, photo included.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOLSMTree implements IDAO {
+
+    private static final int MEMTABLE_SIZE = 4 * 1024 * 1024;
+    private static final int L0_RUNS = 4;
+    private static final int LEVEL_GROWTH = 10;
+    private static final String MANIFEST = "MANIFEST";
+
+    private final File folder;
+    private final int memtableSize;
+    private final ExecutorService compactor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "People LSM compaction");
+        t.setDaemon(true);
+        return t;
+    });
+    private TreeMap<String, byte[]> memtable = new TreeMap<>();
+    private long memtableBytes;
+    //Memtable being written as a run, still used by the reads.
+    private TreeMap<String, byte[]> flushing;
+    private FileChannel memtableLog;
+    private int memtableNumber;
+    //Level 0 from the newest run to the oldest; the other levels have one run.
+    private final ArrayList<ArrayList<SortedRun>> levels = new ArrayList<>();
+    private boolean compacting;
+    private int nextRun;
+    private int count;
+
+    public DAOLSMTree() throws IOException {
+        this(new File(Routes.FILELSM.getFolderPath()));
+    }
+
+    public DAOLSMTree(File folder) throws IOException {
+        this(folder, MEMTABLE_SIZE);
+    }
+
+    DAOLSMTree(File folder, int memtableSize) throws IOException {
+        this.folder = folder;
+        this.memtableSize = memtableSize;
+        folder.mkdirs();
+        synchronized (this) {
+            readManifest();
+            replayMemtableLogs();
+            Iterator<Map.Entry<String, byte[]>> live = merge(sources(), true);
+            while (live.hasNext()) {
+                live.next();
+                count++;
+            }
+        }
+    }
+
+    @Override
+    public synchronized Person read(Person p) throws IOException {
+        byte[] value = get(p.getNif());
+        return value == null || value.length == 0 ? null : PersonCodec.decode(value);
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() throws IOException {
+        ArrayList<Person> people = new ArrayList<>();
+        try {
+            Iterator<Map.Entry<String, byte[]>> merged = merge(sources(), true);
+            while (merged.hasNext()) {
+                people.add(PersonCodec.decode(merged.next().getValue()));
+            }
+        } catch (UncheckedIOException ex) {
+            throw ex.getCause();
+        }
+        return people;
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException {
+        //insert already replaces the person if it is registered.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException {
+        //The bloom filters make this probe cheap for new NIFs.
+        byte[] stored = get(p.getNif());
+        boolean registered = stored != null && stored.length > 0;
+        long previous = p.getVersion();
+        if (registered) {
+            p.setVersion(PersonCodec.version(stored) + 1);
+        }
+        try {
+            put(p.getNif(), PersonCodec.encode(p));
+        } catch (IOException ex) {
+            p.setVersion(previous);
+            throw ex;
+        }
+        if (!registered) {
+            count++;
+        }
+    }
+
+    @Override
+    public synchronized void update(Person p) throws IOException {
+        //Like insert: the newest value hides the older ones.
+        insert(p);
+    }
+
+    /**
+     * Checks the version and updates under the same lock.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, PersonException {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        update(p);
+    }
+
+    @Override
+    public synchronized void delete(Person p) throws IOException {
+        byte[] value = get(p.getNif());
+        if (value != null && value.length > 0) {
+            put(p.getNif(), SortedRun.TOMBSTONE);
+            count--;
+        }
+    }
+
+    @Override
+    public synchronized int count() {
+        return count;
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) throws IOException {
+        //Nothing is decoded; most runs are skipped by their bloom filter.
+        byte[] value = get(nif);
+        return value != null && value.length > 0;
+    }
+
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        //The runs can not be deleted while they are being written or merged.
+        while (flushing != null || compacting) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+        }
+        for (List<SortedRun> level : levels) {
+            for (SortedRun run : level) {
+                run.delete();
+            }
+        }
+        levels.clear();
+        count = 0;
+        writeManifest();
+        memtable = new TreeMap<>();
+        memtableBytes = 0;
+        memtableLog.close();
+        File[] logs = folder.listFiles((dir, name) -> name.startsWith("memtable-") && name.endsWith(".log"));
+        if (logs != null) {
+            for (File f : logs) {
+                f.delete();
+            }
+        }
+        memtableLog = openMemtableLog(++memtableNumber);
+    }
+
+    /**
+     * Waits for the background work and closes the files. The memtable is not
+     * written as a run; its log is replayed when the folder is opened again.
+     * The object can not be used afterwards.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        synchronized (this) {
+            awaitFlush();
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            memtableLog.close();
+            for (List<SortedRun> level : levels) {
+                for (SortedRun run : level) {
+                    run.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return number of runs in every level, from level 0
+     */
+    synchronized int[] runsPerLevel() {
+        int[] runs = new int[levels.size()];
+        for (int i = 0; i < runs.length; i++) {
+            runs[i] = levels.get(i).size();
+        }
+        return runs;
+    }
+
+    private byte[] get(String nif) throws IOException {
+        byte[] value = memtable.get(nif);
+        if (value == null && flushing != null) {
+            value = flushing.get(nif);
+        }
+        for (int i = 0; value == null && i < levels.size(); i++) {
+            for (SortedRun run : levels.get(i)) {
+                value = run.get(nif);
+                if (value != null) {
+                    break;
+                }
+            }
+        }
+        return value;
+    }
+
+    private void put(String nif, byte[] value) throws IOException {
+        byte[] key = nif.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer record = logRecord(key, value);
+        while (record.hasRemaining()) {
+            memtableLog.write(record);
+        }
+        byte[] previous = memtable.put(nif, value);
+        memtableBytes += key.length + value.length - (previous != null ? previous.length : 0);
+        if (memtableBytes >= memtableSize) {
+            startFlush();
+        }
+    }
+
+    /**
+     * Turns the memtable into the one being flushed and writes it in the
+     * background. If the previous one is still being written, the writer
+     * waits for it.
+     */
+    private void startFlush() throws IOException {
+        awaitFlush();
+        flushing = memtable;
+        memtable = new TreeMap<>();
+        memtableBytes = 0;
+        memtableLog.close();
+        int flushedLog = memtableNumber;
+        memtableLog = openMemtableLog(++memtableNumber);
+        File file = new File(folder, "run-" + nextRun++ + ".sst");
+        TreeMap<String, byte[]> records = flushing;
+        compactor.submit(() -> {
+            try {
+                SortedRun run = SortedRun.write(file, records.entrySet().iterator(), records.size());
+                synchronized (this) {
+                    level(0).add(0, run);
+                    writeManifest();
+                    flushing = null;
+                    notifyAll();
+                }
+                new File(folder, "memtable-" + flushedLog + ".log").delete();
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(DAOLSMTree.class.getName()).log(Level.SEVERE, null, ex);
+                restore(records, flushedLog);
+                return;
+            }
+            try {
+                compact();
+            } catch (IOException | RuntimeException ex) {
+                Logger.getLogger(DAOLSMTree.class.getName()).log(Level.SEVERE, null, ex);
+            } finally {
+                synchronized (this) {
+                    compacting = false;
+                    notifyAll();
+                }
+            }
+        });
+    }
+
+    /**
+     * Gives the memtable back the records of a flush that failed, except the
+     * NIFs written since, whose newer values win. The records are also
+     * appended to the log of the memtable, so the old log can be deleted:
+     * kept, it would be replayed over the runs written later. If they can
+     * not be appended, the old log is kept so they are not lost.
+     */
+    private synchronized void restore(TreeMap<String, byte[]> records, int flushedLog) {
+        try {
+            for (Map.Entry<String, byte[]> entry : records.entrySet()) {
+                if (memtable.containsKey(entry.getKey())) {
+                    continue;
+                }
+                byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = logRecord(key, entry.getValue());
+                while (record.hasRemaining()) {
+                    memtableLog.write(record);
+                }
+                memtable.put(entry.getKey(), entry.getValue());
+                memtableBytes += key.length + entry.getValue().length;
+            }
+            memtableLog.force(false);
+            new File(folder, "memtable-" + flushedLog + ".log").delete();
+        } catch (IOException ex) {
+            Logger.getLogger(DAOLSMTree.class.getName()).log(Level.SEVERE, "Log of a failed flush kept.", ex);
+            records.forEach(memtable::putIfAbsent);
+        } finally {
+            flushing = null;
+            notifyAll();
+        }
+    }
+
+    private void awaitFlush() throws IOException {
+        while (flushing != null) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException(ex);
+            }
+        }
+    }
+
+    /**
+     * In the background thread: merges level 0 into level 1 when it has
+     * L0_RUNS runs and every level into the next one when it is over its
+     * limit. The runs are merged without the lock, since they do not change;
+     * the lock is only taken to replace them.
+     */
+    private void compact() throws IOException {
+        int level = 0;
+        while (true) {
+            ArrayList<SortedRun> inputs;
+            boolean last;
+            synchronized (this) {
+                if (level >= levels.size()) {
+                    return;
+                }
+                boolean full = level == 0
+                        ? levels.get(0).size() >= L0_RUNS
+                        : size(levels.get(level)) > limit(level);
+                if (!full) {
+                    if (level > 0) {
+                        return;
+                    }
+                    level++;
+                    continue;
+                }
+                inputs = new ArrayList<>(levels.get(level));
+                inputs.addAll(level(level + 1));
+                last = isEmptyFrom(level + 2);
+                compacting = true;
+            }
+            ArrayList<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+            int expected = 0;
+            for (SortedRun run : inputs) {
+                sources.add(run.iterator());
+                expected += run.count();
+            }
+            File file = new File(folder, "run-" + nextRun() + ".sst");
+            //Tombstones are only needed while there is an older level below.
+            SortedRun merged = SortedRun.write(file, merge(sources, last), expected);
+            synchronized (this) {
+                levels.get(level).removeAll(inputs);
+                ArrayList<SortedRun> next = level(level + 1);
+                next.clear();
+                if (merged.count() > 0) {
+                    next.add(merged);
+                } else {
+                    merged.delete();
+                }
+                writeManifest();
+                compacting = false;
+                notifyAll();
+            }
+            for (SortedRun run : inputs) {
+                run.delete();
+            }
+            level++;
+        }
+    }
+
+    private long limit(int level) {
+        long limit = (long) memtableSize * LEVEL_GROWTH;
+        for (int i = 1; i < level; i++) {
+            limit *= LEVEL_GROWTH;
+        }
+        return limit;
+    }
+
+    private static long size(List<SortedRun> runs) {
+        long size = 0;
+        for (SortedRun run : runs) {
+            size += run.length();
+        }
+        return size;
+    }
+
+    private boolean isEmptyFrom(int level) {
+        for (int i = level; i < levels.size(); i++) {
+            if (!levels.get(i).isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private ArrayList<SortedRun> level(int level) {
+        while (levels.size() <= level) {
+            levels.add(new ArrayList<>());
+        }
+        return levels.get(level);
+    }
+
+    private synchronized int nextRun() {
+        return nextRun++;
+    }
+
+    /**
+     * @return iterators of every source, from the newest to the oldest
+     */
+    private ArrayList<Iterator<Map.Entry<String, byte[]>>> sources() throws IOException {
+        ArrayList<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+        sources.add(memtable.entrySet().iterator());
+        if (flushing != null) {
+            sources.add(flushing.entrySet().iterator());
+        }
+        for (List<SortedRun> level : levels) {
+            for (SortedRun run : level) {
+                sources.add(run.iterator());
+            }
+        }
+        return sources;
+    }
+
+    /**
+     * Merges sorted sources, given from the newest to the oldest, keeping the
+     * newest value of every key.
+     * @param dropTombstones true to leave out the deleted keys
+     */
+    private static Iterator<Map.Entry<String, byte[]>> merge(List<Iterator<Map.Entry<String, byte[]>>> sources,
+            boolean dropTombstones) {
+        PriorityQueue<Cursor> queue = new PriorityQueue<>();
+        for (int i = 0; i < sources.size(); i++) {
+            Cursor cursor = new Cursor(i, sources.get(i));
+            if (cursor.advance()) {
+                queue.add(cursor);
+            }
+        }
+        return new Iterator<Map.Entry<String, byte[]>>() {
+            private Map.Entry<String, byte[]> next = find();
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                Map.Entry<String, byte[]> current = next;
+                next = find();
+                return current;
+            }
+
+            private Map.Entry<String, byte[]> find() {
+                while (!queue.isEmpty()) {
+                    Cursor newest = queue.poll();
+                    Map.Entry<String, byte[]> entry = newest.current;
+                    //Older values of the same key are skipped.
+                    while (!queue.isEmpty() && queue.peek().current.getKey().equals(entry.getKey())) {
+                        Cursor older = queue.poll();
+                        if (older.advance()) {
+                            queue.add(older);
+                        }
+                    }
+                    if (newest.advance()) {
+                        queue.add(newest);
+                    }
+                    if (!dropTombstones || entry.getValue().length > 0) {
+                        return entry;
+                    }
+                }
+                return null;
+            }
+        };
+    }
+
+    private static final class Cursor implements Comparable<Cursor> {
+
+        private final int age;
+        private final Iterator<Map.Entry<String, byte[]>> source;
+        private Map.Entry<String, byte[]> current;
+
+        Cursor(int age, Iterator<Map.Entry<String, byte[]>> source) {
+            this.age = age;
+            this.source = source;
+        }
+
+        boolean advance() {
+            if (!source.hasNext()) {
+                return false;
+            }
+            Map.Entry<String, byte[]> entry = source.next();
+            current = new AbstractMap.SimpleImmutableEntry<>(entry.getKey(), entry.getValue());
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int byKey = current.getKey().compareTo(other.current.getKey());
+            return byKey != 0 ? byKey : Integer.compare(age, other.age);
+        }
+    }
+
+    private void writeManifest() throws IOException {
+        File temp = new File(folder, MANIFEST + ".tmp");
+        try (PrintWriter out = new PrintWriter(temp, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < levels.size(); i++) {
+                for (SortedRun run : levels.get(i)) {
+                    out.println(i + " " + run.file().getName());
+                }
+            }
+        }
+        Files.move(temp.toPath(), new File(folder, MANIFEST).toPath(), StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Opens the runs of the manifest and deletes the run files it does not
+     * list, left by a flush or a compaction that did not finish.
+     */
+    private void readManifest() throws IOException {
+        HashSet<String> listed = new HashSet<>();
+        File manifest = new File(folder, MANIFEST);
+        if (manifest.exists()) {
+            for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                if (line.isBlank()) {
+                    continue;
+                }
+                String[] parts = line.split(" ");
+                level(Integer.parseInt(parts[0])).add(SortedRun.open(new File(folder, parts[1])));
+                listed.add(parts[1]);
+            }
+        }
+        File[] runs = folder.listFiles((dir, name) -> name.startsWith("run-") && name.endsWith(".sst"));
+        if (runs != null) {
+            for (File f : runs) {
+                String name = f.getName();
+                nextRun = Math.max(nextRun, Integer.parseInt(name.substring(4, name.length() - 4)) + 1);
+                if (!listed.contains(name)) {
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    /**
+     * Loads the memtable logs, oldest first, into the memtable and starts a
+     * new log with all of it, so the older ones can be deleted.
+     */
+    private void replayMemtableLogs() throws IOException {
+        TreeMap<Integer, File> logs = new TreeMap<>();
+        File[] files = folder.listFiles((dir, name) -> name.startsWith("memtable-") && name.endsWith(".log"));
+        if (files != null) {
+            for (File f : files) {
+                String name = f.getName();
+                logs.put(Integer.valueOf(name.substring(9, name.length() - 4)), f);
+            }
+        }
+        for (File f : logs.values()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                while (true) {
+                    int length = in.readInt();
+                    int checksum = in.readInt();
+                    //A record cut by a crash ends the log.
+                    if (length < 2 || length > f.length()) {
+                        break;
+                    }
+                    byte[] body = new byte[length];
+                    in.readFully(body);
+                    CRC32 crc = new CRC32();
+                    crc.update(body);
+                    ByteBuffer record = ByteBuffer.wrap(body);
+                    int keyLength = record.getShort() & 0xFFFF;
+                    if ((int) crc.getValue() != checksum || keyLength > length - 2) {
+                        break;
+                    }
+                    byte[] key = new byte[keyLength];
+                    record.get(key);
+                    byte[] value = new byte[record.remaining()];
+                    record.get(value);
+                    memtable.put(new String(key, StandardCharsets.UTF_8), value.length == 0 ? SortedRun.TOMBSTONE : value);
+                }
+            } catch (EOFException ex) {
+                //End of the log
+            }
+        }
+        memtableNumber = logs.isEmpty() ? 0 : logs.lastKey() + 1;
+        memtableLog = openMemtableLog(memtableNumber);
+        for (Map.Entry<String, byte[]> entry : memtable.entrySet()) {
+            byte[] key = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            ByteBuffer record = logRecord(key, entry.getValue());
+            while (record.hasRemaining()) {
+                memtableLog.write(record);
+            }
+            memtableBytes += key.length + entry.getValue().length;
+        }
+        memtableLog.force(false);
+        for (File f : logs.values()) {
+            f.delete();
+        }
+    }
+
+    /**
+     * Record of the memtable log: int length of the body, int CRC32 of the
+     * body and the body, which is the key length (short), the key and the
+     * value, empty for a tombstone.
+     */
+    private static ByteBuffer logRecord(byte[] key, byte[] value) {
+        ByteBuffer record = ByteBuffer.allocate(8 + 2 + key.length + value.length);
+        record.putInt(2 + key.length + value.length).putInt(0);
+        record.putShort((short) key.length).put(key).put(value);
+        CRC32 crc = new CRC32();
+        crc.update(record.array(), 8, record.capacity() - 8);
+        record.putInt(4, (int) crc.getValue());
+        record.flip();
+        return record;
+    }
+
+    private FileChannel openMemtableLog(int number) throws IOException {
+        return FileChannel.open(new File(folder, "memtable-" + number + ".log").toPath(),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+}
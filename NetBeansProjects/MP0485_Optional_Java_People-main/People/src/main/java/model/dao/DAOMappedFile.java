@@ -0,0 +1,349 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import start.Routes;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * This class implements the IDAO interface and completes the code of the
+ * functions so that they can work with a memory-mapped file of fixed-width
+ * slots, one per person. Every field has a fixed position inside the slot, so
+ * reading a person decodes it straight from the mapped pages without parsing
+ * lines, and the OS page cache keeps the data warm between runs. The file
+ * grows by remapping it with twice the slots. User data is saved in the
+ * "dataFile.map" file and the associated photos, if any, are saved with the
+ * name NIF.png in the "Photos" folder; the slot only keeps a flag pointing to
+ * it.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOMappedFile implements IDAO {
+
+    private static final int MAGIC = 0x50504C4D;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int HEADER_MAGIC = 0;
+    private static final int HEADER_VERSION = 4;
+    private static final int HEADER_SLOT_SIZE = 8;
+    private static final int HEADER_HIGH_WATER = 12;
+    //8 slots per 4 KiB page, so no slot is split across two pages.
+    private static final int SLOT_SIZE = 512;
+    private static final int INITIAL_SLOTS = 1024;
+    //Slot layout. Strings are a length (short) followed by UTF-8 bytes.
+    private static final int STATUS = 0;
+    private static final int NIF = 1;
+    private static final int NIF_SIZE = 16;
+    private static final int NAME = NIF + NIF_SIZE;
+    private static final int NAME_SIZE = 202;
+    private static final int DATE = NAME + NAME_SIZE;
+    private static final int EMAIL = DATE + 4;
+    private static final int EMAIL_SIZE = 130;
+    private static final int PHONE = EMAIL + EMAIL_SIZE;
+    private static final int PHONE_SIZE = 26;
+    private static final int POSTAL_CODE = PHONE + PHONE_SIZE;
+    private static final int POSTAL_CODE_SIZE = 18;
+    private static final int PHOTO = POSTAL_CODE + POSTAL_CODE_SIZE;
+    //Slots written before it existed have 0 there, the first version.
+    private static final int UPDATES = PHOTO + 1;
+    private static final byte FREE = 0;
+    private static final byte USED = 1;
+    private static final int NO_DATE = Integer.MIN_VALUE;
+    private static final short NULL_STRING = -1;
+
+    private final File folderPhotos;
+    private final FileChannel channel;
+    private final HashMap<String, Integer> index = new HashMap<>();
+    private final ArrayDeque<Integer> freeSlots = new ArrayDeque<>();
+    private MappedByteBuffer buffer;
+    private int capacity;
+    //Slots above this one have never been used.
+    private int highWater;
+
+    public DAOMappedFile() throws IOException {
+        this(new File(Routes.FILEMAP.getDataFile()), new File(Routes.FILEMAP.getFolderPhotos()));
+    }
+
+    public DAOMappedFile(File dataFile, File folderPhotos) throws IOException {
+        this.folderPhotos = folderPhotos;
+        dataFile.getParentFile().mkdirs();
+        folderPhotos.mkdirs();
+        channel = FileChannel.open(dataFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        if (size < HEADER_SIZE) {
+            map(INITIAL_SLOTS);
+            buffer.putInt(HEADER_MAGIC, MAGIC);
+            buffer.putInt(HEADER_VERSION, VERSION);
+            buffer.putInt(HEADER_SLOT_SIZE, SLOT_SIZE);
+            buffer.putInt(HEADER_HIGH_WATER, 0);
+        } else {
+            map((int) Math.max(INITIAL_SLOTS, (size - HEADER_SIZE) / SLOT_SIZE));
+            if (buffer.getInt(HEADER_MAGIC) != MAGIC || buffer.getInt(HEADER_SLOT_SIZE) != SLOT_SIZE) {
+                channel.close();
+                throw new IOException(dataFile + " is not a people mapped file.");
+            }
+        }
+        highWater = buffer.getInt(HEADER_HIGH_WATER);
+        for (int slot = 0; slot < highWater; slot++) {
+            if (buffer.get(offset(slot) + STATUS) == USED) {
+                index.put(getString(offset(slot) + NIF), slot);
+            } else {
+                freeSlots.add(slot);
+            }
+        }
+    }
+
+    @Override
+    public synchronized Person read(Person p) {
+        Integer slot = index.get(p.getNif());
+        return slot != null ? decode(slot) : null;
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() {
+        ArrayList<Person> people = new ArrayList<>(index.size());
+        for (int slot = 0; slot < highWater; slot++) {
+            if (buffer.get(offset(slot) + STATUS) == USED) {
+                people.add(decode(slot));
+            }
+        }
+        return people;
+    }
+
+    @Override
+    public synchronized int count() {
+        return index.size();
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        return index.containsKey(nif);
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException, PersonException {
+        //insert already replaces the person if it is registered.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException, PersonException {
+        Integer slot = index.get(p.getNif());
+        if (slot != null) {
+            replace(slot, p);
+            return;
+        }
+        slot = allocate();
+        try {
+            write(slot, p);
+        } catch (PersonException ex) {
+            freeSlots.add(slot);
+            throw ex;
+        }
+        index.put(p.getNif(), slot);
+    }
+
+    @Override
+    public synchronized void update(Person p) throws IOException, PersonException {
+        insert(p);
+    }
+
+    /**
+     * The version is read from the slot, without decoding the person.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, PersonException {
+        Integer slot = index.get(p.getNif());
+        if (slot == null) {
+            throw new PersonException(p.getNif() + " is not registered and can not be UPDATED.");
+        }
+        long version = buffer.getLong(offset(slot) + UPDATES);
+        if (version != expectedVersion) {
+            throw new VersionConflictException(p.getNif(), expectedVersion, version);
+        }
+        replace(slot, p);
+    }
+
+    //A registered person is stored with the version after the one of its slot.
+    private void replace(int slot, Person p) throws IOException, PersonException {
+        long previous = p.getVersion();
+        p.setVersion(buffer.getLong(offset(slot) + UPDATES) + 1);
+        try {
+            write(slot, p);
+        } catch (IOException | PersonException ex) {
+            p.setVersion(previous);
+            throw ex;
+        }
+    }
+
+    @Override
+    public synchronized void delete(Person p) {
+        Integer slot = index.remove(p.getNif());
+        if (slot != null) {
+            buffer.put(offset(slot) + STATUS, FREE);
+            freeSlots.add(slot);
+            new File(folderPhotos, p.getNif() + ".png").delete();
+        }
+    }
+
+    /**
+     * Frees the slots in the mapping. The file is not truncated while it is
+     * mapped, so it keeps its size for the next inserts.
+     */
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        index.clear();
+        freeSlots.clear();
+        //A slot is only marked used once it is written, so none can come back.
+        for (int slot = 0; slot < highWater; slot++) {
+            buffer.put(offset(slot) + STATUS, FREE);
+        }
+        highWater = 0;
+        buffer.putInt(HEADER_HIGH_WATER, 0);
+        File[] photos = folderPhotos.listFiles();
+        if (photos != null) {
+            for (File f : photos) {
+                f.delete();
+            }
+        }
+    }
+
+    /**
+     * Writes the mapped pages to disk and closes the file. The object can not
+     * be used afterwards.
+     * @throws IOException
+     */
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+
+    private void map(int slots) throws IOException {
+        capacity = slots;
+        //Mapping beyond the end of the file makes it grow.
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + (long) slots * SLOT_SIZE);
+    }
+
+    private int allocate() throws IOException {
+        if (!freeSlots.isEmpty()) {
+            return freeSlots.poll();
+        }
+        if (highWater == capacity) {
+            map(capacity * 2);
+        }
+        highWater++;
+        buffer.putInt(HEADER_HIGH_WATER, highWater);
+        return highWater - 1;
+    }
+
+    private static int offset(int slot) {
+        return HEADER_SIZE + slot * SLOT_SIZE;
+    }
+
+    private void write(int slot, Person p) throws IOException, PersonException {
+        int base = offset(slot);
+        //Validate every field before touching the slot.
+        byte[] nif = encode(p.getNif(), NIF_SIZE, "NIF");
+        byte[] name = encode(p.getName(), NAME_SIZE, "Name");
+        byte[] email = encode(p.getEmail(), EMAIL_SIZE, "Email");
+        byte[] phone = encode(p.getPhoneNumber(), PHONE_SIZE, "Phone number");
+        byte[] postalCode = encode(p.getPostalCode(), POSTAL_CODE_SIZE, "Postal code");
+        putString(base + NIF, nif);
+        putString(base + NAME, name);
+        buffer.putInt(base + DATE, p.getDateOfBirth() != null ? toEpochDay(p.getDateOfBirth()) : NO_DATE);
+        putString(base + EMAIL, email);
+        putString(base + PHONE, phone);
+        putString(base + POSTAL_CODE, postalCode);
+        buffer.put(base + PHOTO, savePhoto(p) ? (byte) 1 : (byte) 0);
+        buffer.putLong(base + UPDATES, p.getVersion());
+        buffer.put(base + STATUS, USED);
+    }
+
+    private Person decode(int slot) {
+        int base = offset(slot);
+        String nif = getString(base + NIF);
+        int epochDay = buffer.getInt(base + DATE);
+        ImageIcon photo = null;
+        if (buffer.get(base + PHOTO) == 1) {
+            photo = new ImageIcon(new File(folderPhotos, nif + ".png").getPath());
+        }
+        Person p = new Person(getString(base + NAME), nif,
+                epochDay != NO_DATE ? fromEpochDay(epochDay) : null, photo);
+        p.setEmail(getString(base + EMAIL));
+        p.setPhoneNumber(getString(base + PHONE));
+        p.setPostalCode(getString(base + POSTAL_CODE));
+        p.setVersion(buffer.getLong(base + UPDATES));
+        return p;
+    }
+
+    private static byte[] encode(String s, int fieldSize, String field) throws PersonException {
+        if (s == null) {
+            return null;
+        }
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > fieldSize - 2) {
+            throw new PersonException(field + " is too long to be stored.");
+        }
+        return bytes;
+    }
+
+    private void putString(int position, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort(position, NULL_STRING);
+        } else {
+            buffer.putShort(position, (short) bytes.length);
+            buffer.put(position + 2, bytes);
+        }
+    }
+
+    private String getString(int position) {
+        short length = buffer.getShort(position);
+        if (length == NULL_STRING) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(position + 2, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int toEpochDay(Date date) {
+        return (int) date.toInstant().atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+
+    private static Date fromEpochDay(int epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private boolean savePhoto(Person p) throws IOException {
+        File photoFile = new File(folderPhotos, p.getNif() + ".png");
+        if (p.getPhoto() == null) {
+            photoFile.delete();
+            return false;
+        }
+        BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
+                p.getPhoto().getImage().getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        bi.getGraphics().drawImage(p.getPhoto().getImage(), 0, 0, null);
+        ImageIO.write(bi, "png", photoFile);
+        return true;
+    }
+
+}
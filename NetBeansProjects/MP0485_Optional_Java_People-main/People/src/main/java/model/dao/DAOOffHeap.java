@@ -0,0 +1,309 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+
+/**
+ * This class implements the IDAO interface and completes the function code
+ * blocks so that they can operate in memory, but outside the Java heap. Every
+ * person is encoded with PersonCodec, photo included, and appended to an
+ * arena, a direct ByteBuffer of ARENA_SIZE bytes. The NIF index is an
+ * open-addressing hash table that is also a direct ByteBuffer, so the heap
+ * only holds a few buffers whatever the number of people, and a Person
+ * object is only created when it is read. Updates and deletes leave the old
+ * record in its arena; when the dead bytes are more than the live ones the
+ * live records are copied to new arenas. Remember that the direct memory
+ * limit is set with -XX:MaxDirectMemorySize.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class DAOOffHeap implements IDAO {
+
+    private static final int ARENA_SIZE = 8 * 1024 * 1024;
+    private static final int INITIAL_SLOTS = 1024;
+    //Slot: int hash of the NIF and long location of the record.
+    private static final int SLOT_SIZE = 12;
+    private static final long EMPTY = -1;
+    private static final long DELETED = -2;
+
+    private final int arenaSize;
+    private final ArrayList<ByteBuffer> arenas = new ArrayList<>();
+    private ByteBuffer slots;
+    private int capacity;
+    private int size;
+    private int used;
+    private long liveBytes;
+    private long deadBytes;
+
+    public DAOOffHeap() {
+        this(ARENA_SIZE);
+    }
+
+    DAOOffHeap(int arenaSize) {
+        this.arenaSize = arenaSize;
+        clear(INITIAL_SLOTS);
+    }
+
+    @Override
+    public synchronized Person read(Person p) throws IOException {
+        int slot = find(p.getNif());
+        return slot >= 0 ? decode(slots.getLong(slot * SLOT_SIZE + 4)) : null;
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException, PersonException {
+        //insert already replaces the person if it is registered.
+        insert(p);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException, PersonException {
+        put(p);
+    }
+
+    @Override
+    public synchronized void update(Person p) throws IOException, PersonException {
+        if (find(p.getNif()) >= 0) {
+            put(p);
+        }
+    }
+
+    /**
+     * Checks the version and updates under the same lock.
+     */
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, PersonException {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        update(p);
+    }
+
+    @Override
+    public synchronized void delete(Person p) {
+        int slot = find(p.getNif());
+        if (slot >= 0) {
+            release(slots.getLong(slot * SLOT_SIZE + 4));
+            slots.putLong(slot * SLOT_SIZE + 4, DELETED);
+            size--;
+            compactIfNeeded();
+        }
+    }
+
+    @Override
+    public synchronized void deleteAll() {
+        clear(INITIAL_SLOTS);
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() throws IOException {
+        ArrayList<Person> people = new ArrayList<>(size);
+        for (int slot = 0; slot < capacity; slot++) {
+            long location = slots.getLong(slot * SLOT_SIZE + 4);
+            if (location >= 0) {
+                people.add(decode(location));
+            }
+        }
+        return people;
+    }
+
+    @Override
+    public synchronized int count() {
+        return size;
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        return find(nif) >= 0;
+    }
+
+    /**
+     * @return bytes of direct memory taken by the arenas and the index
+     */
+    public synchronized long reservedBytes() {
+        long bytes = slots.capacity();
+        for (ByteBuffer arena : arenas) {
+            bytes += arena.capacity();
+        }
+        return bytes;
+    }
+
+    private void put(Person p) throws IOException, PersonException {
+        byte[] key = p.getNif().getBytes(StandardCharsets.UTF_8);
+        if (key.length > Byte.MAX_VALUE) {
+            throw new PersonException("NIF too long to be stored.");
+        }
+        int slot = find(p.getNif());
+        if (slot >= 0) {
+            p.setVersion(PersonCodec.version(payload(slots.getLong(slot * SLOT_SIZE + 4))) + 1);
+        }
+        byte[] payload = PersonCodec.encode(p);
+        long location = append(key, payload);
+        if (slot >= 0) {
+            release(slots.getLong(slot * SLOT_SIZE + 4));
+            slots.putLong(slot * SLOT_SIZE + 4, location);
+            compactIfNeeded();
+            return;
+        }
+        if ((used + 1) * 2 > capacity) {
+            //Tombstones count as used, so a table full of them is only cleaned.
+            rehash(size * 4 > capacity ? capacity * 2 : capacity);
+        }
+        int hash = hash(p.getNif());
+        slot = hash & (capacity - 1);
+        long current;
+        while ((current = slots.getLong(slot * SLOT_SIZE + 4)) >= 0) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        if (current == EMPTY) {
+            used++;
+        }
+        slots.putInt(slot * SLOT_SIZE, hash);
+        slots.putLong(slot * SLOT_SIZE + 4, location);
+        size++;
+    }
+
+    /**
+     * @return slot of the NIF or -1 if it is not stored
+     */
+    private int find(String nif) {
+        int hash = hash(nif);
+        byte[] key = nif.getBytes(StandardCharsets.UTF_8);
+        int slot = hash & (capacity - 1);
+        long location;
+        while ((location = slots.getLong(slot * SLOT_SIZE + 4)) != EMPTY) {
+            if (location >= 0 && slots.getInt(slot * SLOT_SIZE) == hash && keyEquals(location, key)) {
+                return slot;
+            }
+            slot = (slot + 1) & (capacity - 1);
+        }
+        return -1;
+    }
+
+    //Record: int payload length, byte key length, key and payload.
+    private long append(byte[] key, byte[] payload) {
+        int length = 5 + key.length + payload.length;
+        ByteBuffer arena = arenas.isEmpty() ? null : arenas.get(arenas.size() - 1);
+        if (arena == null || arena.remaining() < length) {
+            arena = ByteBuffer.allocateDirect(Math.max(arenaSize, length));
+            arenas.add(arena);
+        }
+        long location = ((long) (arenas.size() - 1) << 32) | arena.position();
+        arena.putInt(payload.length);
+        arena.put((byte) key.length);
+        arena.put(key);
+        arena.put(payload);
+        liveBytes += length;
+        return location;
+    }
+
+    private void release(long location) {
+        ByteBuffer arena = arenas.get((int) (location >>> 32));
+        int offset = (int) location;
+        int length = 5 + arena.get(offset + 4) + arena.getInt(offset);
+        liveBytes -= length;
+        deadBytes += length;
+    }
+
+    private boolean keyEquals(long location, byte[] key) {
+        ByteBuffer arena = arenas.get((int) (location >>> 32));
+        int offset = (int) location;
+        if (arena.get(offset + 4) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (arena.get(offset + 5 + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private byte[] payload(long location) {
+        ByteBuffer arena = arenas.get((int) (location >>> 32));
+        int offset = (int) location;
+        byte[] payload = new byte[arena.getInt(offset)];
+        arena.get(offset + 5 + arena.get(offset + 4), payload);
+        return payload;
+    }
+
+    private Person decode(long location) throws IOException {
+        return PersonCodec.decode(payload(location));
+    }
+
+    private void rehash(int newCapacity) {
+        ByteBuffer old = slots;
+        int oldCapacity = capacity;
+        newSlots(newCapacity);
+        for (int slot = 0; slot < oldCapacity; slot++) {
+            long location = old.getLong(slot * SLOT_SIZE + 4);
+            if (location >= 0) {
+                insertSlot(old.getInt(slot * SLOT_SIZE), location);
+            }
+        }
+    }
+
+    private void insertSlot(int hash, long location) {
+        int slot = hash & (capacity - 1);
+        while (slots.getLong(slot * SLOT_SIZE + 4) != EMPTY) {
+            slot = (slot + 1) & (capacity - 1);
+        }
+        slots.putInt(slot * SLOT_SIZE, hash);
+        slots.putLong(slot * SLOT_SIZE + 4, location);
+        used++;
+    }
+
+    /**
+     * Copies the live records to new arenas when most of the bytes are of
+     * deleted or overwritten records.
+     */
+    private void compactIfNeeded() {
+        if (deadBytes < arenaSize || deadBytes < liveBytes) {
+            return;
+        }
+        ArrayList<ByteBuffer> old = new ArrayList<>(arenas);
+        arenas.clear();
+        liveBytes = 0;
+        deadBytes = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            long location = slots.getLong(slot * SLOT_SIZE + 4);
+            if (location >= 0) {
+                ByteBuffer arena = old.get((int) (location >>> 32));
+                int offset = (int) location;
+                byte[] key = new byte[arena.get(offset + 4)];
+                arena.get(offset + 5, key);
+                byte[] payload = new byte[arena.getInt(offset)];
+                arena.get(offset + 5 + key.length, payload);
+                slots.putLong(slot * SLOT_SIZE + 4, append(key, payload));
+            }
+        }
+    }
+
+    private void clear(int newCapacity) {
+        arenas.clear();
+        size = 0;
+        liveBytes = 0;
+        deadBytes = 0;
+        newSlots(newCapacity);
+    }
+
+    private void newSlots(int newCapacity) {
+        capacity = newCapacity;
+        used = 0;
+        slots = ByteBuffer.allocateDirect(capacity * SLOT_SIZE);
+        for (int slot = 0; slot < capacity; slot++) {
+            slots.putLong(slot * SLOT_SIZE + 4, EMPTY);
+        }
+    }
+
+    private static int hash(String nif) {
+        int h = nif.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+}
@@ -1,6 +1,7 @@
 package model.dao;
 
 import model.entity.Person;
+import model.entity.PersonSummary;
 import start.Routes;
 
 import java.awt.image.BufferedImage;
@@ -10,6 +11,8 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
@@ -17,10 +20,20 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
 import javax.imageio.ImageIO;
 import javax.swing.ImageIcon;
 import model.entity.Admin;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
 import model.entity.User;
 
 /**
@@ -36,9 +49,24 @@ public class DAOSQL implements IDAO {
     private final String SQL_SELECT_ALL = "SELECT * FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + ";";
     private final String SQL_SELECT = "SELECT * FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE (nif = ?);";
     private final String SQL_INSERT = "INSERT INTO " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " (nif, name, dateOfBirth, photo) VALUES (?, ?, ?, ?);";
-    private final String SQL_UPDATE = "UPDATE " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " SET name = ?, dateOfBirth = ?, photo = ? WHERE (nif = ?);";
+    private final String SQL_UPSERT = "INSERT INTO " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " (nif, name, dateOfBirth, photo) VALUES (?, ?, ?, ?) ON DUPLICATE KEY UPDATE name = VALUES(name), dateOfBirth = VALUES(dateOfBirth), photo = VALUES(photo), version = version + 1;";
+    private final String SQL_UPDATE = "UPDATE " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " SET name = ?, dateOfBirth = ?, photo = ?, version = version + 1 WHERE (nif = ?);";
+    private final String SQL_UPDATE_VERSION = "UPDATE " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " SET name = ?, dateOfBirth = ?, photo = ?, version = version + 1 WHERE (nif = ? AND version = ?);";
+    private final String SQL_SELECT_VERSION = "SELECT version FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE (nif = ?);";
     private final String SQL_DELETE = "DELETE FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE (nif = ";
     private final String SQL_DELETE_ALL = "TRUNCATE " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE();
+    private final String SQL_EXISTS = "SELECT 1 FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE (nif = ?) LIMIT 1;";
+    private final String SQL_SELECT_NIFS = "SELECT nif FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE nif IN (";
+    private final String SQL_DELETE_ONE = "DELETE FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE (nif = ?);";
+    private final String SQL_COUNT = "SELECT COUNT(*) FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + ";";
+
+    private final String SQL_SELECT_SUMMARIES = "SELECT nif, name, dateOfBirth, photo IS NOT NULL AS hasPhoto FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + ";";
+    private final String SQL_SELECT_SUMMARY_PAGE = "SELECT nif, name, dateOfBirth, photo IS NOT NULL AS hasPhoto FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE nif > ? ORDER BY nif LIMIT ?;";
+    private final String SQL_SELECT_WHERE = "SELECT * FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE();
+    private final String SQL_SELECT_PAGE = "SELECT * FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB.getDbServerTABLE() + " WHERE nif > ? ORDER BY nif LIMIT ?;";
+
+    //Statements sent to the server in every JDBC batch.
+    private final int BATCH_SIZE = 1000;
 
     //selects para usuarios normales y admin
     private final String SQL_SELECT2 = "SELECT * FROM " + Routes.DB.getDbServerDB() + "." + Routes.DB2.getDbServerTABLE() + " WHERE (username = ?);";
@@ -76,6 +104,7 @@ public class DAOSQL implements IDAO {
             if (photo != null) {
                 pReturn.setPhoto(new ImageIcon(photo));
             }
+            pReturn.setVersion(rs.getLong("version"));
         }
         rs.close();
         instruction.close();
@@ -141,15 +170,7 @@ public class DAOSQL implements IDAO {
         instruction = conn.createStatement();
         rs = instruction.executeQuery(SQL_SELECT_ALL);
         while (rs.next()) {
-            String nif = rs.getString("nif");
-            String name = rs.getString("name");
-            Date date = rs.getDate("dateOfBirth");
-            String photo = rs.getString("photo");
-            if (photo != null) {
-                people.add(new Person(nif, name, date, new ImageIcon(photo)));
-            } else {
-                people.add(new Person(nif, name, date, null));
-            }
+            people.add(person(rs));
         }
         rs.close();
         instruction.close();
@@ -157,6 +178,41 @@ public class DAOSQL implements IDAO {
         return people;
     }
 
+    @Override
+    public int count() throws SQLException {
+        int count = 0;
+        Connection conn;
+        Statement instruction;
+        ResultSet rs;
+        conn = connect();
+        instruction = conn.createStatement();
+        rs = instruction.executeQuery(SQL_COUNT);
+        if (rs.next()) {
+            count = rs.getInt(1);
+        }
+        rs.close();
+        instruction.close();
+        disconnect(conn);
+        return count;
+    }
+
+    @Override
+    public boolean exists(String nif) throws SQLException {
+        boolean exists;
+        Connection conn;
+        PreparedStatement instruction;
+        ResultSet rs;
+        conn = connect();
+        instruction = conn.prepareStatement(SQL_EXISTS);
+        instruction.setString(1, nif);
+        rs = instruction.executeQuery();
+        exists = rs.next();
+        rs.close();
+        instruction.close();
+        disconnect(conn);
+        return exists;
+    }
+
     @Override
     public void delete(Person p) throws SQLException {
         Connection conn;
@@ -185,29 +241,30 @@ public class DAOSQL implements IDAO {
         } else {
             instruction.setDate(3, null);
         }
-        if (p.getPhoto() != null) {
-            String sep = File.separator;
-            String filePath = Routes.DB.getFolderPhotos() + sep + p.getNif() + ".png";
-            File photo = new File(filePath);
-            FileOutputStream out;
-            BufferedOutputStream outB;
-            out = new FileOutputStream(photo);
-            outB = new BufferedOutputStream(out);
-            BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
-                    p.getPhoto().getImage().getHeight(null),
-                    BufferedImage.TYPE_INT_ARGB);
-            bi.getGraphics().drawImage(p.getPhoto().getImage(), 0, 0, null);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bi, "png", baos);
-            byte[] img = baos.toByteArray();
-            for (int i = 0; i < img.length; i++) {
-                outB.write(img[i]);
-            }
-            outB.close();
-            instruction.setString(4, photo.getPath());
+        instruction.setString(4, savePhoto(p));
+        instruction.executeUpdate();
+        instruction.close();
+        disconnect(conn);
+    }
+
+    /**
+     * A single statement: the server inserts the row or, if the NIF is
+     * already there, updates it.
+     */
+    @Override
+    public void upsert(Person p) throws IOException, SQLException {
+        Connection conn;
+        PreparedStatement instruction;
+        conn = connect();
+        instruction = conn.prepareStatement(SQL_UPSERT);
+        instruction.setString(1, p.getNif());
+        instruction.setString(2, p.getName());
+        if (p.getDateOfBirth() != null) {
+            instruction.setDate(3, new java.sql.Date((p.getDateOfBirth()).getTime()));
         } else {
-            instruction.setString(4, null);
+            instruction.setDate(3, null);
         }
+        instruction.setString(4, savePhoto(p));
         instruction.executeUpdate();
         instruction.close();
         disconnect(conn);
@@ -225,37 +282,67 @@ public class DAOSQL implements IDAO {
         } else {
             instruction.setDate(2, null);
         }
-        if (p.getPhoto() != null) {
-            String sep = File.separator;
-            File imagePerson = new File(Routes.DB.getFolderPhotos() + sep + p.getNif() + ".png");
-            FileOutputStream out;
-            BufferedOutputStream outB;
-            out = new FileOutputStream(imagePerson);
-            outB = new BufferedOutputStream(out);
-            BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
-                    p.getPhoto().getImage().getHeight(null),
-                    BufferedImage.TYPE_INT_ARGB);
-            bi.getGraphics().drawImage(p.getPhoto().getImage(), 0, 0, null);
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ImageIO.write(bi, "png", baos);
-            byte[] img = baos.toByteArray();
-            for (int i = 0; i < img.length; i++) {
-                outB.write(img[i]);
-            }
-            outB.close();
-            instruction.setString(3, imagePerson.getPath());
-        } else {
-            instruction.setString(3, null);
-            File photoFile = new File(Routes.DB.getFolderPhotos() + File.separator + p.getNif()
-                    + ".png");
-            photoFile.delete();
-        }
+        instruction.setString(3, savePhoto(p));
         instruction.setString(4, p.getNif());
         instruction.executeUpdate();
         instruction.close();
         disconnect(conn);
     }
 
+    /**
+     * The row is only updated WHERE it still has the expected version. The
+     * photo is saved after that, while the transaction keeps the row locked,
+     * so a rejected update does not touch the photo of the other one.
+     */
+    @Override
+    public void update(Person p, long expectedVersion) throws SQLException, IOException, PersonException {
+        Connection conn;
+        PreparedStatement instruction;
+        conn = connect();
+        try {
+            conn.setAutoCommit(false);
+            instruction = conn.prepareStatement(SQL_UPDATE_VERSION);
+            instruction.setString(1, p.getName());
+            if (p.getDateOfBirth() != null) {
+                instruction.setDate(2, new java.sql.Date((p.getDateOfBirth()).getTime()));
+            } else {
+                instruction.setDate(2, null);
+            }
+            File photo = new File(Routes.DB.getFolderPhotos() + File.separator + p.getNif() + ".png");
+            instruction.setString(3, p.getPhoto() != null ? photo.getPath() : null);
+            instruction.setString(4, p.getNif());
+            instruction.setLong(5, expectedVersion);
+            int updated = instruction.executeUpdate();
+            instruction.close();
+            if (updated == 0) {
+                conn.rollback();
+                instruction = conn.prepareStatement(SQL_SELECT_VERSION);
+                instruction.setString(1, p.getNif());
+                ResultSet rs = instruction.executeQuery();
+                Person current = null;
+                if (rs.next()) {
+                    current = new Person(p.getNif());
+                    current.setVersion(rs.getLong(1));
+                }
+                rs.close();
+                instruction.close();
+                VersionConflictException.check(current, p.getNif(), expectedVersion);
+                //Changed and changed back between the two statements.
+                throw new VersionConflictException(p.getNif(), expectedVersion, current.getVersion());
+            }
+            try {
+                savePhoto(p);
+            } catch (IOException ex) {
+                conn.rollback();
+                throw ex;
+            }
+            conn.commit();
+            p.setVersion(expectedVersion + 1);
+        } finally {
+            disconnect(conn);
+        }
+    }
+
     @Override
     public void deleteAll() throws Exception {
         Connection conn;
@@ -271,4 +358,467 @@ public class DAOSQL implements IDAO {
             f.delete();
     }
 
+    /**
+     * The primary key index takes the query straight to the first NIF after
+     * the given one, so every page costs the same.
+     */
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws SQLException {
+        return page(SQL_SELECT_PAGE, after, size, this::person);
+    }
+
+    /**
+     * Only the photo column is compared with NULL, so no photo file is
+     * loaded.
+     */
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws SQLException {
+        return page(SQL_SELECT_SUMMARY_PAGE, after, size, this::summary);
+    }
+
+    private <T> ArrayList<T> page(String sql, String after, int size, Row<T> row) throws SQLException {
+        ArrayList<T> people = new ArrayList<>();
+        Connection conn;
+        PreparedStatement instruction;
+        ResultSet rs;
+        conn = connect();
+        instruction = conn.prepareStatement(sql);
+        //Every NIF is greater than the empty string.
+        instruction.setString(1, after != null ? after : "");
+        instruction.setInt(2, size);
+        rs = instruction.executeQuery();
+        while (rs.next()) {
+            people.add(row.read(rs));
+        }
+        rs.close();
+        instruction.close();
+        disconnect(conn);
+        return people;
+    }
+
+    /**
+     * Inserts the people not registered yet with JDBC batches of BATCH_SIZE
+     * statements, all in one transaction and one connection.
+     */
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws SQLException {
+        return writeAll(people, SQL_INSERT, true);
+    }
+
+    /**
+     * Updates the registered people with JDBC batches of BATCH_SIZE
+     * statements, all in one transaction and one connection.
+     */
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws SQLException {
+        return writeAll(people, SQL_UPDATE, false);
+    }
+
+    /**
+     * Deletes the registered people with JDBC batches of BATCH_SIZE
+     * statements, all in one transaction and one connection.
+     */
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws SQLException {
+        BatchReport report = new BatchReport();
+        Connection conn = connect();
+        try {
+            HashSet<String> registered = registered(conn, people);
+            conn.setAutoCommit(false);
+            PreparedStatement instruction = conn.prepareStatement(SQL_DELETE_ONE);
+            ArrayList<Person> deleted = new ArrayList<>();
+            boolean committed = inTransaction(conn, report, () -> {
+                int pending = 0;
+                for (Person p : people) {
+                    if (!registered.remove(p.getNif())) {
+                        report.skipped(p.getNif(), "Not registered.");
+                        continue;
+                    }
+                    instruction.setString(1, p.getNif());
+                    instruction.addBatch();
+                    deleted.add(p);
+                    report.done(p.getNif());
+                    if (++pending == BATCH_SIZE) {
+                        instruction.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    instruction.executeBatch();
+                }
+            });
+            instruction.close();
+            //The rows rolled back keep their photos.
+            if (committed) {
+                for (Person p : deleted) {
+                    photoFile(p.getNif()).delete();
+                }
+            }
+        } finally {
+            disconnect(conn);
+        }
+        return report;
+    }
+
+    /**
+     * The photos are written to NIF.png.tmp while the batch is sent and only
+     * take the place of the old ones once the transaction has been
+     * committed; if it is rolled back they are deleted, so the old photos
+     * are kept.
+     */
+    private BatchReport writeAll(Collection<Person> people, String sql, boolean insert) throws SQLException {
+        BatchReport report = new BatchReport();
+        Connection conn = connect();
+        //NIFs written, with their new photo or null.
+        LinkedHashMap<String, File> written = new LinkedHashMap<>();
+        try {
+            HashSet<String> registered = registered(conn, people);
+            conn.setAutoCommit(false);
+            PreparedStatement instruction = conn.prepareStatement(sql);
+            boolean committed = inTransaction(conn, report, () -> {
+                HashSet<String> seen = new HashSet<>();
+                int pending = 0;
+                for (Person p : people) {
+                    if (!seen.add(p.getNif()) && insert) {
+                        report.skipped(p.getNif(), "Repeated in the batch.");
+                        continue;
+                    }
+                    if (registered.contains(p.getNif()) == insert) {
+                        report.skipped(p.getNif(), insert ? "Already registered." : "Not registered.");
+                        continue;
+                    }
+                    File temp = null;
+                    if (p.getPhoto() != null) {
+                        temp = new File(photoFile(p.getNif()).getPath() + ".tmp");
+                        try {
+                            writePhoto(p, temp);
+                        } catch (IOException ex) {
+                            temp.delete();
+                            report.failed(p.getNif(), ex);
+                            continue;
+                        }
+                    }
+                    File previous = written.put(p.getNif(), temp);
+                    if (previous != null && temp == null) {
+                        previous.delete();
+                    }
+                    String photo = temp != null ? photoFile(p.getNif()).getPath() : null;
+                    java.sql.Date date = p.getDateOfBirth() != null
+                            ? new java.sql.Date(p.getDateOfBirth().getTime()) : null;
+                    if (insert) {
+                        instruction.setString(1, p.getNif());
+                        instruction.setString(2, p.getName());
+                        instruction.setDate(3, date);
+                        instruction.setString(4, photo);
+                    } else {
+                        instruction.setString(1, p.getName());
+                        instruction.setDate(2, date);
+                        instruction.setString(3, photo);
+                        instruction.setString(4, p.getNif());
+                    }
+                    instruction.addBatch();
+                    report.done(p.getNif());
+                    if (++pending == BATCH_SIZE) {
+                        instruction.executeBatch();
+                        pending = 0;
+                    }
+                }
+                if (pending > 0) {
+                    instruction.executeBatch();
+                }
+            });
+            instruction.close();
+            if (committed) {
+                publishPhotos(written);
+                written.clear();
+            }
+        } finally {
+            for (File temp : written.values()) {
+                if (temp != null) {
+                    temp.delete();
+                }
+            }
+            disconnect(conn);
+        }
+        return report;
+    }
+
+    //Adds the statements of a batch and sends them.
+    private interface Batch {
+
+        void run() throws SQLException;
+    }
+
+    /**
+     * Runs the batch and commits. If anything fails, the transaction is
+     * rolled back and every person reported as done is reported as failed.
+     * @return true if the transaction was committed
+     */
+    private boolean inTransaction(Connection conn, BatchReport report, Batch batch) throws SQLException {
+        try {
+            batch.run();
+            conn.commit();
+            return true;
+        } catch (SQLException ex) {
+            conn.rollback();
+            report.failFrom(0, ex);
+            return false;
+        }
+    }
+
+    /**
+     * After the commit: the new photos take the place of the old ones and
+     * the people without a photo lose theirs.
+     */
+    private void publishPhotos(LinkedHashMap<String, File> written) {
+        for (Map.Entry<String, File> entry : written.entrySet()) {
+            File photo = photoFile(entry.getKey());
+            try {
+                if (entry.getValue() != null) {
+                    Files.move(entry.getValue().toPath(), photo.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    Files.deleteIfExists(photo.toPath());
+                }
+            } catch (IOException ex) {
+                Logger.getLogger(DAOSQL.class.getName()).log(Level.SEVERE, "Photo of " + entry.getKey() + " not saved.", ex);
+            }
+        }
+    }
+
+    /**
+     * @return the NIFs of the people that are registered, asked in groups of
+     * BATCH_SIZE
+     */
+    private HashSet<String> registered(Connection conn, Collection<Person> people) throws SQLException {
+        HashSet<String> registered = new HashSet<>();
+        ArrayList<String> nifs = new ArrayList<>();
+        for (Person p : people) {
+            nifs.add(p.getNif());
+        }
+        for (int from = 0; from < nifs.size(); from += BATCH_SIZE) {
+            List<String> group = nifs.subList(from, Math.min(nifs.size(), from + BATCH_SIZE));
+            StringBuilder query = new StringBuilder(SQL_SELECT_NIFS);
+            for (int i = 0; i < group.size(); i++) {
+                query.append(i == 0 ? "?" : ", ?");
+            }
+            query.append(");");
+            PreparedStatement instruction = conn.prepareStatement(query.toString());
+            for (int i = 0; i < group.size(); i++) {
+                instruction.setString(i + 1, group.get(i));
+            }
+            ResultSet rs = instruction.executeQuery();
+            while (rs.next()) {
+                registered.add(rs.getString("nif"));
+            }
+            rs.close();
+            instruction.close();
+        }
+        return registered;
+    }
+
+    //Reads the current row of a result set.
+    private interface Row<T> {
+
+        T read(ResultSet rs) throws SQLException;
+    }
+
+    private PersonSummary summary(ResultSet rs) throws SQLException {
+        return new PersonSummary(rs.getString("nif"), rs.getString("name"), rs.getDate("dateOfBirth"),
+                null, null, null, rs.getBoolean("hasPhoto"));
+    }
+
+    private Person person(ResultSet rs) throws SQLException {
+        String photo = rs.getString("photo");
+        Person p = new Person(rs.getString("name"), rs.getString("nif"), rs.getDate("dateOfBirth"),
+                photo != null ? new ImageIcon(photo) : null);
+        p.setVersion(rs.getLong("version"));
+        return p;
+    }
+
+    /**
+     * Saves the photo as NIF.png in the "Photos" folder, or deletes the old
+     * one if the person has no photo.
+     * @return path of the photo or null
+     */
+    private String savePhoto(Person p) throws IOException {
+        File photo = photoFile(p.getNif());
+        if (p.getPhoto() == null) {
+            photo.delete();
+            return null;
+        }
+        writePhoto(p, photo);
+        return photo.getPath();
+    }
+
+    private File photoFile(String nif) {
+        return new File(Routes.DB.getFolderPhotos() + File.separator + nif + ".png");
+    }
+
+    private void writePhoto(Person p, File photo) throws IOException {
+        FileOutputStream out;
+        BufferedOutputStream outB;
+        out = new FileOutputStream(photo);
+        outB = new BufferedOutputStream(out);
+        BufferedImage bi = new BufferedImage(p.getPhoto().getImage().getWidth(null),
+                p.getPhoto().getImage().getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        bi.getGraphics().drawImage(p.getPhoto().getImage(), 0, 0, null);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(bi, "png", baos);
+        byte[] img = baos.toByteArray();
+        for (int i = 0; i < img.length; i++) {
+            outB.write(img[i]);
+        }
+        outB.close();
+    }
+
+    /**
+     * Reads the rows with a forward-only, read-only result set. With a fetch
+     * size of Integer.MIN_VALUE, MySQL Connector/J sends them one by one
+     * instead of loading the whole table in memory.
+     */
+    @Override
+    public Stream<Person> stream() throws SQLException {
+        return select(SQL_SELECT_ALL, this::person);
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws SQLException {
+        return select(SQL_SELECT_SUMMARIES, this::summary);
+    }
+
+    private <T> Stream<T> select(String sql, Row<T> row) throws SQLException {
+        Connection conn = connect();
+        try {
+            PreparedStatement instruction = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            instruction.setFetchSize(Integer.MIN_VALUE);
+            ResultSet rs = instruction.executeQuery();
+            return new PersonCursor<T>() {
+                @Override
+                protected T fetch() throws SQLException {
+                    return rs.next() ? row.read(rs) : null;
+                }
+
+                @Override
+                protected void release() throws SQLException {
+                    rs.close();
+                    instruction.close();
+                    disconnect(conn);
+                }
+            }.stream();
+        } catch (SQLException ex) {
+            disconnect(conn);
+            throw ex;
+        }
+    }
+
+    /**
+     * Translates the query to a WHERE, ORDER BY and LIMIT with bound
+     * parameters, so the server filters with its indexes. The table only has
+     * the NIF, name and date of birth, so a query on any other field is
+     * filtered here instead.
+     */
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        ArrayList<Object> params = new ArrayList<>();
+        String where = query.getCondition() != null ? where(query.getCondition(), params) : "";
+        if (where == null || (query.getOrderBy() != null && column(query.getOrderBy()) == null)) {
+            return IDAO.super.query(query);
+        }
+        StringBuilder sql = new StringBuilder(SQL_SELECT_WHERE);
+        if (!where.isEmpty()) {
+            sql.append(" WHERE ").append(where);
+        }
+        if (query.getOrderBy() != null) {
+            //People without value go last, as in Query.
+            String column = column(query.getOrderBy());
+            sql.append(" ORDER BY ").append(column).append(" IS NULL, ").append(column)
+                    .append(query.isDescending() ? " DESC" : " ASC");
+        }
+        if (query.getLimit() > 0) {
+            sql.append(" LIMIT ?");
+            params.add(query.getLimit());
+        }
+        ArrayList<Person> people = new ArrayList<>();
+        Connection conn;
+        PreparedStatement instruction;
+        ResultSet rs;
+        conn = connect();
+        instruction = conn.prepareStatement(sql.append(";").toString());
+        for (int i = 0; i < params.size(); i++) {
+            Object param = params.get(i);
+            if (param instanceof Date) {
+                instruction.setDate(i + 1, new java.sql.Date(((Date) param).getTime()));
+            } else {
+                instruction.setObject(i + 1, param);
+            }
+        }
+        rs = instruction.executeQuery();
+        while (rs.next()) {
+            people.add(person(rs));
+        }
+        rs.close();
+        instruction.close();
+        disconnect(conn);
+        return people;
+    }
+
+    /**
+     * @return the condition in SQL, with a ? for every value added to params,
+     * or null if it uses a field that is not a column
+     */
+    private String where(Query.Condition condition, ArrayList<Object> params) {
+        switch (condition.getKind()) {
+            case AND:
+            case OR:
+                if (condition.getChildren().isEmpty()) {
+                    return condition.getKind() == Query.Condition.Kind.AND ? "TRUE" : "FALSE";
+                }
+                StringBuilder sql = new StringBuilder("(");
+                for (Query.Condition child : condition.getChildren()) {
+                    String where = where(child, params);
+                    if (where == null) {
+                        return null;
+                    }
+                    sql.append(sql.length() > 1 ? " " + condition.getKind() + " " : "").append(where);
+                }
+                return sql.append(")").toString();
+            default:
+                String column = column(condition.getField());
+                if (column == null) {
+                    return null;
+                }
+                if (condition.getKind() == Query.Condition.Kind.EQUALS) {
+                    params.add(condition.getValue());
+                    return column + " = ?";
+                }
+                if (condition.getKind() == Query.Condition.Kind.PREFIX) {
+                    params.add(Query.likePrefix((String) condition.getValue()));
+                    return column + " LIKE ? ESCAPE '!'";
+                }
+                ArrayList<String> bounds = new ArrayList<>();
+                if (condition.getValue() != null) {
+                    params.add(condition.getValue());
+                    bounds.add(column + " >= ?");
+                }
+                if (condition.getTo() != null) {
+                    params.add(condition.getTo());
+                    bounds.add(column + " < ?");
+                }
+                return bounds.isEmpty() ? column + " IS NOT NULL" : "(" + String.join(" AND ", bounds) + ")";
+        }
+    }
+
+    private static String column(Query.Field field) {
+        switch (field) {
+            case NIF:
+                return "nif";
+            case NAME:
+                return "name";
+            case DATE_OF_BIRTH:
+                return "dateOfBirth";
+            default:
+                return null;
+        }
+    }
 }
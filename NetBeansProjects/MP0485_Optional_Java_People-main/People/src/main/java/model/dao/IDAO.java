@@ -1,12 +1,24 @@
 package model.dao;
 
 import model.entity.Person;
+import model.entity.PersonSummary;
+import model.entity.VersionConflictException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This interface defines the operations that will have to be performed on the 
  * data storage system chosen by the user. Depending on the system, the 
  * implementation varies.
+ * Every person has an update version. A person inserted keeps the version it
+ * has (0 when it is new) and every write of a registered person (update,
+ * upsert, the batches) stores the one after the registered one, whatever
+ * the version of the person given, so an old version is never stored again
+ * and update(p, expectedVersion) can trust it.
  * @author Francesc Perez 
  * @version 1.1.0
  */
@@ -44,11 +56,37 @@ public interface IDAO {
      * This function receives the person with the updated data and enters it 
      * into the storage system, if it does not exist generates a 
      * PersonException object that has to be manage by the controller.
+     * It is stored with the version after the registered one.
      * @param p Person
      * @throws java.lang.Exception
      */
     public abstract void update (Person p) throws Exception;   
     
+    /**
+     * This function updates the person only if it still has the version it
+     * had when it was read, so an update made by someone else in between is
+     * not overwritten, and stores it with the next version, which is also
+     * set in p. The other updates do not check the version. This version
+     * reads the person and then updates it, so another change can happen in
+     * between; the storage systems used by several threads override it to
+     * check and write at once. If the write fails, p keeps its version.
+     * @param p Person with the updated data
+     * @param expectedVersion version of the person when it was read
+     * @throws java.lang.Exception a PersonException if it is not registered
+     * or a VersionConflictException if it has another version
+     */
+    public default void update (Person p, long expectedVersion) throws Exception {
+        VersionConflictException.check(read(p), p.getNif(), expectedVersion);
+        long previous = p.getVersion();
+        try {
+            update(p);
+        } catch (Exception ex) {
+            p.setVersion(previous);
+            throw ex;
+        }
+        p.setVersion(expectedVersion + 1);
+    }
+
     /**
      * This function receives the person (NIF) and deletes it from the storage 
      * system, if it does not exist generates a PersonException object that has 
@@ -63,4 +101,206 @@ public interface IDAO {
      * @throws java.lang.Exception
      */
     public abstract void deleteAll () throws Exception;
+
+    /**
+     * This function returns the number of registered people, without reading
+     * them.
+     * @return number of people
+     * @throws java.lang.Exception
+     */
+    public abstract int count () throws Exception;
+
+    /**
+     * This function tells whether a person with the NIF is registered, in the
+     * cheapest way the storage system has, without reading the person.
+     * @param nif NIF
+     * @return true if it is registered
+     * @throws java.lang.Exception
+     */
+    public abstract boolean exists (String nif) throws Exception;
+
+    /**
+     * This function inserts the person if it is not registered and updates it
+     * otherwise. This version checks it and then inserts or updates, so
+     * another change can happen in between; the storage systems that can do
+     * it in a single operation override it.
+     * @param p Person
+     * @throws java.lang.Exception
+     */
+    public default void upsert (Person p) throws Exception {
+        if (exists(p.getNif())) {
+            update(p);
+        } else {
+            insert(p);
+        }
+    }
+
+    /**
+     * This function inserts the people that are not registered yet and
+     * reports, for every one, if it was inserted, skipped because it was
+     * already registered or failed. This version inserts them one by one; the
+     * storage systems that can insert many at once override it.
+     * @param people people to insert
+     * @return BatchReport
+     * @throws java.lang.Exception
+     */
+    public default BatchReport insertAll (Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        for (Person p : people) {
+            try {
+                if (exists(p.getNif())) {
+                    report.skipped(p.getNif(), "Already registered.");
+                } else {
+                    insert(p);
+                    report.done(p.getNif());
+                }
+            } catch (Exception ex) {
+                report.failed(p.getNif(), ex);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * This function updates the people that are registered and reports, for
+     * every one, if it was updated, skipped because it was not registered or
+     * failed. This version updates them one by one; the storage systems that
+     * can update many at once override it.
+     * @param people people with the updated data
+     * @return BatchReport
+     * @throws java.lang.Exception
+     */
+    public default BatchReport updateAll (Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        for (Person p : people) {
+            try {
+                if (exists(p.getNif())) {
+                    update(p);
+                    report.done(p.getNif());
+                } else {
+                    report.skipped(p.getNif(), "Not registered.");
+                }
+            } catch (Exception ex) {
+                report.failed(p.getNif(), ex);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * This function deletes the people (NIF) that are registered and reports,
+     * for every one, if it was deleted, skipped because it was not registered
+     * or failed. This version deletes them one by one; the storage systems
+     * that can delete many at once override it.
+     * @param people people to delete
+     * @return BatchReport
+     * @throws java.lang.Exception
+     */
+    public default BatchReport deleteAll (Collection<Person> people) throws Exception {
+        BatchReport report = new BatchReport();
+        for (Person p : people) {
+            try {
+                if (exists(p.getNif())) {
+                    delete(p);
+                    report.done(p.getNif());
+                } else {
+                    report.skipped(p.getNif(), "Not registered.");
+                }
+            } catch (Exception ex) {
+                report.failed(p.getNif(), ex);
+            }
+        }
+        return report;
+    }
+
+    /**
+     * This function returns the people registered one by one, as they are
+     * read, so they do not have to be in memory all at once. The stream keeps
+     * the storage device open (connection, files) until it is closed, so it
+     * must be used in a try-with-resources block. Errors while reading are
+     * thrown as an UncheckedIOException. This version streams readAll(); the
+     * storage systems that can read incrementally override it.
+     * @return Stream of Person
+     * @throws java.lang.Exception
+     */
+    public default Stream<Person> stream () throws Exception {
+        return readAll().stream();
+    }
+
+    /**
+     * This function returns a page of people in NIF order: the first size
+     * people whose NIF is greater than after. The next page starts after the
+     * NIF of the last person of this one, so every page costs the same
+     * whatever its depth. This version streams all the people keeping only
+     * the page; the storage systems with an index sorted by NIF override it.
+     * @param after NIF of the last person of the previous page or null for
+     * the first page
+     * @param size maximum number of people
+     * @return ArrayList of Person, empty after the last page
+     * @throws java.lang.Exception
+     */
+    public default ArrayList<Person> readPage (String after, int size) throws Exception {
+        //The greatest NIF of the page is at the head, to be replaced first.
+        PriorityQueue<Person> page = new PriorityQueue<>(Comparator.comparing(Person::getNif).reversed());
+        try (Stream<Person> people = stream()) {
+            people.forEach(p -> {
+                if (size > 0 && (after == null || p.getNif().compareTo(after) > 0)) {
+                    page.add(p);
+                    if (page.size() > size) {
+                        page.poll();
+                    }
+                }
+            });
+        }
+        ArrayList<Person> people = new ArrayList<>(page);
+        people.sort(Comparator.comparing(Person::getNif));
+        return people;
+    }
+
+    /**
+     * This function works like stream() but returns the summaries of the
+     * people, which say if there is a photo without reading it. This version
+     * reads the whole people; the storage systems that can skip the photo
+     * override it.
+     * @return Stream of PersonSummary
+     * @throws java.lang.Exception
+     */
+    public default Stream<PersonSummary> streamSummaries () throws Exception {
+        return stream().map(PersonSummary::of);
+    }
+
+    /**
+     * This function works like readPage() but returns the summaries of the
+     * people, which say if there is a photo without reading it. This version
+     * reads the whole people; the storage systems that can skip the photo
+     * override it.
+     * @param after NIF of the last person of the previous page or null for
+     * the first page
+     * @param size maximum number of people
+     * @return ArrayList of PersonSummary
+     * @throws java.lang.Exception
+     */
+    public default ArrayList<PersonSummary> readSummaryPage (String after, int size) throws Exception {
+        return readPage(after, size).stream().map(PersonSummary::of).collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * This function returns the people that meet the query, in its order and
+     * up to its limit. This version reads only the person of the NIF if the
+     * query asks for one NIF, and otherwise filters stream(); the storage
+     * systems with a query language or a NIF index override it.
+     * @param query Query
+     * @return ArrayList of Person
+     * @throws java.lang.Exception
+     */
+    public default ArrayList<Person> query (Query query) throws Exception {
+        String[] bounds = query.nifBounds();
+        if (bounds[0] != null && bounds[0].equals(bounds[1])) {
+            Person p = read(new Person(bounds[0]));
+            return query.apply(p != null ? Stream.of(p) : Stream.empty(), true);
+        }
+        try (Stream<Person> people = stream()) {
+            return query.apply(people, false);
+        }
+    }
 }
@@ -0,0 +1,477 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * IDAO that keeps two storage systems with the same people, e.g. the file
+ * and the MySQL database while the data is moved from one to the other.
+ * Every write of a person is made in the primary by the calling thread and,
+ * at the same time, in the secondary by a background thread, so a write
+ * takes about as long as the slower of the two instead of their sum. All
+ * the reads go to the primary.
+ * The writes of a NIF are made one at a time (the NIFs share 64 locks) and
+ * the secondary makes its writes in the order they were queued, so both end
+ * with the same last change of every NIF. If the write of the primary
+ * fails, the secondary is given back the person it had before; for that, the
+ * secondary reads the person before writing it. deleteAll and the batches
+ * are made alone, first in the primary and then, with the people the
+ * primary wrote, in the secondary.
+ * With Ack.BOTH a write returns when both have been made and fails if
+ * either fails; with Ack.PRIMARY_ONLY it returns when the primary has been
+ * made and the errors of the secondary are only logged and counted.
+ * With read repair, every person read is compared in the background with
+ * the one in the secondary, which is fixed if they differ (e.g. the people
+ * saved before the mirror was started).
+ * update(p, expectedVersion) checks the version in the primary only and
+ * saves the person in the secondary.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class MirroredDAO implements IDAO {
+
+    /**
+     * When a write returns.
+     */
+    public enum Ack {
+        PRIMARY_ONLY, BOTH
+    }
+
+    private static final int STRIPES = 64;
+
+    //A write of one person, made in both storage systems.
+    private interface Write {
+
+        void run(IDAO dao, Person p) throws Exception;
+    }
+
+    //A write of many people, made in both storage systems.
+    private interface Batch {
+
+        BatchReport run(IDAO dao, Collection<Person> people) throws Exception;
+    }
+
+    //A write queued for the secondary.
+    private interface Task {
+
+        void run() throws Exception;
+    }
+
+    private final IDAO primary;
+    private final IDAO secondary;
+    private final Ack ack;
+    private final boolean readRepair;
+    private final ExecutorService mirror;
+    //The writes of one NIF are made one at a time (the NIFs share 64 locks).
+    private final Object[] stripes = new Object[STRIPES];
+    //Point writes share it; deleteAll and the batches take it alone.
+    private final ReentrantReadWriteLock batches = new ReentrantReadWriteLock();
+    //Writes started and writes running, so a read repair does not undo a
+    //write made while the person was being read.
+    private final AtomicLong writes = new AtomicLong();
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicLong secondaryFailures = new AtomicLong();
+    private final AtomicLong repairs = new AtomicLong();
+
+    /**
+     * @param primary storage system that is read
+     * @param secondary storage system that only gets the writes
+     * @param ack when a write returns
+     * @param readRepair true to fix the secondary with the people read
+     */
+    public MirroredDAO(IDAO primary, IDAO secondary, Ack ack, boolean readRepair) {
+        this.primary = primary;
+        this.secondary = secondary;
+        this.ack = ack;
+        this.readRepair = readRepair;
+        mirror = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "People mirror write");
+            t.setDaemon(true);
+            return t;
+        });
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public IDAO getPrimary() {
+        return primary;
+    }
+
+    public IDAO getSecondary() {
+        return secondary;
+    }
+
+    public Ack getAck() {
+        return ack;
+    }
+
+    /**
+     * @return writes of the secondary that failed with Ack.PRIMARY_ONLY
+     */
+    public long getSecondaryFailures() {
+        return secondaryFailures.get();
+    }
+
+    /**
+     * @return people of the secondary fixed by read repair
+     */
+    public long getRepairs() {
+        return repairs.get();
+    }
+
+    @Override
+    public Person read(Person p) throws Exception {
+        long seen = writes.get();
+        boolean quiet = running.get() == 0;
+        Person read = primary.read(p);
+        if (readRepair && quiet) {
+            repair(p.getNif(), read, seen);
+        }
+        return read;
+    }
+
+    @Override
+    public ArrayList<Person> readAll() throws Exception {
+        return primary.readAll();
+    }
+
+    @Override
+    public int count() throws Exception {
+        return primary.count();
+    }
+
+    @Override
+    public boolean exists(String nif) throws Exception {
+        return primary.exists(nif);
+    }
+
+    @Override
+    public Stream<Person> stream() throws Exception {
+        return primary.stream();
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws Exception {
+        return primary.streamSummaries();
+    }
+
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws Exception {
+        return primary.readPage(after, size);
+    }
+
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws Exception {
+        return primary.readSummaryPage(after, size);
+    }
+
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        return primary.query(query);
+    }
+
+    @Override
+    public void insert(Person p) throws Exception {
+        mirror(p, (dao, q) -> dao.insert(q));
+    }
+
+    @Override
+    public void update(Person p) throws Exception {
+        mirror(p, (dao, q) -> dao.update(q));
+    }
+
+    /**
+     * The version is checked in the primary; the secondary saves the person
+     * with its own version, and the save is undone if the check fails.
+     */
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        mirror(p, (dao, q) -> {
+            if (dao == primary) {
+                dao.update(q, expectedVersion);
+            } else {
+                dao.upsert(q);
+            }
+        });
+    }
+
+    @Override
+    public void upsert(Person p) throws Exception {
+        mirror(p, (dao, q) -> dao.upsert(q));
+    }
+
+    @Override
+    public void delete(Person p) throws Exception {
+        mirror(p, (dao, q) -> dao.delete(q));
+    }
+
+    /**
+     * Made in the primary alone and then in the secondary, as the batches.
+     */
+    @Override
+    public void deleteAll() throws Exception {
+        writes.incrementAndGet();
+        running.incrementAndGet();
+        try {
+            CompletableFuture<Person> written;
+            batches.writeLock().lock();
+            try {
+                primary.deleteAll();
+                written = write(null, secondary::deleteAll);
+            } finally {
+                batches.writeLock().unlock();
+            }
+            if (ack == Ack.BOTH) {
+                await(written);
+            }
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * The report is the one of the primary; the secondary gets the people
+     * the primary inserted.
+     */
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        return mirrorAfter(people, IDAO::insertAll);
+    }
+
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        return mirrorAfter(people, IDAO::updateAll);
+    }
+
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        return mirrorAfter(people, IDAO::deleteAll);
+    }
+
+    /**
+     * Waits for the writes of the secondary queued so far.
+     */
+    public void drain() throws Exception {
+        await(CompletableFuture.runAsync(() -> {
+        }, mirror));
+    }
+
+    /**
+     * Writes the secondary writes queued and stops the background thread.
+     * The storage systems are not closed.
+     */
+    public void close() throws InterruptedException {
+        mirror.shutdown();
+        mirror.awaitTermination(1, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Queues the write of the secondary and makes the one of the primary at
+     * the same time, under the lock of the NIF, so the writes of a NIF reach
+     * both in the same order. If the primary fails, the secondary is given
+     * back the person it had and the error of the primary is thrown; with
+     * Ack.BOTH, once the secondary is back.
+     */
+    private void mirror(Person p, Write write) throws Exception {
+        writes.incrementAndGet();
+        running.incrementAndGet();
+        batches.readLock().lock();
+        try {
+            CompletableFuture<Person> written;
+            synchronized (stripes[Math.floorMod(p.getNif().hashCode(), STRIPES)]) {
+                //The secondary saves a copy, so the caller can change p meanwhile.
+                Person copy = new Person(p);
+                written = write(copy.getNif(), () -> write.run(secondary, copy));
+                try {
+                    write.run(primary, p);
+                } catch (Exception ex) {
+                    CompletableFuture<Void> undone = undo(copy.getNif(), written);
+                    if (ack == Ack.BOTH) {
+                        undone.handle((done, error) -> null).join();
+                    }
+                    throw ex;
+                }
+            }
+            if (ack == Ack.BOTH) {
+                await(written);
+            }
+        } finally {
+            batches.readLock().unlock();
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * Makes the batch in the primary alone and then queues it for the
+     * secondary with the people the primary wrote: giving the secondary back
+     * the people the primary skipped would need all of them read from it
+     * first.
+     */
+    private BatchReport mirrorAfter(Collection<Person> people, Batch batch) throws Exception {
+        writes.incrementAndGet();
+        running.incrementAndGet();
+        try {
+            BatchReport report;
+            CompletableFuture<Person> written;
+            batches.writeLock().lock();
+            try {
+                report = batch.run(primary, people);
+                HashSet<String> done = new HashSet<>();
+                for (BatchReport.Result result : report.getResults()) {
+                    if (result.getStatus() == BatchReport.Status.DONE) {
+                        done.add(result.getNif());
+                    }
+                }
+                ArrayList<Person> made = new ArrayList<>();
+                for (Person p : people) {
+                    if (done.remove(p.getNif())) {
+                        made.add(new Person(p));
+                    }
+                }
+                written = write(null, () -> {
+                    if (!made.isEmpty()) {
+                        batch.run(secondary, made);
+                    }
+                });
+            } finally {
+                batches.writeLock().unlock();
+            }
+            if (ack == Ack.BOTH) {
+                await(written);
+            }
+            return report;
+        } finally {
+            running.decrementAndGet();
+        }
+    }
+
+    /**
+     * Queues the write of the secondary.
+     * @param nif NIF written, whose person is read first to be able to undo
+     * the write, or null
+     * @return the person the secondary had before the write
+     */
+    private CompletableFuture<Person> write(String nif, Task write) {
+        CompletableFuture<Person> written = new CompletableFuture<>();
+        mirror.execute(() -> {
+            try {
+                Person previous = nif != null ? secondary.read(new Person(nif)) : null;
+                write.run();
+                written.complete(previous);
+            } catch (Exception ex) {
+                if (ack == Ack.PRIMARY_ONLY) {
+                    secondaryFailures.incrementAndGet();
+                    Logger.getLogger(MirroredDAO.class.getName()).log(Level.SEVERE, null, ex);
+                }
+                written.completeExceptionally(ex);
+            }
+        });
+        return written;
+    }
+
+    /**
+     * Queued after the write, so it runs when the write has been made: saves
+     * again the person the secondary had, or deletes it if it had none.
+     */
+    private CompletableFuture<Void> undo(String nif, CompletableFuture<Person> written) {
+        CompletableFuture<Void> undone = new CompletableFuture<>();
+        mirror.execute(() -> {
+            try {
+                if (!written.isCompletedExceptionally()) {
+                    Person previous = written.join();
+                    if (previous != null) {
+                        secondary.upsert(previous);
+                    } else if (secondary.exists(nif)) {
+                        secondary.delete(new Person(nif));
+                    }
+                }
+                undone.complete(null);
+            } catch (Exception ex) {
+                secondaryFailures.incrementAndGet();
+                Logger.getLogger(MirroredDAO.class.getName()).log(Level.SEVERE, "Write of the secondary not undone.", ex);
+                undone.completeExceptionally(ex);
+            }
+        });
+        return undone;
+    }
+
+    /**
+     * Queued after the writes of the secondary already called, so it
+     * compares with what the secondary will have. It is dropped if a write
+     * has started since the person was read.
+     */
+    private void repair(String nif, Person read, long seen) {
+        mirror.execute(() -> {
+            try {
+                if (writes.get() != seen) {
+                    return;
+                }
+                Person mirrored = secondary.read(new Person(nif));
+                if (same(read, mirrored)) {
+                    return;
+                }
+                if (read == null) {
+                    secondary.delete(mirrored);
+                } else {
+                    secondary.upsert(read);
+                }
+                repairs.incrementAndGet();
+            } catch (Exception ex) {
+                Logger.getLogger(MirroredDAO.class.getName()).log(Level.SEVERE, null, ex);
+            }
+        });
+    }
+
+    private static void await(CompletableFuture<?> written) throws Exception {
+        try {
+            written.join();
+        } catch (CompletionException ex) {
+            throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+        }
+    }
+
+    /**
+     * The data of the person, without the version, which every storage
+     * system counts on its own. The dates are compared by day, which is what
+     * all of them keep.
+     */
+    static boolean same(Person a, Person b) throws Exception {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return Objects.equals(a.getNif(), b.getNif()) && Objects.equals(a.getName(), b.getName())
+                && Objects.equals(day(a.getDateOfBirth()), day(b.getDateOfBirth()))
+                && Objects.equals(a.getEmail(), b.getEmail())
+                && Objects.equals(a.getPhoneNumber(), b.getPhoneNumber())
+                && Objects.equals(a.getPostalCode(), b.getPostalCode())
+                && (a.getPhoto() == null) == (b.getPhoto() == null)
+                && (a.getPhoto() == null || Arrays.equals(PersonCodec.toPng(a.getPhoto()), PersonCodec.toPng(b.getPhoto())));
+    }
+
+    private static Object day(Date date) {
+        return date != null ? Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate() : null;
+    }
+
+}
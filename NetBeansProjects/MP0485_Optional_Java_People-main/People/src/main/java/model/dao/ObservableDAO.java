@@ -0,0 +1,244 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * IDAO that publishes every write made through it to a ChangeFeed, so
+ * caches, indexes or open views can subscribe and follow the changes
+ * instead of reading all the people again. An event is published when the
+ * write has been made; a write that fails publishes nothing.
+ * The events of a NIF are published in the order its writes were made: the
+ * writes of one NIF are made one at a time (the NIFs share 64 locks) and
+ * deleteAll and the batches are made alone. upsert reads whether the NIF
+ * exists first, to publish an INSERT or an UPDATE, and update and delete
+ * read it to publish nothing when it is not registered. A batch publishes
+ * an event for every person DONE in its report.
+ * An event carries a copy of the person saved, so a later change of the
+ * object passed to the write does not change what the listeners get.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class ObservableDAO implements IDAO {
+
+    private static final int STRIPES = 64;
+
+    private final IDAO dao;
+    private final ChangeFeed feed;
+    private final Object[] stripes = new Object[STRIPES];
+    //Point writes share it; deleteAll and the batches take it alone.
+    private final ReentrantReadWriteLock writes = new ReentrantReadWriteLock();
+
+    //A write of one NIF.
+    private interface Write {
+
+        void run() throws Exception;
+    }
+
+    /**
+     * @param dao storage system, with a feed of 1024 events
+     */
+    public ObservableDAO(IDAO dao) {
+        this(dao, new ChangeFeed());
+    }
+
+    /**
+     * @param dao storage system
+     * @param feed feed the writes are published to
+     */
+    public ObservableDAO(IDAO dao, ChangeFeed feed) {
+        this.dao = dao;
+        this.feed = feed;
+        for (int i = 0; i < STRIPES; i++) {
+            stripes[i] = new Object();
+        }
+    }
+
+    public IDAO getDAO() {
+        return dao;
+    }
+
+    public ChangeFeed getFeed() {
+        return feed;
+    }
+
+    /**
+     * @param listener receives the writes made from now on
+     * @return the subscription, to close it
+     */
+    public ChangeFeed.Subscription subscribe(ChangeListener listener) {
+        return feed.subscribe(listener);
+    }
+
+    @Override
+    public Person read(Person p) throws Exception {
+        return dao.read(p);
+    }
+
+    @Override
+    public ArrayList<Person> readAll() throws Exception {
+        return dao.readAll();
+    }
+
+    @Override
+    public int count() throws Exception {
+        return dao.count();
+    }
+
+    @Override
+    public boolean exists(String nif) throws Exception {
+        return dao.exists(nif);
+    }
+
+    @Override
+    public Stream<Person> stream() throws Exception {
+        return dao.stream();
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws Exception {
+        return dao.streamSummaries();
+    }
+
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws Exception {
+        return dao.readPage(after, size);
+    }
+
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws Exception {
+        return dao.readSummaryPage(after, size);
+    }
+
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        return dao.query(query);
+    }
+
+    @Override
+    public void insert(Person p) throws Exception {
+        write(p.getNif(), () -> {
+            dao.insert(p);
+            feed.publish(ChangeEvent.Type.INSERT, p.getNif(), new Person(p));
+        });
+    }
+
+    @Override
+    public void update(Person p) throws Exception {
+        write(p.getNif(), () -> {
+            if (dao.exists(p.getNif())) {
+                dao.update(p);
+                feed.publish(ChangeEvent.Type.UPDATE, p.getNif(), new Person(p));
+            }
+        });
+    }
+
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        write(p.getNif(), () -> {
+            //Fails when it is not registered.
+            dao.update(p, expectedVersion);
+            feed.publish(ChangeEvent.Type.UPDATE, p.getNif(), new Person(p));
+        });
+    }
+
+    @Override
+    public void upsert(Person p) throws Exception {
+        write(p.getNif(), () -> {
+            boolean existed = dao.exists(p.getNif());
+            dao.upsert(p);
+            feed.publish(existed ? ChangeEvent.Type.UPDATE : ChangeEvent.Type.INSERT, p.getNif(), new Person(p));
+        });
+    }
+
+    @Override
+    public void delete(Person p) throws Exception {
+        write(p.getNif(), () -> {
+            if (dao.exists(p.getNif())) {
+                dao.delete(p);
+                feed.publish(ChangeEvent.Type.DELETE, p.getNif(), null);
+            }
+        });
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+        writes.writeLock().lock();
+        try {
+            dao.deleteAll();
+            feed.publish(ChangeEvent.Type.DELETE_ALL, null, null);
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        writes.writeLock().lock();
+        try {
+            return publish(dao.insertAll(people), people, ChangeEvent.Type.INSERT);
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        writes.writeLock().lock();
+        try {
+            return publish(dao.updateAll(people), people, ChangeEvent.Type.UPDATE);
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        writes.writeLock().lock();
+        try {
+            return publish(dao.deleteAll(people), people, ChangeEvent.Type.DELETE);
+        } finally {
+            writes.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the subscriptions of the feed. The storage system is not
+     * closed.
+     */
+    public void close() {
+        feed.close();
+    }
+
+    private void write(String nif, Write write) throws Exception {
+        writes.readLock().lock();
+        try {
+            synchronized (stripes[Math.floorMod(nif.hashCode(), STRIPES)]) {
+                write.run();
+            }
+        } finally {
+            writes.readLock().unlock();
+        }
+    }
+
+    private BatchReport publish(BatchReport report, Collection<Person> people, ChangeEvent.Type type) {
+        HashMap<String, Person> byNif = new HashMap<>();
+        for (Person p : people) {
+            byNif.put(p.getNif(), p);
+        }
+        for (BatchReport.Result result : report.getResults()) {
+            if (result.getStatus() == BatchReport.Status.DONE) {
+                feed.publish(type, result.getNif(), type != ChangeEvent.Type.DELETE ? new Person(byNif.get(result.getNif())) : null);
+            }
+        }
+        return report;
+    }
+
+}
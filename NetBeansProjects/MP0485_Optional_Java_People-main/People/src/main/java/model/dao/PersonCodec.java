@@ -0,0 +1,278 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import javax.imageio.ImageIO;
+import javax.swing.ImageIcon;
+
+/**
+ * Compact binary encoding of a Person for the storage systems that save
+ * bytes, used instead of the default Java serialization, which writes the
+ * class descriptors and the whole ImageIcon object graph with every person.
+ * Layout: a header byte with the version, a byte of flags saying which fields
+ * are present, the NIF and then only the present fields, the first of them
+ * the update version when it is not 0. Strings are a
+ * varint length followed by UTF-8 bytes, the date of birth is a varint with
+ * the epoch day and the photo is either its PNG bytes or a reference (the
+ * path of the file where the storage keeps it).
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class PersonCodec {
+
+    //The high bits tell a codec record from a serialized object (0xAC).
+    private static final int HEADER = 0xC0;
+    private static final int VERSION = 1;
+    private static final int NAME = 1;
+    private static final int DATE = 1 << 1;
+    private static final int EMAIL = 1 << 2;
+    private static final int PHONE = 1 << 3;
+    private static final int POSTAL_CODE = 1 << 4;
+    private static final int PHOTO_PNG = 1 << 5;
+    private static final int PHOTO_REFERENCE = 1 << 6;
+    private static final int VERSIONED = 1 << 7;
+
+    private PersonCodec() {
+    }
+
+    /**
+     * Encodes the person with the photo, if any, as PNG bytes.
+     * @param p Person
+     * @return bytes
+     * @throws IOException
+     */
+    public static byte[] encode(Person p) throws IOException {
+        return encode(p, p.getPhoto() != null ? toPng(p.getPhoto()) : null, null);
+    }
+
+    /**
+     * Encodes the person with a reference to the photo instead of the photo.
+     * @param p Person
+     * @param photoReference path of the photo or null if there is no photo
+     * @return bytes
+     * @throws IOException
+     */
+    public static byte[] encode(Person p, String photoReference) throws IOException {
+        return encode(p, null, photoReference);
+    }
+
+    public static Person decode(byte[] bytes) throws IOException {
+        return decode(bytes, true);
+    }
+
+    /**
+     * @param bytes encoded person
+     * @param withPhoto false to skip the photo, which is the costly part to
+     * decode
+     * @return Person
+     * @throws IOException if the bytes are not an encoded person
+     */
+    public static Person decode(byte[] bytes, boolean withPhoto) throws IOException {
+        if (!isEncoded(bytes)) {
+            throw new IOException("Not an encoded person.");
+        }
+        if ((bytes[0] & 0x0F) != VERSION) {
+            throw new IOException("Unknown person encoding version " + (bytes[0] & 0x0F) + ".");
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+            int flags = in.get();
+            Person p = new Person(readString(in));
+            if ((flags & VERSIONED) != 0) {
+                p.setVersion(readVarLong(in));
+            }
+            if ((flags & NAME) != 0) {
+                p.setName(readString(in));
+            }
+            if ((flags & DATE) != 0) {
+                long epochDay = zigZagDecode(readVarLong(in));
+                p.setDateOfBirth(Date.from(LocalDate.ofEpochDay(epochDay)
+                        .atStartOfDay(ZoneId.systemDefault()).toInstant()));
+            }
+            if ((flags & EMAIL) != 0) {
+                p.setEmail(readString(in));
+            }
+            if ((flags & PHONE) != 0) {
+                p.setPhoneNumber(readString(in));
+            }
+            if ((flags & POSTAL_CODE) != 0) {
+                p.setPostalCode(readString(in));
+            }
+            if ((flags & PHOTO_PNG) != 0 && withPhoto) {
+                byte[] png = new byte[(int) readVarLong(in)];
+                in.get(png);
+                BufferedImage image = ImageIO.read(new ByteArrayInputStream(png));
+                if (image != null) {
+                    p.setPhoto(new ImageIcon(image));
+                }
+            } else if ((flags & PHOTO_REFERENCE) != 0 && withPhoto) {
+                p.setPhoto(new ImageIcon(readString(in)));
+            }
+            return p;
+        } catch (BufferUnderflowException ex) {
+            throw new IOException("Encoded person is truncated.", ex);
+        }
+    }
+
+    /**
+     * @param bytes encoded person
+     * @return the person without decoding the photo
+     * @throws IOException if the bytes are not an encoded person
+     */
+    public static PersonSummary summary(byte[] bytes) throws IOException {
+        Person p = decode(bytes, false);
+        return new PersonSummary(p.getNif(), p.getName(), p.getDateOfBirth(), p.getEmail(), p.getPostalCode(),
+                p.getPhoneNumber(), hasPhoto(bytes));
+    }
+
+    /**
+     * @param bytes encoded person
+     * @return the update version, without decoding the other fields
+     * @throws IOException if the bytes are not an encoded person
+     */
+    public static long version(byte[] bytes) throws IOException {
+        if (!isEncoded(bytes)) {
+            throw new IOException("Not an encoded person.");
+        }
+        try {
+            ByteBuffer in = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+            int flags = in.get();
+            //The NIF goes before it.
+            int nifLength = (int) readVarLong(in);
+            in.position(in.position() + nifLength);
+            return (flags & VERSIONED) != 0 ? readVarLong(in) : 0;
+        } catch (BufferUnderflowException | IllegalArgumentException ex) {
+            throw new IOException("Encoded person is truncated.", ex);
+        }
+    }
+
+    /**
+     * @param bytes encoded person
+     * @return true if the photo flag is set, without decoding anything else
+     */
+    public static boolean hasPhoto(byte[] bytes) {
+        return isEncoded(bytes) && bytes.length > 1 && (bytes[1] & (PHOTO_PNG | PHOTO_REFERENCE)) != 0;
+    }
+
+    /**
+     * @param bytes stored bytes
+     * @return true if they were written by this codec
+     */
+    public static boolean isEncoded(byte[] bytes) {
+        return bytes.length > 0 && (bytes[0] & 0xF0) == HEADER;
+    }
+
+    /**
+     * Converts the photo to PNG bytes.
+     * @param icon photo
+     * @return PNG bytes
+     * @throws IOException
+     */
+    public static byte[] toPng(ImageIcon icon) throws IOException {
+        BufferedImage bi = new BufferedImage(icon.getImage().getWidth(null),
+                icon.getImage().getHeight(null),
+                BufferedImage.TYPE_INT_ARGB);
+        bi.getGraphics().drawImage(icon.getImage(), 0, 0, null);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ImageIO.write(bi, "png", baos);
+        return baos.toByteArray();
+    }
+
+    private static byte[] encode(Person p, byte[] png, String photoReference) {
+        int flags = 0;
+        flags |= p.getName() != null ? NAME : 0;
+        flags |= p.getDateOfBirth() != null ? DATE : 0;
+        flags |= p.getEmail() != null ? EMAIL : 0;
+        flags |= p.getPhoneNumber() != null ? PHONE : 0;
+        flags |= p.getPostalCode() != null ? POSTAL_CODE : 0;
+        flags |= png != null ? PHOTO_PNG : 0;
+        flags |= photoReference != null ? PHOTO_REFERENCE : 0;
+        flags |= p.getVersion() != 0 ? VERSIONED : 0;
+        ByteArrayOutputStream out = new ByteArrayOutputStream(64 + (png != null ? png.length : 0));
+        out.write(HEADER | VERSION);
+        out.write(flags);
+        writeString(out, p.getNif());
+        if (p.getVersion() != 0) {
+            writeVarLong(out, p.getVersion());
+        }
+        if (p.getName() != null) {
+            writeString(out, p.getName());
+        }
+        if (p.getDateOfBirth() != null) {
+            long epochDay = p.getDateOfBirth().toInstant().atZone(ZoneId.systemDefault())
+                    .toLocalDate().toEpochDay();
+            writeVarLong(out, zigZagEncode(epochDay));
+        }
+        if (p.getEmail() != null) {
+            writeString(out, p.getEmail());
+        }
+        if (p.getPhoneNumber() != null) {
+            writeString(out, p.getPhoneNumber());
+        }
+        if (p.getPostalCode() != null) {
+            writeString(out, p.getPostalCode());
+        }
+        if (png != null) {
+            writeVarLong(out, png.length);
+            out.write(png, 0, png.length);
+        } else if (photoReference != null) {
+            writeString(out, photoReference);
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeString(ByteArrayOutputStream out, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        writeVarLong(out, bytes.length);
+        out.write(bytes, 0, bytes.length);
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[(int) readVarLong(in)];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    //7 bits per byte, the high bit says that more bytes follow.
+    private static void writeVarLong(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarLong(ByteBuffer in) {
+        long value = 0;
+        int shift = 0;
+        byte b;
+        do {
+            b = in.get();
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return value;
+    }
+
+    //Dates before 1970 are negative epoch days; zigzag keeps them short.
+    private static long zigZagEncode(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long zigZagDecode(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+}
@@ -0,0 +1,85 @@
+package model.dao;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over the people that a storage system reads one by one, as Person
+ * or as PersonSummary, the base of the streams returned by IDAO.stream() and
+ * IDAO.streamSummaries(). Only the next person is read ahead. An error while
+ * reading or closing is thrown as an UncheckedIOException whose cause is the
+ * IOException, or an IOException wrapping the original exception.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+abstract class PersonCursor<T> implements Iterator<T> {
+
+    private T next;
+    private boolean end;
+
+    /**
+     * @return next person or null if there are no more
+     * @throws Exception
+     */
+    protected abstract T fetch() throws Exception;
+
+    /**
+     * Releases the connection or the files the cursor reads from. It is
+     * called once, when the stream is closed.
+     * @throws Exception
+     */
+    protected abstract void release() throws Exception;
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !end) {
+            try {
+                next = fetch();
+            } catch (Exception ex) {
+                throw unchecked(ex);
+            }
+            end = next == null;
+        }
+        return !end;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T p = next;
+        next = null;
+        return p;
+    }
+
+    /**
+     * @return sequential stream of the people that releases the cursor when
+     * it is closed
+     */
+    Stream<T> stream() {
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(() -> {
+                    try {
+                        release();
+                    } catch (Exception ex) {
+                        throw unchecked(ex);
+                    }
+                });
+    }
+
+    static UncheckedIOException unchecked(Exception ex) {
+        if (ex instanceof UncheckedIOException) {
+            return (UncheckedIOException) ex;
+        }
+        return new UncheckedIOException(ex instanceof IOException ? (IOException) ex : new IOException(ex.getMessage(), ex));
+    }
+
+}
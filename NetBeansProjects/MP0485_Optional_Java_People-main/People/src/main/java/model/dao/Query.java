@@ -0,0 +1,369 @@
+package model.dao;
+
+import model.entity.Person;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Search on the people registered: a condition on their fields, an optional
+ * order and an optional limit. Conditions are built with the static
+ * methods and combined with and() and or(), e.g. the people born before 1980
+ * with a postal code starting with "08":
+ * <pre>
+ * new Query(and(range(Field.DATE_OF_BIRTH, null, date1980),
+ *         prefix(Field.POSTAL_CODE, "08")))
+ * </pre>
+ * Every storage system runs it with IDAO.query(): translated to its own
+ * query language when it has one or by filtering the people it reads.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class Query {
+
+    public enum Field {
+        NIF, NAME, DATE_OF_BIRTH, EMAIL, POSTAL_CODE, PHONE_NUMBER;
+
+        /**
+         * @param p person
+         * @return value of the field, a String or, for DATE_OF_BIRTH, a Date
+         */
+        public Comparable<?> of(Person p) {
+            switch (this) {
+                case NIF:
+                    return p.getNif();
+                case NAME:
+                    return p.getName();
+                case DATE_OF_BIRTH:
+                    return p.getDateOfBirth();
+                case EMAIL:
+                    return p.getEmail();
+                case POSTAL_CODE:
+                    return p.getPostalCode();
+                default:
+                    return p.getPhoneNumber();
+            }
+        }
+    }
+
+    /**
+     * A condition on the fields of a person. It is immutable.
+     */
+    public static final class Condition {
+
+        public enum Kind {
+            //field = value
+            EQUALS,
+            //field starts with value
+            PREFIX,
+            //value <= field < to; a null bound means no bound
+            RANGE,
+            AND,
+            OR
+        }
+
+        private final Kind kind;
+        private final Field field;
+        private final Comparable<?> value;
+        private final Comparable<?> to;
+        private final List<Condition> children;
+
+        private Condition(Kind kind, Field field, Comparable<?> value, Comparable<?> to, List<Condition> children) {
+            this.kind = kind;
+            this.field = field;
+            this.value = value;
+            this.to = to;
+            this.children = children;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public Field getField() {
+            return field;
+        }
+
+        /**
+         * @return value compared, prefix or lower bound of the range
+         */
+        public Comparable<?> getValue() {
+            return value;
+        }
+
+        /**
+         * @return upper bound of the range, excluded
+         */
+        public Comparable<?> getTo() {
+            return to;
+        }
+
+        public List<Condition> getChildren() {
+            return children;
+        }
+
+        /**
+         * @param p person
+         * @return true if the person meets the condition; a field without
+         * value meets no comparison
+         */
+        @SuppressWarnings("unchecked")
+        public boolean test(Person p) {
+            switch (kind) {
+                case AND:
+                    for (Condition child : children) {
+                        if (!child.test(p)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                case OR:
+                    for (Condition child : children) {
+                        if (child.test(p)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                default:
+                    Comparable<Object> actual = (Comparable<Object>) field.of(p);
+                    if (actual == null) {
+                        return false;
+                    }
+                    if (kind == Kind.EQUALS) {
+                        return actual.compareTo(value) == 0;
+                    }
+                    if (kind == Kind.PREFIX) {
+                        return actual.toString().startsWith((String) value);
+                    }
+                    return (value == null || actual.compareTo(value) >= 0)
+                            && (to == null || actual.compareTo(to) < 0);
+            }
+        }
+
+        /**
+         * @return the NIF range the condition is limited to, both bounds
+         * included and null if there is no bound, so the storage systems
+         * with a NIF index only read that range
+         */
+        String[] nifBounds() {
+            switch (kind) {
+                case EQUALS:
+                    return field == Field.NIF ? new String[]{(String) value, (String) value} : new String[2];
+                case PREFIX:
+                    //No NIF starting with the prefix is greater than it
+                    //followed by the greatest char.
+                    return field == Field.NIF ? new String[]{(String) value, value + "\uffff"} : new String[2];
+                case RANGE:
+                    return field == Field.NIF ? new String[]{(String) value, (String) to} : new String[2];
+                case AND:
+                    String[] bounds = new String[2];
+                    for (Condition child : children) {
+                        String[] other = child.nifBounds();
+                        if (bounds[0] == null || (other[0] != null && other[0].compareTo(bounds[0]) > 0)) {
+                            bounds[0] = other[0] != null ? other[0] : bounds[0];
+                        }
+                        if (bounds[1] == null || (other[1] != null && other[1].compareTo(bounds[1]) < 0)) {
+                            bounds[1] = other[1] != null ? other[1] : bounds[1];
+                        }
+                    }
+                    return bounds;
+                default:
+                    //The union of the ranges, if all of them have one.
+                    String[] union = null;
+                    for (Condition child : children) {
+                        String[] other = child.nifBounds();
+                        if (union == null) {
+                            union = other;
+                        } else {
+                            union = new String[]{
+                                union[0] == null || other[0] == null ? null : min(union[0], other[0]),
+                                union[1] == null || other[1] == null ? null : max(union[1], other[1])};
+                        }
+                    }
+                    return union != null ? union : new String[2];
+            }
+        }
+
+        private static String min(String a, String b) {
+            return a.compareTo(b) <= 0 ? a : b;
+        }
+
+        private static String max(String a, String b) {
+            return a.compareTo(b) >= 0 ? a : b;
+        }
+
+        @Override
+        public String toString() {
+            switch (kind) {
+                case EQUALS:
+                    return field + " = " + value;
+                case PREFIX:
+                    return field + " LIKE " + value + "%";
+                case RANGE:
+                    return value + " <= " + field + " < " + to;
+                default:
+                    return children.stream().map(Condition::toString)
+                            .collect(Collectors.joining(" " + kind + " ", "(", ")"));
+            }
+        }
+    }
+
+    private final Condition condition;
+    private Field orderBy;
+    private boolean descending;
+    private int limit;
+
+    /**
+     * @param condition condition of the people to find or null for all
+     */
+    public Query(Condition condition) {
+        this.condition = condition;
+    }
+
+    public static Condition equal(Field field, Comparable<?> value) {
+        return new Condition(Condition.Kind.EQUALS, field, checked(field, value), null, null);
+    }
+
+    public static Condition prefix(Field field, String prefix) {
+        if (field == Field.DATE_OF_BIRTH) {
+            throw new IllegalArgumentException("A date has no prefix.");
+        }
+        return new Condition(Condition.Kind.PREFIX, field, checked(field, prefix), null, null);
+    }
+
+    /**
+     * @param field field
+     * @param from lower bound, included, or null
+     * @param to upper bound, excluded, or null
+     * @return Condition
+     */
+    public static Condition range(Field field, Comparable<?> from, Comparable<?> to) {
+        return new Condition(Condition.Kind.RANGE, field, from != null ? checked(field, from) : null,
+                to != null ? checked(field, to) : null, null);
+    }
+
+    public static Condition and(Condition... conditions) {
+        return new Condition(Condition.Kind.AND, null, null, null, Collections.unmodifiableList(Arrays.asList(conditions)));
+    }
+
+    public static Condition or(Condition... conditions) {
+        return new Condition(Condition.Kind.OR, null, null, null, Collections.unmodifiableList(Arrays.asList(conditions)));
+    }
+
+    /**
+     * @param field field to sort the people by; people without value go
+     * last
+     * @param descending true for descending order
+     * @return this query
+     */
+    public Query orderBy(Field field, boolean descending) {
+        this.orderBy = field;
+        this.descending = descending;
+        return this;
+    }
+
+    /**
+     * @param limit maximum number of people, 0 for no limit
+     * @return this query
+     */
+    public Query limit(int limit) {
+        this.limit = Math.max(0, limit);
+        return this;
+    }
+
+    public Condition getCondition() {
+        return condition;
+    }
+
+    public Field getOrderBy() {
+        return orderBy;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @param p person
+     * @return true if the person meets the condition
+     */
+    public boolean matches(Person p) {
+        return condition == null || condition.test(p);
+    }
+
+    /**
+     * @return comparator of the order or null if there is no order
+     */
+    @SuppressWarnings("unchecked")
+    public Comparator<Person> comparator() {
+        if (orderBy == null) {
+            return null;
+        }
+        Comparator<Comparable<Object>> values = Comparator.nullsLast(descending
+                ? Comparator.<Comparable<Object>>reverseOrder() : Comparator.<Comparable<Object>>naturalOrder());
+        return Comparator.comparing(p -> (Comparable<Object>) orderBy.of(p), values);
+    }
+
+    /**
+     * @return the NIF range of the condition, both bounds included and null
+     * if there is no bound
+     */
+    String[] nifBounds() {
+        return condition != null ? condition.nifBounds() : new String[2];
+    }
+
+    /**
+     * The generic way to run the query: filters, sorts and limits the people.
+     * @param people people to search, which the method does not close
+     * @param nifOrdered true if the people come in NIF order, so a query in
+     * that order needs no sort and stops at the limit
+     * @return ArrayList of Person
+     */
+    ArrayList<Person> apply(Stream<Person> people, boolean nifOrdered) {
+        Stream<Person> found = people.filter(this::matches);
+        if (orderBy != null && !(orderBy == Field.NIF && !descending && nifOrdered)) {
+            found = found.sorted(comparator());
+        }
+        if (limit > 0) {
+            found = found.limit(limit);
+        }
+        return found.collect(Collectors.toCollection(ArrayList::new));
+    }
+
+    /**
+     * @return LIKE pattern of the values starting with the prefix, for the
+     * SQL and JPQL translations, with the wildcards in the prefix escaped
+     * with '!'
+     */
+    static String likePrefix(String prefix) {
+        return prefix.replace("!", "!!").replace("%", "!%").replace("_", "!_") + "%";
+    }
+
+    private static Comparable<?> checked(Field field, Comparable<?> value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Null value for " + field + ".");
+        }
+        if ((field == Field.DATE_OF_BIRTH) != (value instanceof Date)) {
+            throw new IllegalArgumentException(field + " can not be compared with " + value.getClass().getSimpleName() + ".");
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return "Query {" + "Where = " + condition + ", Order = " + orderBy + (descending ? " DESC" : "")
+                + ", Limit = " + limit + "}";
+    }
+
+}
@@ -0,0 +1,443 @@
+package model.dao;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Append-only log of records split into segment files, shared by the file
+ * backends that never rewrite data. Every record is a frame: length (int, not
+ * counting itself), kind (PUT or TOMBSTONE), key length (short), key (the NIF
+ * in UTF-8) and the payload, which is up to the owner. There is no file
+ * header, so appending a record is a single write at the end of the active
+ * segment. A record is addressed by a location, the segment number in the
+ * high bits and the offset in the low 40 bits.
+ * When the active segment is full a new one is started and the closed
+ * segments are merged in the background into one that takes the id of the
+ * newest of them, keeping only the records the owner still points to. The
+ * merged segment drops the tombstones, so it is first published as
+ * "segment.merged", which stands for all the segments up to its id: they are
+ * deleted and then it is renamed. If the process dies in between, open()
+ * finishes the job, so a put is never replayed without the tombstone that
+ * followed it.
+ * All the methods synchronize on the owner, so the owner can keep its index
+ * consistent with the log by synchronizing on itself.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+final class SegmentLog {
+
+    static final byte PUT = 1;
+    static final byte TOMBSTONE = 2;
+    //Most records fit in the first read.
+    private static final int FIRST_READ = 4096;
+    private static final int FRAME_HEADER = 4 + 1 + 2;
+    //Number of closed segments that triggers a background compaction.
+    private static final int COMPACTION_THRESHOLD = 2;
+    private static final String COMPACT_SUFFIX = ".compact";
+    private static final String MERGED_SUFFIX = ".merged";
+
+    /**
+     * What the log needs from the class that stores its records in it.
+     */
+    interface Owner {
+
+        /**
+         * Called for every record, in write order, while the log is replayed.
+         */
+        void replayed(String key, byte kind, long location) throws IOException;
+
+        /**
+         * @return current location of every key whose last record is in a
+         * segment up to lastSegment
+         */
+        Map<String, Long> live(int lastSegment) throws IOException;
+
+        /**
+         * A compaction copied the records in from to the locations in to. Keys
+         * still pointing to the old location must point to the new one.
+         */
+        void relocated(Map<String, Long> from, Map<String, Long> to) throws IOException;
+    }
+
+    private final File folder;
+    private final String prefix;
+    private final String suffix;
+    private final long segmentSize;
+    private final Owner owner;
+    private final TreeMap<Integer, FileChannel> segments = new TreeMap<>();
+    private final ExecutorService compactor;
+    private int activeSegment;
+    private long activeSize;
+    //Incremented by clear so that a compaction started before it is discarded.
+    private int generation;
+    private boolean compacting;
+
+    SegmentLog(File folder, String prefix, String suffix, long segmentSize, Owner owner) {
+        this.folder = folder;
+        this.prefix = prefix;
+        this.suffix = suffix;
+        this.segmentSize = segmentSize;
+        this.owner = owner;
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, prefix + "compactor");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    static int segment(long location) {
+        return (int) (location >>> 40);
+    }
+
+    private static long offset(long location) {
+        return location & ((1L << 40) - 1);
+    }
+
+    private static long location(int segment, long offset) {
+        return ((long) segment << 40) | offset;
+    }
+
+    /**
+     * Opens every segment found in the folder, in order, trusting that the
+     * owner already knows where its records are.
+     * @throws IOException
+     */
+    void open() throws IOException {
+        synchronized (owner) {
+            folder.mkdirs();
+            finishMerge();
+            File[] files = folder.listFiles();
+            TreeMap<Integer, File> found = new TreeMap<>();
+            if (files != null) {
+                for (File f : files) {
+                    String name = f.getName();
+                    if (name.endsWith(COMPACT_SUFFIX)) {
+                        f.delete();
+                    } else if (name.startsWith(prefix) && name.endsWith(suffix)) {
+                        found.put(Integer.valueOf(name.substring(prefix.length(),
+                                name.length() - suffix.length())), f);
+                    }
+                }
+            }
+            for (Integer id : found.keySet()) {
+                FileChannel channel = openSegment(id);
+                segments.put(id, channel);
+                activeSegment = id;
+                activeSize = channel.size();
+            }
+            if (segments.isEmpty()) {
+                activeSegment = 0;
+                activeSize = 0;
+                segments.put(activeSegment, openSegment(activeSegment));
+            }
+        }
+    }
+
+    /**
+     * Passes every record of the open segments to the owner, in write order.
+     * A record cut in half by a crash at the end of a segment is discarded.
+     * @throws IOException
+     */
+    void replay() throws IOException {
+        synchronized (owner) {
+            for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+                long size = replay(segment.getKey(), segment.getValue());
+                if (segment.getKey() == activeSegment) {
+                    activeSize = size;
+                }
+            }
+        }
+    }
+
+    /**
+     * Appends a record to the active segment.
+     * @return location of the record
+     * @throws IOException
+     */
+    long append(byte kind, String key, byte[] payload) throws IOException {
+        synchronized (owner) {
+            byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+            ByteBuffer frame = ByteBuffer.allocate(FRAME_HEADER + keyBytes.length + payload.length);
+            frame.putInt(frame.capacity() - 4);
+            frame.put(kind);
+            frame.putShort((short) keyBytes.length);
+            frame.put(keyBytes);
+            frame.put(payload);
+            frame.flip();
+            writeFully(segments.get(activeSegment), frame, activeSize);
+            long location = location(activeSegment, activeSize);
+            activeSize += frame.capacity();
+            if (activeSize >= segmentSize) {
+                activeSegment++;
+                activeSize = 0;
+                segments.put(activeSegment, openSegment(activeSegment));
+                if (!compacting && segments.size() - 1 >= COMPACTION_THRESHOLD) {
+                    compacting = true;
+                    compactor.execute(this::compact);
+                }
+            }
+            return location;
+        }
+    }
+
+    /**
+     * @return payload of the record at the given location
+     * @throws IOException
+     */
+    byte[] read(long location) throws IOException {
+        synchronized (owner) {
+            ByteBuffer frame = readFrame(segments.get(segment(location)), offset(location));
+            frame.position(FRAME_HEADER + frame.getShort(5));
+            byte[] payload = new byte[frame.remaining()];
+            frame.get(payload);
+            return payload;
+        }
+    }
+
+    /**
+     * Deletes every segment and starts again with an empty one.
+     * @throws IOException
+     */
+    void clear() throws IOException {
+        synchronized (owner) {
+            generation++;
+            for (Map.Entry<Integer, FileChannel> segment : segments.entrySet()) {
+                segment.getValue().close();
+                segmentFile(segment.getKey()).delete();
+            }
+            segments.clear();
+            activeSegment = 0;
+            activeSize = 0;
+            segments.put(activeSegment, openSegment(activeSegment));
+        }
+    }
+
+    /**
+     * @return two numbers that change whenever a segment is written, created
+     * or deleted: the total length and the sum of the modification times
+     */
+    long[] signature() {
+        synchronized (owner) {
+            long length = 0;
+            long modified = segments.size();
+            for (Integer id : segments.keySet()) {
+                File f = segmentFile(id);
+                length += f.length();
+                modified += f.lastModified();
+            }
+            return new long[]{length, modified};
+        }
+    }
+
+    /**
+     * Waits for a running compaction and closes the segments.
+     * @throws IOException
+     */
+    void close() throws IOException {
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (owner) {
+            for (FileChannel channel : segments.values()) {
+                channel.close();
+            }
+            segments.clear();
+        }
+    }
+
+    private long replay(int id, FileChannel channel) throws IOException {
+        long size = channel.size();
+        long position = 0;
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel), 65536));
+        while (position + FRAME_HEADER <= size) {
+            int length = in.readInt();
+            if (length < FRAME_HEADER - 4 || position + 4 + length > size) {
+                break;
+            }
+            byte kind = in.readByte();
+            byte[] key = new byte[in.readShort()];
+            in.readFully(key);
+            in.skipNBytes(length - 3 - key.length);
+            owner.replayed(new String(key, StandardCharsets.UTF_8), kind, location(id, position));
+            position += 4 + length;
+        }
+        if (position < size) {
+            channel.truncate(position);
+        }
+        return position;
+    }
+
+    /**
+     * Copies the live records of every closed segment into a single segment
+     * that takes the id of the newest one. Only the final swap holds the
+     * lock; the copy reads closed segments, which are never written again.
+     */
+    private void compact() {
+        File temp = null;
+        try {
+            int expectedGeneration;
+            int target;
+            TreeMap<Integer, FileChannel> sources;
+            Map<String, Long> live;
+            synchronized (owner) {
+                expectedGeneration = generation;
+                sources = new TreeMap<>(segments.headMap(activeSegment));
+                if (sources.size() < 2) {
+                    return;
+                }
+                target = sources.lastKey();
+                live = owner.live(target);
+            }
+            temp = new File(folder, segmentFile(target).getName() + COMPACT_SUFFIX);
+            HashMap<String, Long> moved = new HashMap<>();
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                long position = 0;
+                for (Map.Entry<String, Long> entry : live.entrySet()) {
+                    long location = entry.getValue();
+                    ByteBuffer frame = readFrame(sources.get(segment(location)), offset(location));
+                    int length = frame.remaining();
+                    writeFully(out, frame, position);
+                    moved.put(entry.getKey(), location(target, position));
+                    position += length;
+                }
+                out.force(true);
+            }
+            synchronized (owner) {
+                if (expectedGeneration != generation) {
+                    return;
+                }
+                for (FileChannel channel : sources.values()) {
+                    channel.close();
+                }
+                //From here on the merged segment replaces the sources, even
+                //if the process dies before they are deleted.
+                File merged = mergedFile(target);
+                Files.move(temp.toPath(), merged.toPath(),
+                        StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                for (Integer id : sources.keySet()) {
+                    segments.remove(id);
+                    Files.deleteIfExists(segmentFile(id).toPath());
+                }
+                Files.move(merged.toPath(), segmentFile(target).toPath(), StandardCopyOption.ATOMIC_MOVE);
+                segments.put(target, openSegment(target));
+                owner.relocated(live, moved);
+            }
+        } catch (IOException ex) {
+            Logger.getLogger(SegmentLog.class.getName()).log(Level.WARNING, "Compaction aborted", ex);
+        } finally {
+            if (temp != null) {
+                temp.delete();
+            }
+            synchronized (owner) {
+                compacting = false;
+            }
+        }
+    }
+
+    /**
+     * Completes a compaction cut by a crash after the merged segment was
+     * published: the segments it replaces are deleted and it takes the place
+     * of the newest of them.
+     */
+    private void finishMerge() throws IOException {
+        File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        String mergedSuffix = suffix + MERGED_SUFFIX;
+        for (File f : files) {
+            String name = f.getName();
+            if (!name.startsWith(prefix) || !name.endsWith(mergedSuffix)) {
+                continue;
+            }
+            int target = Integer.parseInt(name.substring(prefix.length(), name.length() - mergedSuffix.length()));
+            for (File other : files) {
+                String otherName = other.getName();
+                if (otherName.startsWith(prefix) && otherName.endsWith(suffix)
+                        && Integer.parseInt(otherName.substring(prefix.length(),
+                                otherName.length() - suffix.length())) <= target) {
+                    Files.deleteIfExists(other.toPath());
+                }
+            }
+            Files.move(f.toPath(), segmentFile(target).toPath(), StandardCopyOption.ATOMIC_MOVE);
+        }
+    }
+
+    private File mergedFile(int id) {
+        return new File(folder, segmentFile(id).getName() + MERGED_SUFFIX);
+    }
+
+    private File segmentFile(int id) {
+        return new File(folder, String.format("%s%06d%s", prefix, id, suffix));
+    }
+
+    private FileChannel openSegment(int id) throws IOException {
+        return FileChannel.open(segmentFile(id).toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Reads a whole frame, length included, with one positioned read when it
+     * is smaller than FIRST_READ.
+     */
+    private static ByteBuffer readFrame(FileChannel channel, long offset) throws IOException {
+        ByteBuffer first = ByteBuffer.allocate(FIRST_READ);
+        long size = channel.size();
+        first.limit((int) Math.min(FIRST_READ, size - offset));
+        readFully(channel, first, offset);
+        int length = first.getInt(0);
+        if (4 + length <= first.limit()) {
+            first.limit(4 + length);
+            first.position(0);
+            return first;
+        }
+        ByteBuffer frame = ByteBuffer.allocate(4 + length);
+        first.flip();
+        frame.put(first);
+        readFully(channel, frame, offset);
+        frame.flip();
+        return frame;
+    }
+
+    /**
+     * Fills the buffer from the file, position being where the buffer starts.
+     */
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException();
+            }
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer, position + buffer.position());
+        }
+    }
+
+}
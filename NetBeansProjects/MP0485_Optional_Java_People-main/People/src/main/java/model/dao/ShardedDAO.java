@@ -0,0 +1,280 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+import start.Routes;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * IDAO that splits the people among several storage systems (shards) by the
+ * hash of their NIF, so every shard keeps a smaller file or table and they
+ * can be used at the same time. A read, an insert, an update or a delete of
+ * one person goes to its shard only; readAll, count, the pages, the queries
+ * and the batches are run on all the shards in parallel, on a fork-join pool
+ * with a thread per shard, and their results merged.
+ * The shard of a NIF is its String.hashCode() modulo the number of shards,
+ * which does not change between runs, so the same shards must always be
+ * given in the same order.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class ShardedDAO implements IDAO {
+
+    private final IDAO[] shards;
+    private final ForkJoinPool pool;
+
+    /**
+     * @param shards storage systems, always in the same order
+     */
+    public ShardedDAO(List<? extends IDAO> shards) {
+        if (shards.isEmpty()) {
+            throw new IllegalArgumentException("There must be one shard at least.");
+        }
+        this.shards = shards.toArray(new IDAO[0]);
+        pool = new ForkJoinPool(shards.size());
+    }
+
+    /**
+     * @param shards number of DAOFile, in the folders "shard-0", "shard-1"...
+     * of the "File" folder
+     * @return ShardedDAO
+     * @throws IOException
+     */
+    public static ShardedDAO files(int shards) throws IOException {
+        return files(new File(Routes.FILE.getFolderPath()), shards);
+    }
+
+    /**
+     * @param folder folder of the shards
+     * @param shards number of DAOFile, in the folders "shard-0", "shard-1"...
+     * @return ShardedDAO
+     * @throws IOException
+     */
+    public static ShardedDAO files(File folder, int shards) throws IOException {
+        ArrayList<IDAO> daos = new ArrayList<>();
+        for (int i = 0; i < shards; i++) {
+            daos.add(new DAOFile(new File(folder, "shard-" + i)));
+        }
+        return new ShardedDAO(daos);
+    }
+
+    /**
+     * @param nif NIF
+     * @return the shard that keeps the person
+     */
+    public IDAO shardOf(String nif) {
+        return shards[indexOf(nif)];
+    }
+
+    @Override
+    public Person read(Person p) throws Exception {
+        return shardOf(p.getNif()).read(p);
+    }
+
+    @Override
+    public boolean exists(String nif) throws Exception {
+        return shardOf(nif).exists(nif);
+    }
+
+    @Override
+    public void insert(Person p) throws Exception {
+        shardOf(p.getNif()).insert(p);
+    }
+
+    @Override
+    public void update(Person p) throws Exception {
+        shardOf(p.getNif()).update(p);
+    }
+
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        shardOf(p.getNif()).update(p, expectedVersion);
+    }
+
+    @Override
+    public void upsert(Person p) throws Exception {
+        shardOf(p.getNif()).upsert(p);
+    }
+
+    @Override
+    public void delete(Person p) throws Exception {
+        shardOf(p.getNif()).delete(p);
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+        fanOut(i -> {
+            shards[i].deleteAll();
+            return null;
+        });
+    }
+
+    @Override
+    public ArrayList<Person> readAll() throws Exception {
+        ArrayList<Person> people = new ArrayList<>();
+        for (ArrayList<Person> part : fanOut(i -> shards[i].readAll())) {
+            people.addAll(part);
+        }
+        return people;
+    }
+
+    @Override
+    public int count() throws Exception {
+        int count = 0;
+        for (int part : fanOut(i -> shards[i].count())) {
+            count += part;
+        }
+        return count;
+    }
+
+    /**
+     * The shards one after the other, each one opened when the previous one
+     * has been read.
+     */
+    @Override
+    public Stream<Person> stream() {
+        return Arrays.stream(shards).flatMap(shard -> {
+            try {
+                return shard.stream();
+            } catch (Exception ex) {
+                throw PersonCursor.unchecked(ex);
+            }
+        });
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() {
+        return Arrays.stream(shards).flatMap(shard -> {
+            try {
+                return shard.streamSummaries();
+            } catch (Exception ex) {
+                throw PersonCursor.unchecked(ex);
+            }
+        });
+    }
+
+    /**
+     * Every shard gives its own page after the NIF and the first size NIFs
+     * of all of them are the page.
+     */
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws Exception {
+        return merge(fanOut(i -> shards[i].readPage(after, size)), Comparator.comparing(Person::getNif), size);
+    }
+
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws Exception {
+        return merge(fanOut(i -> shards[i].readSummaryPage(after, size)), Comparator.comparing(PersonSummary::getNif), size);
+    }
+
+    /**
+     * Every shard runs the whole query, limit included, and the people found
+     * are sorted and limited again.
+     */
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        ArrayList<Person> people = new ArrayList<>();
+        for (ArrayList<Person> part : fanOut(i -> shards[i].query(query))) {
+            people.addAll(part);
+        }
+        return query.apply(people.stream(), false);
+    }
+
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        return batch(people, IDAO::insertAll);
+    }
+
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        return batch(people, IDAO::updateAll);
+    }
+
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        return batch(people, IDAO::deleteAll);
+    }
+
+    /**
+     * Stops the threads of the pool. The shards are not closed.
+     */
+    public void close() {
+        pool.shutdown();
+    }
+
+    //An operation on the shard at a position.
+    private interface ShardCall<T> {
+
+        T call(int shard) throws Exception;
+    }
+
+    //A bulk operation on the people of one shard.
+    private interface ShardBatch {
+
+        BatchReport call(IDAO shard, Collection<Person> people) throws Exception;
+    }
+
+    /**
+     * Runs the operation on every shard in parallel.
+     * @return result of every shard, in the order of the shards
+     * @throws Exception the first error of a shard
+     */
+    private <T> List<T> fanOut(ShardCall<T> call) throws Exception {
+        ArrayList<ForkJoinTask<T>> tasks = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            int shard = i;
+            tasks.add(pool.submit(() -> call.call(shard)));
+        }
+        ArrayList<T> results = new ArrayList<>();
+        for (ForkJoinTask<T> task : tasks) {
+            try {
+                results.add(task.get());
+            } catch (ExecutionException ex) {
+                throw ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Splits the people by shard and runs the batch of every shard in
+     * parallel. The results are grouped by shard.
+     */
+    private BatchReport batch(Collection<Person> people, ShardBatch batch) throws Exception {
+        List<List<Person>> parts = new ArrayList<>();
+        for (int i = 0; i < shards.length; i++) {
+            parts.add(new ArrayList<>());
+        }
+        for (Person p : people) {
+            parts.get(indexOf(p.getNif())).add(p);
+        }
+        BatchReport report = new BatchReport();
+        for (BatchReport part : fanOut(i -> batch.call(shards[i], parts.get(i)))) {
+            report.addAll(part);
+        }
+        return report;
+    }
+
+    private int indexOf(String nif) {
+        return Math.floorMod(nif.hashCode(), shards.length);
+    }
+
+    private static <T> ArrayList<T> merge(List<ArrayList<T>> parts, Comparator<T> order, int size) {
+        return parts.stream().flatMap(List::stream).sorted(order).limit(Math.max(0, size))
+                .collect(Collectors.toCollection(ArrayList::new));
+    }
+
+}
@@ -0,0 +1,305 @@
+package model.dao;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Immutable file of records sorted by key, the unit DAOLSMTree flushes and
+ * merges. Every record is key length (short), key (UTF-8), value length
+ * (int) and value; an empty value is a tombstone. After the records come a
+ * sparse index, with the key and offset of every INDEX_INTERVAL-th record,
+ * a bloom filter of all the keys and a footer with their offsets. Only the
+ * sparse index and the bloom filter are kept in memory, so a lookup of a key
+ * that is not in the file usually reads nothing and one that is reads a
+ * single block of records.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+final class SortedRun {
+
+    static final byte[] TOMBSTONE = new byte[0];
+    private static final int INDEX_INTERVAL = 16;
+    private static final int MAGIC = 0x5050534C;
+    private static final int FOOTER = 8 + 8 + 4 + 4;
+    private static final int BITS_PER_KEY = 10;
+    private static final int HASHES = 7;
+
+    private final File file;
+    private final FileChannel channel;
+    private final String[] indexKeys;
+    private final long[] indexOffsets;
+    private final long indexOffset;
+    private final long[] bloom;
+    private final int count;
+
+    private SortedRun(File file) throws IOException {
+        this.file = file;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        long length = channel.size();
+        ByteBuffer footer = ByteBuffer.allocate(FOOTER);
+        readFully(footer, length - FOOTER);
+        footer.flip();
+        indexOffset = footer.getLong();
+        long bloomOffset = footer.getLong();
+        count = footer.getInt();
+        if (footer.getInt() != MAGIC) {
+            channel.close();
+            throw new IOException(file + " is not a sorted run.");
+        }
+        ByteBuffer tail = ByteBuffer.allocate((int) (length - FOOTER - indexOffset));
+        readFully(tail, indexOffset);
+        tail.flip();
+        int entries = tail.getInt();
+        indexKeys = new String[entries];
+        indexOffsets = new long[entries];
+        for (int i = 0; i < entries; i++) {
+            byte[] key = new byte[tail.getShort()];
+            tail.get(key);
+            indexKeys[i] = new String(key, StandardCharsets.UTF_8);
+            indexOffsets[i] = tail.getLong();
+        }
+        tail.position((int) (bloomOffset - indexOffset));
+        bloom = new long[tail.getInt()];
+        for (int i = 0; i < bloom.length; i++) {
+            bloom[i] = tail.getLong();
+        }
+    }
+
+    /**
+     * @param file existing run
+     * @return the run, with its index and bloom filter loaded
+     * @throws IOException
+     */
+    static SortedRun open(File file) throws IOException {
+        return new SortedRun(file);
+    }
+
+    /**
+     * Writes a new run and opens it.
+     * @param file file to create
+     * @param records records sorted by key, without repeated keys
+     * @param expected number of records, to size the bloom filter
+     * @return the run
+     * @throws IOException
+     */
+    static SortedRun write(File file, Iterator<Map.Entry<String, byte[]>> records, int expected) throws IOException {
+        long[] bloom = new long[Math.max(1, (int) (((long) expected * BITS_PER_KEY + 63) / 64))];
+        ArrayList<byte[]> indexKeys = new ArrayList<>();
+        ArrayList<Long> indexOffsets = new ArrayList<>();
+        int count = 0;
+        long offset = 0;
+        try (FileOutputStream fos = new FileOutputStream(file);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos, 64 * 1024))) {
+            while (records.hasNext()) {
+                Map.Entry<String, byte[]> record = records.next();
+                byte[] key = record.getKey().getBytes(StandardCharsets.UTF_8);
+                if (count % INDEX_INTERVAL == 0) {
+                    indexKeys.add(key);
+                    indexOffsets.add(offset);
+                }
+                add(bloom, record.getKey());
+                out.writeShort(key.length);
+                out.write(key);
+                out.writeInt(record.getValue().length);
+                out.write(record.getValue());
+                offset += 2 + key.length + 4 + record.getValue().length;
+                count++;
+            }
+            long indexOffset = offset;
+            out.writeInt(indexKeys.size());
+            offset += 4;
+            for (int i = 0; i < indexKeys.size(); i++) {
+                out.writeShort(indexKeys.get(i).length);
+                out.write(indexKeys.get(i));
+                out.writeLong(indexOffsets.get(i));
+                offset += 2 + indexKeys.get(i).length + 8;
+            }
+            long bloomOffset = offset;
+            out.writeInt(bloom.length);
+            for (long bits : bloom) {
+                out.writeLong(bits);
+            }
+            out.writeLong(indexOffset);
+            out.writeLong(bloomOffset);
+            out.writeInt(count);
+            out.writeInt(MAGIC);
+            out.flush();
+            fos.getFD().sync();
+        }
+        return open(file);
+    }
+
+    /**
+     * @param key key
+     * @return value, TOMBSTONE if the key was deleted or null if the run
+     * says nothing about it
+     * @throws IOException
+     */
+    byte[] get(String key) throws IOException {
+        if (!mightContain(bloom, key)) {
+            return null;
+        }
+        //Last indexed key not greater than the key.
+        int low = 0;
+        int high = indexKeys.length - 1;
+        int block = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexKeys[mid].compareTo(key) <= 0) {
+                block = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (block < 0) {
+            return null;
+        }
+        long end = block + 1 < indexOffsets.length ? indexOffsets[block + 1] : indexOffset;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - indexOffsets[block]));
+        readFully(buffer, indexOffsets[block]);
+        buffer.flip();
+        byte[] wanted = key.getBytes(StandardCharsets.UTF_8);
+        while (buffer.hasRemaining()) {
+            byte[] current = new byte[buffer.getShort()];
+            buffer.get(current);
+            int length = buffer.getInt();
+            if (Arrays.equals(current, wanted)) {
+                byte[] value = new byte[length];
+                buffer.get(value);
+                return length == 0 ? TOMBSTONE : value;
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return null;
+    }
+
+    /**
+     * @return the records in key order, read sequentially
+     * @throws IOException
+     */
+    Iterator<Map.Entry<String, byte[]>> iterator() throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+        return new Iterator<Map.Entry<String, byte[]>>() {
+            private int read;
+
+            @Override
+            public boolean hasNext() {
+                if (read == count) {
+                    close();
+                }
+                return read < count;
+            }
+
+            @Override
+            public Map.Entry<String, byte[]> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                try {
+                    byte[] key = new byte[in.readShort()];
+                    in.readFully(key);
+                    byte[] value = new byte[in.readInt()];
+                    in.readFully(value);
+                    read++;
+                    return new AbstractMap.SimpleImmutableEntry<>(new String(key, StandardCharsets.UTF_8),
+                            value.length == 0 ? TOMBSTONE : value);
+                } catch (IOException ex) {
+                    close();
+                    throw new UncheckedIOException(ex);
+                }
+            }
+
+            private void close() {
+                try {
+                    in.close();
+                } catch (IOException ex) {
+                    //Nothing else to read
+                }
+            }
+        };
+    }
+
+    File file() {
+        return file;
+    }
+
+    long length() {
+        return file.length();
+    }
+
+    int count() {
+        return count;
+    }
+
+    void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Closes and deletes the file.
+     */
+    void delete() throws IOException {
+        close();
+        file.delete();
+    }
+
+    private void readFully(ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException(file + " is truncated.");
+            }
+        }
+    }
+
+    //Double hashing: the i-th hash is h1 + i * h2.
+    private static void add(long[] bloom, String key) {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            bloom[(int) (bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static boolean mightContain(long[] bloom, String key) {
+        int h1 = key.hashCode();
+        int h2 = mix(h1);
+        long bits = (long) bloom.length * 64;
+        for (int i = 0; i < HASHES; i++) {
+            long bit = Math.floorMod(h1 + (long) i * h2, bits);
+            if ((bloom[(int) (bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int mix(int h) {
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        return (h ^ (h >>> 16)) | 1;
+    }
+
+}
@@ -0,0 +1,167 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * IDAO that lets one call at a time into a storage system that is not
+ * thread-safe (DAOArrayList, DAOHashMap, DAOFile...), so it can be used from
+ * the event thread and from the threads of an AsyncDAO at the same time.
+ * A stream keeps the lock until it is closed, so it must be read and closed
+ * by the thread that opened it, with try-with-resources.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class SynchronizedDAO implements IDAO {
+
+    private final IDAO dao;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    //A call to the storage system.
+    private interface Call<T> {
+
+        T call() throws Exception;
+    }
+
+    public SynchronizedDAO(IDAO dao) {
+        this.dao = dao;
+    }
+
+    public IDAO getDAO() {
+        return dao;
+    }
+
+    @Override
+    public Person read(Person p) throws Exception {
+        return locked(() -> dao.read(p));
+    }
+
+    @Override
+    public ArrayList<Person> readAll() throws Exception {
+        return locked(dao::readAll);
+    }
+
+    @Override
+    public int count() throws Exception {
+        return locked(dao::count);
+    }
+
+    @Override
+    public boolean exists(String nif) throws Exception {
+        return locked(() -> dao.exists(nif));
+    }
+
+    @Override
+    public Stream<Person> stream() throws Exception {
+        return stream(dao::stream);
+    }
+
+    @Override
+    public Stream<PersonSummary> streamSummaries() throws Exception {
+        return stream(dao::streamSummaries);
+    }
+
+    @Override
+    public ArrayList<Person> readPage(String after, int size) throws Exception {
+        return locked(() -> dao.readPage(after, size));
+    }
+
+    @Override
+    public ArrayList<PersonSummary> readSummaryPage(String after, int size) throws Exception {
+        return locked(() -> dao.readSummaryPage(after, size));
+    }
+
+    @Override
+    public ArrayList<Person> query(Query query) throws Exception {
+        return locked(() -> dao.query(query));
+    }
+
+    @Override
+    public void insert(Person p) throws Exception {
+        locked(() -> {
+            dao.insert(p);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(Person p) throws Exception {
+        locked(() -> {
+            dao.update(p);
+            return null;
+        });
+    }
+
+    @Override
+    public void update(Person p, long expectedVersion) throws Exception {
+        locked(() -> {
+            dao.update(p, expectedVersion);
+            return null;
+        });
+    }
+
+    @Override
+    public void upsert(Person p) throws Exception {
+        locked(() -> {
+            dao.upsert(p);
+            return null;
+        });
+    }
+
+    @Override
+    public void delete(Person p) throws Exception {
+        locked(() -> {
+            dao.delete(p);
+            return null;
+        });
+    }
+
+    @Override
+    public void deleteAll() throws Exception {
+        locked(() -> {
+            dao.deleteAll();
+            return null;
+        });
+    }
+
+    @Override
+    public BatchReport insertAll(Collection<Person> people) throws Exception {
+        return locked(() -> dao.insertAll(people));
+    }
+
+    @Override
+    public BatchReport updateAll(Collection<Person> people) throws Exception {
+        return locked(() -> dao.updateAll(people));
+    }
+
+    @Override
+    public BatchReport deleteAll(Collection<Person> people) throws Exception {
+        return locked(() -> dao.deleteAll(people));
+    }
+
+    private <T> T locked(Call<T> call) throws Exception {
+        lock.lock();
+        try {
+            return call.call();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private <T> Stream<T> stream(Call<Stream<T>> call) throws Exception {
+        lock.lock();
+        try {
+            return call.call().onClose(lock::unlock);
+        } catch (Exception | Error ex) {
+            lock.unlock();
+            throw ex;
+        }
+    }
+
+}
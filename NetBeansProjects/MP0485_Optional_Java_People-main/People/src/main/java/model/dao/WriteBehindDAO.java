@@ -0,0 +1,365 @@
+package model.dao;
+
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+/**
+ * Tiered IDAO: the people are kept in a DAOHashMap in front of a durable
+ * storage system that only this application writes (e.g. the file), which
+ * is loaded into it when the object is created. Reads and writes only use the map, so they cost what they cost in
+ * DAOHashMap; every write is also queued and a background thread writes the
+ * queue to the durable storage system in batches of BATCH_SIZE every
+ * interval, or as soon as a batch is full.
+ * The queue keeps only the last change of every NIF, so a person updated
+ * many times before a flush is written once. A batch is written with three
+ * batch writes of the back: insertAll, updateAll of the people it skipped
+ * because they were registered, and deleteAll. When the queue is full,
+ * writes of new NIFs wait for the flush (backpressure). The people of a
+ * batch that could not be written go back to the queue and are tried again
+ * in the next flush, and the error of a background flush goes to the
+ * listener set with setErrorListener. close() writes the whole queue before
+ * returning.
+ * Until a change is flushed, it is only in memory: other applications do
+ * not see it and it is lost if the process dies.
+ * The map is loaded once and the versions are checked in it, and the flush
+ * writes the last change of every NIF over whatever the back has, so the
+ * back must only be written through this object: with a storage system
+ * shared by other applications, their changes would be overwritten.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class WriteBehindDAO implements IDAO {
+
+    private static final long DEFAULT_INTERVAL = 1000;
+    private static final int DEFAULT_MAX_PENDING = 10_000;
+    private static final int BATCH_SIZE = 500;
+
+    private final DAOHashMap front = new DAOHashMap();
+    private final IDAO back;
+    private final int maxPending;
+    private final ScheduledExecutorService flusher;
+    //Only one flush at a time, so the batches reach the back in order.
+    private final Object flushLock = new Object();
+    //Last change of every NIF not written to the back yet: the person, or
+    //null if it has been deleted.
+    private LinkedHashMap<String, Person> pending = new LinkedHashMap<>();
+    //A deleteAll not written yet, which goes before the changes queued.
+    private boolean deleteAllPending;
+    private boolean flushRequested;
+    private boolean closed;
+    private volatile Consumer<Exception> errorListener;
+
+    /**
+     * @param back durable storage system, flushed every second with room for
+     * 10000 NIFs in the queue
+     * @throws Exception if the people of back can not be read
+     */
+    public WriteBehindDAO(IDAO back) throws Exception {
+        this(back, DEFAULT_INTERVAL, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * @param back durable storage system
+     * @param interval milliseconds between flushes
+     * @param maxPending NIFs in the queue before writes wait
+     * @throws Exception if the people of back can not be read
+     */
+    public WriteBehindDAO(IDAO back, long interval, int maxPending) throws Exception {
+        if (interval < 1 || maxPending < 1) {
+            throw new IllegalArgumentException("The interval and the queue size must be positive.");
+        }
+        this.back = back;
+        this.maxPending = maxPending;
+        try (Stream<Person> people = back.stream()) {
+            for (Person p : (Iterable<Person>) people::iterator) {
+                front.insert(p);
+            }
+        }
+        flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "People write-behind flush");
+            t.setDaemon(true);
+            return t;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, interval, interval, TimeUnit.MILLISECONDS);
+    }
+
+    public IDAO getDAO() {
+        return back;
+    }
+
+    @Override
+    public synchronized Person read(Person p) {
+        return front.read(p);
+    }
+
+    @Override
+    public synchronized ArrayList<Person> readAll() {
+        return front.readAll();
+    }
+
+    @Override
+    public synchronized int count() {
+        return front.count();
+    }
+
+    @Override
+    public synchronized boolean exists(String nif) {
+        return front.exists(nif);
+    }
+
+    @Override
+    public synchronized void insert(Person p) throws IOException {
+        awaitRoom(p.getNif());
+        front.insert(p);
+        queue(p.getNif(), p);
+    }
+
+    @Override
+    public synchronized void update(Person p) throws IOException {
+        awaitRoom(p.getNif());
+        if (front.exists(p.getNif())) {
+            front.update(p);
+            queue(p.getNif(), p);
+        }
+    }
+
+    @Override
+    public synchronized void update(Person p, long expectedVersion) throws IOException, PersonException {
+        awaitRoom(p.getNif());
+        VersionConflictException.check(front.read(p), p.getNif(), expectedVersion);
+        //Stored with the next version.
+        front.update(p);
+        queue(p.getNif(), p);
+    }
+
+    @Override
+    public synchronized void upsert(Person p) throws IOException {
+        awaitRoom(p.getNif());
+        front.upsert(p);
+        queue(p.getNif(), p);
+    }
+
+    @Override
+    public synchronized void delete(Person p) throws IOException {
+        awaitRoom(p.getNif());
+        if (front.exists(p.getNif())) {
+            front.delete(p);
+            queue(p.getNif(), null);
+        }
+    }
+
+    /**
+     * The changes queued are dropped: the deleteAll written in their place
+     * removes them anyway.
+     */
+    @Override
+    public synchronized void deleteAll() throws IOException {
+        checkOpen();
+        front.deleteAll();
+        pending.clear();
+        deleteAllPending = true;
+        notifyAll();
+    }
+
+    /**
+     * @param listener receives the error of every background flush that
+     * fails, on the flush thread; the changes not written are kept queued
+     */
+    public void setErrorListener(Consumer<Exception> listener) {
+        errorListener = listener;
+    }
+
+    /**
+     * @return number of NIFs whose last change is not in the back yet
+     */
+    public synchronized int getPending() {
+        return pending.size() + (deleteAllPending ? 1 : 0);
+    }
+
+    /**
+     * Writes the whole queue to the back, batch after batch, and returns
+     * when it is done.
+     * @throws Exception the error of the back; the batch that failed is
+     * queued again
+     */
+    public void flush() throws Exception {
+        synchronized (flushLock) {
+            while (true) {
+                boolean deleteAll;
+                LinkedHashMap<String, Person> batch = new LinkedHashMap<>();
+                synchronized (this) {
+                    flushRequested = false;
+                    deleteAll = deleteAllPending;
+                    deleteAllPending = false;
+                    Iterator<Map.Entry<String, Person>> changes = pending.entrySet().iterator();
+                    while (changes.hasNext() && batch.size() < BATCH_SIZE) {
+                        Map.Entry<String, Person> change = changes.next();
+                        batch.put(change.getKey(), change.getValue());
+                        changes.remove();
+                    }
+                    if (!deleteAll && batch.isEmpty()) {
+                        return;
+                    }
+                    //Room for the writes waiting.
+                    notifyAll();
+                }
+                LinkedHashMap<String, Person> failed;
+                try {
+                    if (deleteAll) {
+                        back.deleteAll();
+                        deleteAll = false;
+                    }
+                    failed = write(batch);
+                } catch (Exception ex) {
+                    requeue(deleteAll, batch);
+                    throw ex;
+                }
+                if (!failed.isEmpty()) {
+                    requeue(false, failed);
+                    throw new IOException(failed.size() + " people could not be saved.");
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the background flushes and writes the whole queue to the back.
+     * Writes made afterwards fail. The back is not closed.
+     * @throws Exception if the queue can not be written; it is kept
+     */
+    public void close() throws Exception {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(1, TimeUnit.MINUTES);
+        flush();
+    }
+
+    /**
+     * The people are inserted and the ones already registered updated, so
+     * the back needs no exists() per person.
+     * @return the changes of the batch that were not written
+     */
+    private LinkedHashMap<String, Person> write(LinkedHashMap<String, Person> batch) throws Exception {
+        ArrayList<Person> saved = new ArrayList<>();
+        ArrayList<Person> deleted = new ArrayList<>();
+        for (Map.Entry<String, Person> change : batch.entrySet()) {
+            if (change.getValue() != null) {
+                saved.add(change.getValue());
+            } else {
+                deleted.add(new Person(change.getKey()));
+            }
+        }
+        LinkedHashMap<String, Person> failed = new LinkedHashMap<>();
+        if (!saved.isEmpty()) {
+            ArrayList<Person> registered = new ArrayList<>();
+            for (BatchReport.Result result : back.insertAll(saved).getResults()) {
+                if (result.getStatus() == BatchReport.Status.SKIPPED) {
+                    registered.add(batch.get(result.getNif()));
+                } else if (result.getStatus() == BatchReport.Status.FAILED) {
+                    failed.put(result.getNif(), batch.get(result.getNif()));
+                }
+            }
+            if (!registered.isEmpty()) {
+                for (BatchReport.Result result : back.updateAll(registered).getResults()) {
+                    //Skipped if deleted since the insert: the next flush inserts it.
+                    if (result.getStatus() != BatchReport.Status.DONE) {
+                        failed.put(result.getNif(), batch.get(result.getNif()));
+                    }
+                }
+            }
+        }
+        if (!deleted.isEmpty()) {
+            //The ones skipped are not registered, as wanted.
+            for (BatchReport.Result result : back.deleteAll(deleted).getResults()) {
+                if (result.getStatus() == BatchReport.Status.FAILED) {
+                    failed.put(result.getNif(), null);
+                }
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Puts a batch that failed back in front of the queue, except the NIFs
+     * changed again since, whose newer change is the one to write. If a
+     * deleteAll has been queued since, the batch is older than it and is
+     * dropped.
+     */
+    private synchronized void requeue(boolean deleteAll, LinkedHashMap<String, Person> batch) {
+        if (deleteAllPending) {
+            return;
+        }
+        deleteAllPending = deleteAll;
+        LinkedHashMap<String, Person> queue = new LinkedHashMap<>();
+        for (Map.Entry<String, Person> change : batch.entrySet()) {
+            if (!pending.containsKey(change.getKey())) {
+                queue.put(change.getKey(), change.getValue());
+            }
+        }
+        queue.putAll(pending);
+        pending = queue;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (Exception ex) {
+            Logger.getLogger(WriteBehindDAO.class.getName()).log(Level.SEVERE, null, ex);
+            Consumer<Exception> listener = errorListener;
+            if (listener != null) {
+                listener.accept(ex);
+            }
+        }
+    }
+
+    /**
+     * Under the lock, before the change is made in the map: waits while the
+     * queue is full, unless the NIF is already queued, as its change replaces
+     * the queued one.
+     */
+    private void awaitRoom(String nif) throws IOException {
+        checkOpen();
+        try {
+            while (pending.size() >= maxPending && !pending.containsKey(nif)) {
+                wait();
+                checkOpen();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for the flush.", ex);
+        }
+    }
+
+    private void queue(String nif, Person p) {
+        pending.put(nif, p);
+        if (pending.size() >= BATCH_SIZE && !flushRequested) {
+            flushRequested = true;
+            flusher.execute(this::flushQuietly);
+        }
+    }
+
+    private void checkOpen() throws IOException {
+        if (closed) {
+            throw new IOException("The storage system has been closed.");
+        }
+    }
+
+}
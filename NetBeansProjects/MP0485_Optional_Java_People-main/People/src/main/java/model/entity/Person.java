@@ -8,6 +8,7 @@ import javax.persistence.Entity;
 import javax.persistence.Id;
 import javax.persistence.Lob;
 import javax.persistence.Transient;
+import javax.persistence.Version;
 import javax.swing.ImageIcon;
 
 /**
@@ -18,6 +19,10 @@ import javax.swing.ImageIcon;
 @Entity
 public class Person implements Serializable{
 
+    //The one of the class before the version was added, so the people saved
+    //with Java serialization can still be read.
+    private static final long serialVersionUID = 8580812896466559751L;
+
     @Id 
     private String nif;
     private String name;
@@ -29,6 +34,9 @@ public class Person implements Serializable{
     private ImageIcon photo;
     @Lob
     private byte[] photoOnlyJPA;
+    //Number of the last update, checked by IDAO.update(p, expectedVersion).
+    @Version
+    private long version;
 
     public Person(){
         
@@ -86,6 +94,19 @@ public class Person implements Serializable{
         this.photo = photo;
         this.photoOnlyJPA = photoOnlyJPA;
     }
+
+    /**
+     * Copy of another person, e.g. to hand it to another thread while the
+     * original can still be changed. The photo is shared: an ImageIcon is
+     * not changed once loaded.
+     * @param p person copied
+     */
+    public Person(Person p) {
+        this(p.nif, p.name, p.dateOfBirth != null ? new Date(p.dateOfBirth.getTime()) : null,
+                p.email, p.postalCode, p.photo, p.photoOnlyJPA != null ? p.photoOnlyJPA.clone() : null);
+        this.phoneNumber = p.phoneNumber;
+        this.version = p.version;
+    }
     
     //Getters and Setters
     public String getName() {
@@ -151,6 +172,14 @@ public class Person implements Serializable{
     public void setPostalCode(String postalCode) {
         this.postalCode = postalCode;
     }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
   
         
     /**
@@ -0,0 +1,77 @@
+package model.entity;
+
+import java.util.Date;
+
+/**
+ * Read-only view of a person for listings: every field except the photo, of
+ * which it only says whether there is one. Storage systems build it without
+ * reading or decoding the image.
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class PersonSummary {
+
+    private final String nif;
+    private final String name;
+    private final Date dateOfBirth;
+    private final String email;
+    private final String postalCode;
+    private final String phoneNumber;
+    private final boolean hasPhoto;
+
+    public PersonSummary(String nif, String name, Date dateOfBirth, String email, String postalCode, String phoneNumber, boolean hasPhoto) {
+        this.nif = nif;
+        this.name = name;
+        this.dateOfBirth = dateOfBirth;
+        this.email = email;
+        this.postalCode = postalCode;
+        this.phoneNumber = phoneNumber;
+        this.hasPhoto = hasPhoto;
+    }
+
+    /**
+     * Summary of a person already read, photo included.
+     * @param p person
+     * @return PersonSummary
+     */
+    public static PersonSummary of(Person p) {
+        return new PersonSummary(p.getNif(), p.getName(), p.getDateOfBirth(), p.getEmail(), p.getPostalCode(),
+                p.getPhoneNumber(), p.getPhoto() != null || p.getPhotoOnlyJPA() != null);
+    }
+
+    public String getNif() {
+        return nif;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Date getDateOfBirth() {
+        return dateOfBirth;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getPostalCode() {
+        return postalCode;
+    }
+
+    public String getPhoneNumber() {
+        return phoneNumber;
+    }
+
+    public boolean hasPhoto() {
+        return hasPhoto;
+    }
+
+    @Override
+    public String toString() {
+        return "PersonSummary {" + "Name = " + name + ", NIF = " + nif
+                + ", DateOfBirth = " + dateOfBirth + ", Photo = " + hasPhoto + ", Email = " + email
+                + ", Postal Code = " + postalCode + "}";
+    }
+
+}
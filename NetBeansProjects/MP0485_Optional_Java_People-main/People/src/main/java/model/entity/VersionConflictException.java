@@ -0,0 +1,47 @@
+package model.entity;
+
+/**
+ * PersonException thrown when a person is updated with the version it had
+ * when it was read and someone else has updated it since, so the update
+ * would overwrite their changes.
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class VersionConflictException extends PersonException {
+
+    private final long expectedVersion;
+    private final long actualVersion;
+
+    public VersionConflictException(String nif, long expectedVersion, long actualVersion) {
+        super(nif + " has been updated by someone else (version " + actualVersion
+                + ", not " + expectedVersion + ") and can not be UPDATED.");
+        this.expectedVersion = expectedVersion;
+        this.actualVersion = actualVersion;
+    }
+
+    public long getExpectedVersion() {
+        return expectedVersion;
+    }
+
+    public long getActualVersion() {
+        return actualVersion;
+    }
+
+    /**
+     * Checks that the registered person has the expected version.
+     * @param current registered person or null
+     * @param nif NIF of the person to update
+     * @param expectedVersion version it had when it was read
+     * @throws PersonException if it is not registered, a
+     * VersionConflictException if it has another version
+     */
+    public static void check(Person current, String nif, long expectedVersion) throws PersonException {
+        if (current == null) {
+            throw new PersonException(nif + " is not registered and can not be UPDATED.");
+        }
+        if (current.getVersion() != expectedVersion) {
+            throw new VersionConflictException(nif, expectedVersion, current.getVersion());
+        }
+    }
+
+}
@@ -11,6 +11,10 @@ public enum Routes {
     APPIMAGES("images", null, null, null, null, null, null, null, null),
     FILE ("File", "Photos", "dataFile.txt", null, null, null, null, null, null),
     FILES ("FileSer", null, "dataFile.ser", null, null, null, null, null, null ),
+    FILELOG ("FileLog", "Photos", "dataFile.log", null, null, null, null, null, null),
+    FILEMAP ("FileMap", "Photos", "dataFile.map", null, null, null, null, null, null),
+    FILEWAL ("FileWal", null, "dataFile.wal", null, null, null, null, null, null),
+    FILELSM ("FileLSM", null, "MANIFEST", null, null, null, null, null, null),
     DB("SQL_DataBase", "Photos", null, "jdbc:mysql://localhost:3306", "?useSSL=false&useTimezone=true&serverTimezone=UTC&allowPublicKeyRetrieval=true", "root", "root", "People", "person"),
     DB2("SQL_DataBase", "Photos", null, "jdbc:mysql://localhost:3306", "?useSSL=false&useTimezone=true&serverTimezone=UTC&allowPublicKeyRetrieval=true", "root", "root", "People", "user"),
     DB3("SQL_DataBase", "Photos", null, "jdbc:mysql://localhost:3306", "?useSSL=false&useTimezone=true&serverTimezone=UTC&allowPublicKeyRetrieval=true", "root", "root", "People", "admin"),
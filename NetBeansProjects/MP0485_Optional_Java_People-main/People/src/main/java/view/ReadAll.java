@@ -1,5 +1,7 @@
 package view;
 
+import javax.swing.JButton;
+import javax.swing.JScrollPane;
 import javax.swing.JTable;
 import javax.swing.table.DefaultTableCellRenderer;
 
@@ -23,7 +25,6 @@ public class ReadAll extends javax.swing.JDialog {
         table.getColumnModel().getColumn(5).setCellRenderer( centerRenderer );
         table.getColumnModel().getColumn(6).setCellRenderer( centerRenderer );
         setLocationRelativeTo(null);
-        exportButton.addActionListener(e -> exportToCSV());
 
     }
 
@@ -31,38 +32,14 @@ public class ReadAll extends javax.swing.JDialog {
         return table;
     }
     
-    private void exportToCSV() {
-    try {
-        String filename = "people_data_" + new java.text.SimpleDateFormat("yyyyMMdd").format(new java.util.Date()) + ".csv";
-        java.io.FileWriter fw = new java.io.FileWriter(filename);
-
-        // Write column names
-        for (int i = 0; i < table.getColumnCount(); i++) {
-            fw.write(table.getColumnName(i));
-            if (i < table.getColumnCount() - 1) fw.write(",");
-        }
-        fw.write("\n");
-
-        // Write rows
-        for (int i = 0; i < table.getRowCount(); i++) {
-            for (int j = 0; j < table.getColumnCount(); j++) {
-                fw.write(table.getValueAt(i, j).toString());
-                if (j < table.getColumnCount() - 1) fw.write(",");
-            }
-            fw.write("\n");
-        }
-
-        fw.close();
-        javax.swing.JOptionPane.showMessageDialog(this, "Exported to CSV!");
-
-    } catch (Exception ex) {
-        ex.printStackTrace();
-        javax.swing.JOptionPane.showMessageDialog(this, "Error exporting: " + ex.getMessage());
+    public JButton getExport() {
+        return exportButton;
     }
-}
 
+    public JScrollPane getScrollPane() {
+        return jScrollPane1;
+    }
 
-    
     /**
      * This method is called from within the constructor to initialize the form.
      * WARNING: Do NOT modify this code. The content of this method is always
@@ -0,0 +1,51 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import model.entity.Person;
+
+class AsyncDAOTest {
+
+    @Test
+    void testCallsCompleteWithTheResultOrTheException() throws Exception {
+        AsyncDAO async = new AsyncDAO(new DAOConcurrentHashMap() {
+            @Override
+            public void delete(Person p) {
+                throw new IllegalStateException("Not deleted.");
+            }
+        }, 4);
+        List<CompletableFuture<Void>> inserts = new ArrayList<>();
+        //More than two pages of forEachSummary.
+        for (int i = 0; i < 1200; i++) {
+            inserts.add(async.insert(new Person(nif(i))));
+        }
+        CompletableFuture.allOf(inserts.toArray(CompletableFuture<?>[]::new)).get();
+        assertEquals(1200, async.count().get());
+        List<String> nifs = new ArrayList<>();
+        assertEquals(1200, async.forEachSummary(p -> nifs.add(p.getNif())).get());
+        assertEquals(nif(1199), nifs.get(1199));
+        assertEquals(1200, new HashSet<>(nifs).size());
+
+        ExecutionException ex = assertThrows(ExecutionException.class,
+                () -> async.delete(new Person(nif(0))).get());
+        assertTrue(ex.getCause() instanceof IllegalStateException);
+
+        async.close();
+        ex = assertThrows(ExecutionException.class, () -> async.count().get());
+        assertTrue(ex.getCause() instanceof RejectedExecutionException);
+    }
+
+    @Test
+    void testLimitPerStorageSystem() {
+        assertEquals(1, AsyncDAO.limitFor(new DAOArrayList()));
+        assertThrows(IllegalArgumentException.class, () -> new AsyncDAO(new DAOArrayList(), 0));
+    }
+
+}
@@ -0,0 +1,80 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.TreeMap;
+
+class BPlusTreeIndexTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void testPutGetRemoveWithSplits() throws Exception {
+        BPlusTreeIndex index = new BPlusTreeIndex(new File(folder, "test.idx"));
+        //Inserted out of order so leaves and internal pages split everywhere.
+        for (int i = 0; i < 50000; i++) {
+            int key = (i * 7919) % 50000;
+            index.put(nif(key), key);
+        }
+        assertEquals(50000, index.size());
+        for (int i = 0; i < 50000; i += 97) {
+            assertEquals(i, index.get(nif(i)));
+        }
+        index.put(nif(10), 99);
+        assertEquals(99, index.get(nif(10)));
+        assertEquals(50000, index.size());
+
+        index.remove(nif(10));
+        assertFalse(index.contains(nif(10)));
+        assertEquals(-1, index.get("not a nif at all, too long"));
+        assertEquals(49999, index.size());
+        index.close();
+    }
+
+    @Test
+    void testRangeIsOrdered() throws Exception {
+        BPlusTreeIndex index = new BPlusTreeIndex(new File(folder, "test.idx"));
+        for (int i = 1000; i > 0; i--) {
+            index.put(nif(i), i);
+        }
+        LinkedHashMap<String, Long> range = index.range(nif(100), nif(199), 0);
+        assertEquals(100, range.size());
+        assertEquals(new ArrayList<>(new TreeMap<>(range).keySet()), new ArrayList<>(range.keySet()));
+        assertEquals(nif(100), range.keySet().iterator().next());
+
+        assertEquals(3, index.range(nif(998), null, 0).size());
+        assertEquals(10, index.range(null, null, 10).size());
+        index.close();
+    }
+
+    @Test
+    void testRebuildSurvivesReopen() throws Exception {
+        File file = new File(folder, "test.idx");
+        File dataFile = new File(folder, "data.txt");
+        dataFile.createNewFile();
+        BPlusTreeIndex index = new BPlusTreeIndex(file);
+        assertTrue(index.isStale(dataFile));
+        TreeMap<String, Long> entries = new TreeMap<>();
+        for (int i = 0; i < 100000; i++) {
+            entries.put(nif(i), (long) i * 10);
+        }
+        index.rebuild(entries.entrySet().iterator());
+        index.sync(dataFile);
+        index.close();
+
+        index = new BPlusTreeIndex(file);
+        assertFalse(index.isStale(dataFile));
+        assertEquals(100000, index.size());
+        assertEquals(123450, index.get(nif(12345)));
+        assertEquals(3, index.range(nif(99997), null, 0).size());
+        index.put(nif(100000), 1);
+        assertEquals(1, index.get(nif(100000)));
+        index.close();
+    }
+}
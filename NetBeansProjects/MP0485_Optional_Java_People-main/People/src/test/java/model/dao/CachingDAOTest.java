@@ -0,0 +1,106 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import model.entity.Person;
+
+class CachingDAOTest {
+
+    //Counts the reads that reach the storage system.
+    private static class CountingDAO extends DAOHashMap {
+
+        private int reads;
+
+        @Override
+        public Person read(Person p) {
+            reads++;
+            return super.read(p);
+        }
+    }
+
+    @Test
+    void testHitsMissesAndInvalidation() throws Exception {
+        CountingDAO backend = new CountingDAO();
+        CachingDAO dao = new CachingDAO(backend);
+        dao.insert(person(1));
+        assertEquals("Person 1", dao.read(person(1)).getName());
+        assertEquals("Person 1", dao.read(person(1)).getName());
+        //Negative caching.
+        assertNull(dao.read(person(2)));
+        assertNull(dao.read(person(2)));
+        assertFalse(dao.exists(person(2).getNif()));
+        assertEquals(2, backend.reads);
+        assertEquals(3, dao.getHits());
+        assertEquals(2, dao.getMisses());
+
+        dao.insert(person(2));
+        assertTrue(dao.exists(person(2).getNif()));
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(person(1)).getName());
+        dao.delete(person(1));
+        assertNull(dao.read(person(1)));
+        dao.deleteAll();
+        assertEquals(0, dao.size());
+        assertNull(dao.read(person(2)));
+    }
+
+    @Test
+    void testEvictsProbationBeforeProtected() throws Exception {
+        CountingDAO backend = new CountingDAO();
+        CachingDAO dao = new CachingDAO(backend, 10, Long.MAX_VALUE);
+        for (int i = 0; i < 5; i++) {
+            dao.insert(person(i));
+            dao.read(person(i));
+            dao.read(person(i));
+        }
+        //A scan of NIFs read once.
+        for (int i = 100; i < 200; i++) {
+            dao.read(person(i));
+        }
+        assertEquals(10, dao.size());
+        backend.reads = 0;
+        for (int i = 0; i < 5; i++) {
+            dao.read(person(i));
+        }
+        assertEquals(0, backend.reads);
+    }
+
+    @Test
+    void testEntriesExpire() throws Exception {
+        CountingDAO backend = new CountingDAO();
+        CachingDAO dao = new CachingDAO(backend, 1000, Long.MAX_VALUE, 60_000, 50);
+        assertFalse(dao.exists(person(1).getNif()));
+        //Another client registers it.
+        backend.insert(person(1));
+        assertFalse(dao.exists(person(1).getNif()));
+        Thread.sleep(100);
+        assertTrue(dao.exists(person(1).getNif()));
+        assertEquals("Person 1", dao.read(person(1)).getName());
+        assertEquals("Person 1", dao.read(person(1)).getName());
+        assertEquals(1, backend.reads);
+
+        dao = new CachingDAO(backend, 1000, Long.MAX_VALUE, 50, 50);
+        dao.read(person(1));
+        dao.read(person(1));
+        Thread.sleep(100);
+        assertEquals("Person 1", dao.read(person(1)).getName());
+        assertEquals(3, backend.reads);
+        assertEquals(1, dao.size());
+    }
+
+    @Test
+    void testBoundedByBytes() throws Exception {
+        //All of them weigh the same.
+        CachingDAO dao = new CachingDAO(new DAOHashMap(), 1000, 10 * CachingDAO.weigh(person(10)));
+        for (int i = 10; i < 60; i++) {
+            dao.insert(person(i));
+            dao.read(person(i));
+        }
+        assertEquals(10 * CachingDAO.weigh(person(10)), dao.bytes());
+        assertEquals(10, dao.size());
+    }
+
+}
@@ -0,0 +1,108 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+
+class DAOConcurrentHashMapTest {
+
+    @Test
+    void testConcurrentWritersAndReaders() throws Exception {
+        DAOConcurrentHashMap dao = new DAOConcurrentHashMap();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        ArrayList<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            int first = t * 2000;
+            tasks.add(executor.submit(() -> {
+                for (int i = first; i < first + 2000; i++) {
+                    dao.insert(person(i));
+                    Person updated = person(i);
+                    updated.setName("Updated " + i);
+                    dao.update(updated);
+                    if (i % 2 == 0) {
+                        dao.delete(person(i));
+                    }
+                }
+                return null;
+            }));
+        }
+        for (int t = 0; t < 4; t++) {
+            tasks.add(executor.submit(() -> {
+                for (int i = 0; i < 200; i++) {
+                    for (Person p : dao.readAll()) {
+                        assertNotNull(p.getNif());
+                    }
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        assertEquals(4000, dao.readAll().size());
+        assertEquals("Updated 7", dao.read(person(7)).getName());
+        assertNull(dao.read(person(8)));
+    }
+
+    @Test
+    void testUpdateOnlyReplaces() {
+        DAOConcurrentHashMap dao = new DAOConcurrentHashMap();
+        dao.update(person(1));
+        assertNull(dao.read(person(1)));
+        dao.insert(person(1));
+        dao.deleteAll();
+        assertTrue(dao.readAll().isEmpty());
+    }
+
+    @Test
+    void testDefaultPageIsSortedByNif() throws Exception {
+        DAOConcurrentHashMap dao = new DAOConcurrentHashMap();
+        for (int i = 50; i > 0; i--) {
+            dao.insert(person(i));
+        }
+        ArrayList<Person> page = dao.readPage(person(20).getNif(), 5);
+        assertEquals(5, page.size());
+        for (int i = 0; i < 5; i++) {
+            assertEquals(person(21 + i).getNif(), page.get(i).getNif());
+        }
+        assertEquals(2, dao.readPage(person(48).getNif(), 5).size());
+    }
+
+    @Test
+    void testOnlyOneEditOfTheSameVersionWins() throws Exception {
+        DAOConcurrentHashMap dao = new DAOConcurrentHashMap();
+        dao.insert(person(1));
+        long read = dao.read(person(1)).getVersion();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        ArrayList<Future<Boolean>> edits = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            Person edited = person(1);
+            edited.setName("Edit " + t);
+            edits.add(executor.submit(() -> {
+                try {
+                    dao.update(edited, read);
+                    return true;
+                } catch (VersionConflictException ex) {
+                    return false;
+                }
+            }));
+        }
+        int won = 0;
+        for (Future<Boolean> edit : edits) {
+            won += edit.get() ? 1 : 0;
+        }
+        executor.shutdown();
+        assertEquals(1, won);
+        assertEquals(read + 1, dao.read(person(1)).getVersion());
+        assertThrows(PersonException.class, () -> dao.update(person(2), 0));
+    }
+
+}
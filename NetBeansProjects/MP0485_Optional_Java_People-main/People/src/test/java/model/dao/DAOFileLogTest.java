@@ -0,0 +1,153 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Date;
+import model.entity.Person;
+
+class DAOFileLogTest {
+
+    @TempDir
+    File folder;
+
+    //Dates are stored as days, so they are local midnights.
+    private Date date(int epochDay) {
+        return Date.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private Person person(int i) {
+        Person p = new Person("Person " + i, nif(i), date(i), null);
+        p.setEmail("person" + i + "@mail.com");
+        p.setPostalCode("08" + String.format("%03d", i % 1000));
+        return p;
+    }
+
+    //Appends a record in the format of SegmentLog.
+    private void append(File segment, byte kind, String nif, byte[] payload) throws IOException {
+        byte[] key = nif.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(4 + 1 + 2 + key.length + payload.length);
+        frame.putInt(frame.capacity() - 4).put(kind).putShort((short) key.length).put(key).put(payload);
+        try (FileOutputStream out = new FileOutputStream(segment, true)) {
+            out.write(frame.array());
+        }
+    }
+
+    @Test
+    void testInsertReadUpdateDelete() throws Exception {
+        DAOFileLog dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        dao.insert(person(1));
+        dao.insert(person(2));
+        assertEquals("Person 1", dao.read(new Person(nif(1))).getName());
+        assertEquals("person2@mail.com", dao.read(new Person(nif(2))).getEmail());
+
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(new Person(nif(1))).getName());
+        //Every write of a registered person stores the next version.
+        assertEquals(1, updated.getVersion());
+        dao.upsert(person(1));
+        assertEquals(2, dao.read(new Person(nif(1))).getVersion());
+
+        dao.delete(new Person(nif(2)));
+        assertNull(dao.read(new Person(nif(2))));
+        assertEquals(1, dao.readAll().size());
+        dao.close();
+    }
+
+    @Test
+    void testReopenReplaysLog() throws Exception {
+        DAOFileLog dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        for (int i = 0; i < 10; i++) {
+            dao.insert(person(i));
+        }
+        dao.delete(new Person(nif(3)));
+        dao.close();
+
+        dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        assertEquals(9, dao.readAll().size());
+        assertEquals(9, dao.count());
+        assertNull(dao.read(new Person(nif(3))));
+        assertEquals(date(5), dao.read(new Person(nif(5))).getDateOfBirth());
+        dao.close();
+    }
+
+    @Test
+    void testTornTailIsDiscarded() throws Exception {
+        DAOFileLog dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        dao.insert(person(1));
+        dao.insert(person(2));
+        dao.close();
+        try (RandomAccessFile raf = new RandomAccessFile(new File(folder, "segment-000000.log"), "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        assertNotNull(dao.read(new Person(nif(1))));
+        assertNull(dao.read(new Person(nif(2))));
+        dao.insert(person(3));
+        assertNotNull(dao.read(new Person(nif(3))));
+        dao.close();
+    }
+
+    @Test
+    void testCompactionKeepsLatestState() throws Exception {
+        DAOFileLog dao = new DAOFileLog(folder, new File(folder, "Photos"), 512);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 50; i++) {
+                Person p = person(i);
+                p.setName("Round " + round);
+                dao.update(p);
+            }
+        }
+        for (int i = 0; i < 10; i++) {
+            dao.delete(new Person(nif(i)));
+        }
+        dao.close();
+
+        dao = new DAOFileLog(folder, new File(folder, "Photos"), 512);
+        assertEquals(40, dao.readAll().size());
+        assertNull(dao.read(new Person(nif(5))));
+        assertEquals("Round 4", dao.read(new Person(nif(42))).getName());
+        dao.deleteAll();
+        assertTrue(dao.readAll().isEmpty());
+        dao.close();
+    }
+
+    @Test
+    void testCompactionCutByACrashIsFinished() throws Exception {
+        //Segment 0 has a put of 1, segment 1 its tombstone and a put of 2.
+        //The compaction had published the merged segment, without the
+        //tombstone, but had not deleted the sources yet.
+        append(new File(folder, "segment-000000.log"), SegmentLog.PUT, nif(1), PersonCodec.encode(person(1)));
+        append(new File(folder, "segment-000001.log"), SegmentLog.TOMBSTONE, nif(1), new byte[0]);
+        append(new File(folder, "segment-000001.log"), SegmentLog.PUT, nif(2), PersonCodec.encode(person(2)));
+        append(new File(folder, "segment-000001.log.merged"), SegmentLog.PUT, nif(2), PersonCodec.encode(person(2)));
+        append(new File(folder, "segment-000002.log"), SegmentLog.PUT, nif(3), PersonCodec.encode(person(3)));
+
+        DAOFileLog dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        assertNull(dao.read(new Person(nif(1))));
+        assertEquals("Person 2", dao.read(new Person(nif(2))).getName());
+        assertEquals("Person 3", dao.read(new Person(nif(3))).getName());
+        assertFalse(new File(folder, "segment-000000.log").exists());
+        assertFalse(new File(folder, "segment-000001.log.merged").exists());
+        dao.close();
+
+        //A compaction cut before it published anything leaves the sources.
+        append(new File(folder, "segment-000002.log.compact"), SegmentLog.PUT, nif(4), PersonCodec.encode(person(4)));
+        dao = new DAOFileLog(folder, new File(folder, "Photos"));
+        assertEquals(2, dao.count());
+        assertFalse(new File(folder, "segment-000002.log.compact").exists());
+        dao.close();
+    }
+}
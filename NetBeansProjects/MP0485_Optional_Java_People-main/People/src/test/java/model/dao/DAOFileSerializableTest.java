@@ -0,0 +1,131 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import model.entity.Person;
+
+class DAOFileSerializableTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void testLegacyFileIsMigrated() throws Exception {
+        File legacy = new File(folder, "dataFile.ser");
+        ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(legacy));
+        oos.writeObject(new Person("Ana", nif(1)));
+        oos.writeObject(new Person("Joan", nif(2)));
+        oos.close();
+
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        assertEquals(0, legacy.length());
+        assertEquals("Joan", dao.read(new Person(nif(2))).getName());
+        assertEquals(2, dao.readAll().size());
+        dao.close();
+    }
+
+    @Test
+    void testAppendsSurviveCompactionAndReopen() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder, 2048);
+        for (int round = 0; round < 4; round++) {
+            for (int i = 0; i < 40; i++) {
+                dao.update(new Person("Round " + round, nif(i)));
+            }
+        }
+        for (int i = 0; i < 40; i += 2) {
+            dao.delete(new Person(nif(i)));
+        }
+        dao.close();
+
+        dao = new DAOFileSerializable(folder, 2048);
+        assertEquals(20, dao.readAll().size());
+        assertNull(dao.read(new Person(nif(4))));
+        assertEquals("Round 3", dao.read(new Person(nif(5))).getName());
+        dao.close();
+    }
+
+    @Test
+    void testStaleIndexIsRebuilt() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        dao.insert(new Person("Ana", nif(1)));
+        dao.close();
+        new File(folder, "dataFile.idx").delete();
+
+        dao = new DAOFileSerializable(folder);
+        assertEquals("Ana", dao.read(new Person(nif(1))).getName());
+        dao.deleteAll();
+        assertTrue(dao.readAll().isEmpty());
+        dao.close();
+    }
+
+    @Test
+    void testStreamReadsEveryChunkInOrder() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        for (int i = 600; i > 0; i--) {
+            dao.insert(new Person("Person " + i, nif(i)));
+        }
+        try (Stream<Person> people = dao.stream()) {
+            List<String> nifs = people.map(Person::getNif).collect(Collectors.toList());
+            assertEquals(600, nifs.size());
+            assertEquals(nif(1), nifs.get(0));
+            assertEquals(nif(257), nifs.get(256));
+            assertEquals(nif(600), nifs.get(599));
+        }
+        dao.close();
+    }
+
+    @Test
+    void testPagesFollowEachOther() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        for (int i = 1; i <= 25; i++) {
+            dao.insert(new Person("Person " + i, nif(i)));
+        }
+        String after = null;
+        int read = 0;
+        for (int page = 0; page < 3; page++) {
+            ArrayList<Person> people = dao.readPage(after, 10);
+            assertEquals(page < 2 ? 10 : 5, people.size());
+            assertEquals(nif(read + 1), people.get(0).getNif());
+            read += people.size();
+            after = people.get(people.size() - 1).getNif();
+        }
+        assertTrue(dao.readPage(after, 10).isEmpty());
+        assertEquals(nif(4), dao.readPage(nif(3), 1).get(0).getNif());
+        dao.close();
+    }
+
+    @Test
+    void testBatchReports() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        BatchReport report = dao.insertAll(List.of(new Person("Ana", nif(1)), new Person("Joan", nif(2)),
+                new Person("Again", nif(1))));
+        assertEquals(2, report.count(BatchReport.Status.DONE));
+        assertEquals(BatchReport.Status.SKIPPED, report.getResults().get(2).getStatus());
+
+        report = dao.updateAll(List.of(new Person("Updated", nif(2)), new Person("Pere", nif(3))));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        assertEquals(1, report.count(BatchReport.Status.SKIPPED));
+        assertEquals(1, dao.read(new Person(nif(2))).getVersion());
+
+        report = dao.deleteAll(List.of(new Person(nif(1)), new Person(nif(3))));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        assertEquals(1, report.count(BatchReport.Status.SKIPPED));
+        dao.close();
+
+        dao = new DAOFileSerializable(folder);
+        assertNull(dao.read(new Person(nif(1))));
+        assertEquals("Updated", dao.read(new Person(nif(2))).getName());
+        assertEquals(1, dao.count());
+        dao.close();
+    }
+
+}
@@ -0,0 +1,151 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import static model.dao.Query.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+class DAOFileTest {
+
+    @TempDir
+    File folder;
+
+    private Person person(int i) {
+        return new Person("Person " + i, nif(i));
+    }
+
+    private String nifs(List<Person> people) {
+        return people.stream().map(p -> p.getNif().substring(6, 8)).collect(Collectors.joining(","));
+    }
+
+    @Test
+    void testOffsetsAfterRewrites() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        for (int i = 0; i < 20; i++) {
+            dao.insert(person(i));
+        }
+        //Every line after the updated one moves forward, then back.
+        Person longer = new Person("A much longer name than before", nif(3));
+        dao.update(longer);
+        for (int i = 0; i < 20; i++) {
+            assertEquals(i == 3 ? longer.getName() : "Person " + i, dao.read(new Person(nif(i))).getName());
+        }
+        dao.update(new Person("P", nif(3)));
+        dao.delete(new Person(nif(7)));
+        assertNull(dao.read(new Person(nif(7))));
+        assertEquals("P", dao.read(new Person(nif(3))).getName());
+        assertEquals("Person 19", dao.read(new Person(nif(19))).getName());
+        assertEquals(19, dao.count());
+
+        //The index saved is the one of the last rewrite.
+        dao = new DAOFile(folder);
+        assertEquals("Person 8", dao.read(new Person(nif(8))).getName());
+        assertEquals(19, dao.count());
+    }
+
+    @Test
+    void testDuplicateNif() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        dao.insert(person(1));
+        //As in a scan, the first line of a NIF is the one that counts.
+        dao.insert(new Person("Second line", nif(1)));
+        assertEquals("Person 1", dao.read(new Person(nif(1))).getName());
+        assertEquals(1, dao.count());
+        //The update replaces the first line and removes the other one.
+        dao.upsert(new Person("Updated", nif(1)));
+        assertEquals("Updated", dao.read(new Person(nif(1))).getName());
+        assertEquals(1, dao.readAll().size());
+    }
+
+    @Test
+    void testStreamReadsLineByLine() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        for (int i = 0; i < 5; i++) {
+            dao.insert(person(i));
+        }
+        try (Stream<Person> people = dao.stream()) {
+            Iterator<Person> iterator = people.iterator();
+            assertEquals(nif(0), iterator.next().getNif());
+            //The file does not need to be read to the end first.
+            dao.insert(person(5));
+            int left = 0;
+            while (iterator.hasNext()) {
+                iterator.next();
+                left++;
+            }
+            assertEquals(5, left);
+        }
+        try (Stream<PersonSummary> summaries = dao.streamSummaries()) {
+            assertEquals(6, summaries.filter(s -> !s.hasPhoto()).count());
+        }
+    }
+
+    @Test
+    void testPages() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        //Out of order; pages follow the NIFs.
+        for (int i = 25; i > 0; i--) {
+            dao.insert(person(i));
+        }
+        assertTrue(dao.readPage(null, 0).isEmpty());
+        assertEquals(nif(1), dao.readPage(null, 1).get(0).getNif());
+        assertEquals("04,05,06", nifs(dao.readPage(nif(3), 3)));
+        assertEquals("24,25", nifs(dao.readPage(nif(23), 10)));
+        assertTrue(dao.readPage(nif(25), 10).isEmpty());
+        assertTrue(dao.readPage(nif(99), 10).isEmpty());
+
+        ArrayList<PersonSummary> summaries = dao.readSummaryPage(nif(10), 2);
+        assertEquals(2, summaries.size());
+        assertEquals(nif(11), summaries.get(0).getNif());
+        assertEquals("Person 12", summaries.get(1).getName());
+        assertTrue(dao.readSummaryPage(nif(25), 2).isEmpty());
+    }
+
+    @Test
+    void testQueries() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        for (int i = 30; i > 0; i--) {
+            dao.insert(person(i));
+        }
+        //Without NIF bounds the file is scanned.
+        Query byName = new Query(prefix(Field.NAME, "Person 1")).orderBy(Field.NIF, false);
+        assertEquals("01,10,11,12,13,14,15,16,17,18,19", nifs(dao.query(byName)));
+        //With them only the range of the index is read; the upper bound is out.
+        Query byNif = new Query(range(Field.NIF, nif(20), nif(23))).orderBy(Field.NIF, true);
+        assertEquals("22,21,20", nifs(dao.query(byNif)));
+        assertEquals("21", nifs(dao.query(new Query(and(equal(Field.NIF, nif(21)),
+                prefix(Field.NAME, "Person"))))));
+        assertTrue(dao.query(new Query(equal(Field.NIF, nif(99)))).isEmpty());
+    }
+
+    @Test
+    void testBatchReports() throws Exception {
+        DAOFile dao = new DAOFile(folder);
+        BatchReport report = dao.insertAll(List.of(person(1), person(2), new Person("Again", nif(1))));
+        assertEquals(2, report.count(BatchReport.Status.DONE));
+        assertEquals(1, report.count(BatchReport.Status.SKIPPED));
+        assertEquals(1, dao.insertAll(List.of(person(2))).count(BatchReport.Status.SKIPPED));
+
+        report = dao.updateAll(List.of(new Person("Updated", nif(2)), person(3)));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        assertEquals(BatchReport.Status.SKIPPED, report.getResults().get(1).getStatus());
+        assertEquals("Updated", dao.read(new Person(nif(2))).getName());
+        assertEquals("Person 1", dao.read(new Person(nif(1))).getName());
+
+        report = dao.deleteAll(List.of(new Person(nif(1)), new Person(nif(1)), new Person(nif(3))));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        assertEquals(2, report.count(BatchReport.Status.SKIPPED));
+        assertNull(dao.read(new Person(nif(1))));
+        assertEquals(1, dao.count());
+    }
+
+}
@@ -0,0 +1,148 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import model.entity.Person;
+
+class DAOHashMapWALTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void testReopenReplaysLog() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        for (int i = 0; i < 10; i++) {
+            dao.insert(person(i));
+        }
+        Person updated = person(4);
+        updated.setName("Updated");
+        dao.update(updated);
+        dao.delete(person(3));
+        dao.close();
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(9, dao.readAll().size());
+        assertNull(dao.read(person(3)));
+        assertEquals("Updated", dao.read(person(4)).getName());
+        dao.deleteAll();
+        dao.insert(person(20));
+        dao.close();
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(1, dao.readAll().size());
+        dao.close();
+    }
+
+    @Test
+    void testUpsertInsertsOrReplaces() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        dao.insert(person(1));
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.upsert(updated);
+        dao.upsert(person(2));
+        dao.close();
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(2, dao.count());
+        assertEquals("Updated", dao.read(person(1)).getName());
+        assertEquals("Person 2", dao.read(person(2)).getName());
+        dao.close();
+    }
+
+    @Test
+    void testSnapshotsReplaceOldLogs() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.INTERVAL, 10, 100);
+        for (int i = 0; i < 1050; i++) {
+            dao.insert(person(i));
+        }
+        dao.snapshot();
+        dao.delete(person(0));
+        dao.close();
+        assertEquals(1, folder.listFiles((dir, name) -> name.endsWith(".snap")).length);
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.INTERVAL, 10, 100);
+        assertEquals(1049, dao.readAll().size());
+        assertEquals("Person 1049", dao.read(person(1049)).getName());
+        dao.close();
+    }
+
+    @Test
+    void testGroupCommitFromManyThreads() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.GROUP_COMMIT, 0);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        ArrayList<Future<?>> tasks = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int first = t * 50;
+            tasks.add(executor.submit(() -> {
+                for (int i = first; i < first + 50; i++) {
+                    dao.insert(person(i));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+        executor.shutdown();
+        dao.close();
+
+        DAOHashMapWAL reopened = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.GROUP_COMMIT, 0);
+        assertEquals(400, reopened.readAll().size());
+        reopened.close();
+    }
+
+    @Test
+    void testTornTailIsDiscarded() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        dao.insert(person(1));
+        dao.insert(person(2));
+        dao.close();
+        File log = folder.listFiles((dir, name) -> name.endsWith(".log"))[0];
+        try (RandomAccessFile raf = new RandomAccessFile(log, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(1, dao.readAll().size());
+        dao.insert(person(3));
+        dao.close();
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(2, dao.readAll().size());
+        dao.close();
+    }
+
+    @Test
+    void testBatchReportsEveryPerson() throws Exception {
+        DAOHashMapWAL dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        dao.insert(person(1));
+        ArrayList<Person> people = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            people.add(person(i));
+        }
+        BatchReport report = dao.insertAll(people);
+        assertEquals(5, report.size());
+        assertEquals(4, report.count(BatchReport.Status.DONE));
+        assertEquals(BatchReport.Status.SKIPPED, report.getResults().get(1).getStatus());
+
+        people.add(person(9));
+        report = dao.deleteAll(people.subList(3, 6));
+        assertEquals(2, report.count(BatchReport.Status.DONE));
+        assertEquals(1, report.count(BatchReport.Status.SKIPPED));
+        dao.close();
+
+        dao = new DAOHashMapWAL(folder, DAOHashMapWAL.SyncPolicy.PER_WRITE, 0);
+        assertEquals(3, dao.count());
+        dao.close();
+    }
+
+}
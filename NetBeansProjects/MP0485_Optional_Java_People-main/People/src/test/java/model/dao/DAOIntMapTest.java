@@ -0,0 +1,72 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import model.entity.Person;
+import model.entity.PersonException;
+
+class DAOIntMapTest {
+
+    @Test
+    void testKey() {
+        assertEquals(12345678, DAOIntMap.key("12345678Z"));
+        assertEquals(0, DAOIntMap.key("00000000T"));
+        assertEquals(-1, DAOIntMap.key("12345678A"));
+        assertEquals(-1, DAOIntMap.key("1234567Z"));
+        assertEquals(-1, DAOIntMap.key("1234a678Z"));
+    }
+
+    @Test
+    void testInsertReadUpdateDelete() throws Exception {
+        DAOIntMap dao = new DAOIntMap();
+        dao.insert(person(1));
+        dao.insert(person(2));
+        assertEquals("Person 1", dao.read(person(1)).getName());
+
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(person(1)).getName());
+        dao.update(person(3));
+        assertNull(dao.read(person(3)));
+
+        dao.delete(person(2));
+        assertNull(dao.read(person(2)));
+        assertEquals(1, dao.readAll().size());
+        assertNull(dao.read(new Person("12345678A")));
+        assertTrue(dao.exists(person(1).getNif()));
+        assertFalse(dao.exists(person(2).getNif()));
+        assertFalse(dao.exists("12345678A"));
+    }
+
+    @Test
+    void testWrongLetterIsRejected() {
+        DAOIntMap dao = new DAOIntMap();
+        assertThrows(PersonException.class, () -> dao.insert(new Person("12345678A")));
+        assertEquals(0, dao.count());
+    }
+
+    @Test
+    void testGrowthAndDeletedSlots() throws Exception {
+        DAOIntMap dao = new DAOIntMap();
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 3000; i++) {
+                dao.insert(person(round * 3000 + i));
+            }
+            for (int i = 0; i < 3000; i++) {
+                dao.delete(person(round * 3000 + i));
+            }
+        }
+        for (int i = 0; i < 10000; i++) {
+            dao.insert(person(i * 7919));
+        }
+        assertEquals(10000, dao.count());
+        assertEquals(10000, dao.readAll().size());
+        assertEquals("Person " + 9999 * 7919, dao.read(person(9999 * 7919)).getName());
+        assertNull(dao.read(person(1)));
+        dao.deleteAll();
+        assertEquals(0, dao.readAll().size());
+    }
+
+}
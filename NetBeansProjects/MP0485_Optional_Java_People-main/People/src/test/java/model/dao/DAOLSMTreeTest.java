@@ -0,0 +1,142 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.TreeMap;
+import model.entity.Person;
+
+class DAOLSMTreeTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void testInsertReadUpdateDelete() throws Exception {
+        DAOLSMTree dao = new DAOLSMTree(folder);
+        dao.insert(person(2));
+        dao.insert(person(1));
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(person(1)).getName());
+        dao.delete(person(2));
+        assertNull(dao.read(person(2)));
+        assertFalse(dao.exists(person(2).getNif()));
+        assertTrue(dao.exists(person(1).getNif()));
+        assertEquals(1, dao.readAll().size());
+        dao.close();
+
+        dao = new DAOLSMTree(folder);
+        assertEquals("Updated", dao.read(person(1)).getName());
+        assertNull(dao.read(person(2)));
+        dao.close();
+    }
+
+    @Test
+    void testFlushAndCompaction() throws Exception {
+        DAOLSMTree dao = new DAOLSMTree(folder, 2048);
+        TreeMap<String, String> expected = new TreeMap<>();
+        for (int i = 0; i < 3000; i++) {
+            int n = (i * 7919) % 1000;
+            Person p = person(n);
+            if (i % 5 == 4) {
+                dao.delete(p);
+                expected.remove(p.getNif());
+            } else {
+                p.setName("Version " + i);
+                dao.insert(p);
+                expected.put(p.getNif(), p.getName());
+            }
+        }
+        dao.close();
+        dao = new DAOLSMTree(folder, 2048);
+        int[] runs = dao.runsPerLevel();
+        assertTrue(runs.length > 1);
+        assertTrue(runs[0] < 4);
+        ArrayList<Person> all = dao.readAll();
+        assertEquals(expected.size(), all.size());
+        assertEquals(expected.size(), dao.count());
+        for (int i = 1; i < all.size(); i++) {
+            assertTrue(all.get(i - 1).getNif().compareTo(all.get(i).getNif()) < 0);
+        }
+        for (Map.Entry<String, String> entry : expected.entrySet()) {
+            assertEquals(entry.getValue(), dao.read(new Person(entry.getKey())).getName());
+        }
+        for (int i = 0; i < 1000; i++) {
+            if (!expected.containsKey(person(i).getNif())) {
+                assertNull(dao.read(person(i)));
+            }
+        }
+        dao.deleteAll();
+        assertTrue(dao.readAll().isEmpty());
+        assertEquals(0, dao.count());
+        dao.close();
+        dao = new DAOLSMTree(folder, 2048);
+        assertTrue(dao.readAll().isEmpty());
+        dao.close();
+    }
+
+    @Test
+    void testTornMemtableLogIsDiscarded() throws Exception {
+        DAOLSMTree dao = new DAOLSMTree(folder);
+        dao.insert(person(1));
+        dao.insert(person(2));
+        dao.close();
+        File[] logs = folder.listFiles((dir, name) -> name.startsWith("memtable-"));
+        assertEquals(1, logs.length);
+        //A torn record whose length would need gigabytes.
+        try (FileOutputStream out = new FileOutputStream(logs[0], true)) {
+            out.write(ByteBuffer.allocate(12).putInt(Integer.MAX_VALUE).putInt(0).putInt(7).array());
+        }
+        dao = new DAOLSMTree(folder);
+        assertEquals(2, dao.count());
+        dao.close();
+
+        //A record with a wrong checksum is not loaded, nor anything after it.
+        logs = folder.listFiles((dir, name) -> name.startsWith("memtable-"));
+        try (FileOutputStream out = new FileOutputStream(logs[0], true)) {
+            byte[] key = nif(3).getBytes("UTF-8");
+            out.write(ByteBuffer.allocate(8 + 2 + key.length + 1).putInt(2 + key.length + 1).putInt(12345)
+                    .putShort((short) key.length).put(key).put((byte) 1).array());
+        }
+        dao = new DAOLSMTree(folder);
+        assertFalse(dao.exists(nif(3)));
+        assertEquals(2, dao.count());
+        dao.close();
+    }
+
+    @Test
+    void testFailedFlushLeavesNoOldLog() throws Exception {
+        DAOLSMTree dao = new DAOLSMTree(folder, 1024);
+        //The first run can not be written; the next flushes wait for it.
+        File blocked = new File(folder, "run-0.sst");
+        assertTrue(blocked.mkdir());
+        for (int i = 0; i < 50; i++) {
+            dao.insert(person(i));
+        }
+        for (int i = 0; i < 10; i++) {
+            dao.delete(person(i));
+        }
+        assertTrue(blocked.delete());
+        for (int i = 50; i < 200; i++) {
+            dao.insert(person(i));
+        }
+        dao.close();
+
+        dao = new DAOLSMTree(folder, 1024);
+        for (int i = 0; i < 10; i++) {
+            assertNull(dao.read(person(i)));
+        }
+        assertEquals(190, dao.count());
+        dao.close();
+    }
+
+}
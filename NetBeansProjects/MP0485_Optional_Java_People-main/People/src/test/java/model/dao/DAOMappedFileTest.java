@@ -0,0 +1,111 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.GregorianCalendar;
+import model.entity.Person;
+import model.entity.PersonException;
+import model.entity.VersionConflictException;
+
+class DAOMappedFileTest {
+
+    @TempDir
+    File folder;
+
+    @Test
+    void testFieldsSurviveReopen() throws Exception {
+        File dataFile = new File(folder, "dataFile.map");
+        DAOMappedFile dao = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        Person p = new Person("Zoë Forneris", "12345678Z",
+                new GregorianCalendar(1985, 4, 12).getTime(), null);
+        p.setEmail("zoe@mail.com");
+        p.setPhoneNumber("600000000");
+        p.setPostalCode("08001");
+        dao.insert(p);
+        dao.close();
+
+        dao = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        Person read = dao.read(new Person("12345678Z"));
+        assertEquals("Zoë Forneris", read.getName());
+        assertEquals(new GregorianCalendar(1985, 4, 12).getTime(), read.getDateOfBirth());
+        assertEquals("zoe@mail.com", read.getEmail());
+        assertEquals("600000000", read.getPhoneNumber());
+        assertEquals("08001", read.getPostalCode());
+        assertNull(read.getPhoto());
+        dao.close();
+    }
+
+    @Test
+    void testGrowsAndReusesFreeSlots() throws Exception {
+        File dataFile = new File(folder, "dataFile.map");
+        DAOMappedFile dao = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        for (int i = 0; i < 3000; i++) {
+            dao.insert(new Person("Person " + i, nif(i)));
+        }
+        long size = dataFile.length();
+        for (int i = 0; i < 100; i++) {
+            dao.delete(new Person(nif(i)));
+        }
+        for (int i = 5000; i < 5100; i++) {
+            dao.insert(new Person("Person " + i, nif(i)));
+        }
+        assertEquals(size, dataFile.length());
+        assertEquals(3000, dao.readAll().size());
+        assertNull(dao.read(new Person(nif(50))));
+        assertEquals("Person 5050", dao.read(new Person(nif(5050))).getName());
+
+        dao.deleteAll();
+        assertTrue(dao.readAll().isEmpty());
+        //The slots are freed in place and an unwritten one does not come back.
+        assertEquals(size, dataFile.length());
+        dao.insert(new Person("After", nif(1)));
+        Person tooLong = new Person("Name", nif(2));
+        tooLong.setPostalCode("0".repeat(20));
+        assertThrows(PersonException.class, () -> dao.insert(tooLong));
+        dao.close();
+
+        DAOMappedFile reopened = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        assertEquals(1, reopened.count());
+        assertEquals("After", reopened.read(new Person(nif(1))).getName());
+        assertNull(reopened.read(new Person(nif(2))));
+        reopened.close();
+    }
+
+    @Test
+    void testFieldTooLong() throws Exception {
+        DAOMappedFile dao = new DAOMappedFile(new File(folder, "dataFile.map"), new File(folder, "Photos"));
+        Person p = new Person("Name", "12345678Z");
+        p.setPostalCode("0".repeat(20));
+        assertThrows(PersonException.class, () -> dao.insert(p));
+        assertNull(dao.read(p));
+        dao.close();
+    }
+    @Test
+    void testVersionIsCheckedAndSaved() throws Exception {
+        File dataFile = new File(folder, "dataFile.map");
+        DAOMappedFile dao = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        dao.insert(new Person("First", "12345678Z"));
+        Person edited = new Person("Second", "12345678Z");
+        dao.update(edited, 0);
+        assertEquals(1, edited.getVersion());
+        VersionConflictException ex = assertThrows(VersionConflictException.class,
+                () -> dao.update(new Person("Stale", "12345678Z"), 0));
+        assertEquals(1, ex.getActualVersion());
+        //A plain update of a new object does not take the version back.
+        Person fresh = new Person("Third", "12345678Z");
+        dao.update(fresh);
+        assertEquals(2, fresh.getVersion());
+        assertThrows(VersionConflictException.class, () -> dao.update(new Person("Stale", "12345678Z"), 1));
+        dao.close();
+
+        DAOMappedFile reopened = new DAOMappedFile(dataFile, new File(folder, "Photos"));
+        Person read = reopened.read(new Person("12345678Z"));
+        assertEquals("Third", read.getName());
+        assertEquals(2, read.getVersion());
+        reopened.close();
+    }
+
+}
@@ -0,0 +1,72 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import java.awt.image.BufferedImage;
+import javax.swing.ImageIcon;
+import model.entity.Person;
+
+class DAOOffHeapTest {
+
+    @Test
+    void testInsertReadUpdateDelete() throws Exception {
+        DAOOffHeap dao = new DAOOffHeap();
+        dao.insert(person(1));
+        dao.insert(person(2));
+        assertEquals("Person 1", dao.read(new Person(nif(1))).getName());
+
+        Person updated = person(1);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(new Person(nif(1))).getName());
+        dao.update(person(3));
+        assertNull(dao.read(new Person(nif(3))));
+
+        dao.delete(new Person(nif(2)));
+        assertNull(dao.read(new Person(nif(2))));
+        assertEquals(1, dao.readAll().size());
+        dao.deleteAll();
+        assertEquals(0, dao.count());
+        assertNull(dao.read(new Person(nif(1))));
+    }
+
+    @Test
+    void testPhotoIsKept() throws Exception {
+        DAOOffHeap dao = new DAOOffHeap();
+        Person p = person(1);
+        p.setPhoto(new ImageIcon(new BufferedImage(5, 7, BufferedImage.TYPE_INT_ARGB)));
+        dao.insert(p);
+        assertEquals(7, dao.read(p).getPhoto().getIconHeight());
+    }
+
+    @Test
+    void testGrowthTombstonesAndCompaction() throws Exception {
+        DAOOffHeap dao = new DAOOffHeap(4096);
+        for (int i = 0; i < 5000; i++) {
+            dao.insert(person(i));
+        }
+        for (int i = 0; i < 5000; i += 2) {
+            dao.delete(person(i));
+        }
+        for (int round = 0; round < 20; round++) {
+            for (int i = 1; i < 5000; i += 2) {
+                Person p = person(i);
+                p.setName("Round " + round);
+                dao.update(p);
+            }
+        }
+        for (int i = 5000; i < 6000; i++) {
+            dao.insert(person(i));
+        }
+        assertEquals(3500, dao.count());
+        assertEquals(3500, dao.readAll().size());
+        assertNull(dao.read(person(10)));
+        assertEquals("Round 19", dao.read(person(11)).getName());
+        assertEquals("Person 5999", dao.read(person(5999)).getName());
+        //Only the live records (about 40 bytes each) and the index remain.
+        assertTrue(dao.reservedBytes() < 1024 * 1024);
+    }
+
+}
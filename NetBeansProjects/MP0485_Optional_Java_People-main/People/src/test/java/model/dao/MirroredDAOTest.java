@@ -0,0 +1,120 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import model.entity.Person;
+import model.entity.VersionConflictException;
+
+class MirroredDAOTest {
+
+    //A storage system whose inserts wait for a latch or fail.
+    private static class BlockingDAO extends DAOHashMap {
+
+        private volatile CountDownLatch latch;
+        private volatile boolean awaited;
+        private volatile boolean failing;
+
+        @Override
+        public void insert(Person p) {
+            if (failing) {
+                throw new IllegalStateException("Secondary down.");
+            }
+            if (latch != null) {
+                try {
+                    awaited = latch.await(10, TimeUnit.SECONDS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            super.insert(p);
+        }
+    }
+
+    @Test
+    void testWritesBothAtTheSameTime() throws Exception {
+        CountDownLatch primaryStarted = new CountDownLatch(1);
+        DAOHashMap primary = new DAOHashMap() {
+            @Override
+            public void insert(Person p) {
+                primaryStarted.countDown();
+                super.insert(p);
+            }
+        };
+        BlockingDAO secondary = new BlockingDAO();
+        //The secondary waits for the primary, so it is not made after it.
+        secondary.latch = primaryStarted;
+        MirroredDAO dao = new MirroredDAO(primary, secondary, MirroredDAO.Ack.BOTH, false);
+        dao.insert(person(1, "Both"));
+        assertTrue(secondary.awaited);
+        assertEquals("Both", secondary.read(person(1, null)).getName());
+        assertEquals("Both", dao.read(person(1, null)).getName());
+
+        secondary.latch = null;
+        secondary.failing = true;
+        assertThrows(IllegalStateException.class, () -> dao.insert(person(2, "Primary only")));
+        assertTrue(primary.exists(person(2, null).getNif()));
+        dao.close();
+    }
+
+    @Test
+    void testFailedPrimaryIsUndoneInTheSecondary() throws Exception {
+        DAOHashMap primary = new DAOHashMap() {
+            @Override
+            public void insert(Person p) {
+                if (p.getName() == null) {
+                    throw new IllegalStateException("Primary down.");
+                }
+                super.insert(p);
+            }
+        };
+        DAOHashMap secondary = new DAOHashMap();
+        MirroredDAO dao = new MirroredDAO(primary, secondary, MirroredDAO.Ack.BOTH, false);
+        assertThrows(IllegalStateException.class, () -> dao.insert(person(1, null)));
+        assertFalse(secondary.exists(person(1, null).getNif()));
+
+        dao.insert(person(2, "Old"));
+        Person stale = person(2, "Stale");
+        assertThrows(VersionConflictException.class, () -> dao.update(stale, 5));
+        assertEquals("Old", secondary.read(person(2, null)).getName());
+
+        //The secondary only gets the people the primary inserted.
+        BatchReport report = dao.insertAll(Arrays.asList(person(2, "Skipped"), person(3, "Batch")));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        assertEquals("Old", secondary.read(person(2, null)).getName());
+        assertEquals("Batch", secondary.read(person(3, null)).getName());
+        dao.close();
+    }
+
+    @Test
+    void testPrimaryOnlyAckAndReadRepair() throws Exception {
+        DAOHashMap primary = new DAOHashMap();
+        BlockingDAO secondary = new BlockingDAO();
+        primary.insert(person(1, "Before the mirror"));
+        secondary.insert(person(2, "Deleted before the mirror"));
+        MirroredDAO dao = new MirroredDAO(primary, secondary, MirroredDAO.Ack.PRIMARY_ONLY, true);
+
+        secondary.failing = true;
+        dao.insert(person(3, "Only in the primary"));
+        dao.drain();
+        assertEquals(1, dao.getSecondaryFailures());
+        secondary.failing = false;
+
+        dao.read(person(1, null));
+        dao.read(person(2, null));
+        dao.read(person(3, null));
+        dao.drain();
+        assertEquals(3, dao.getRepairs());
+        assertEquals("Before the mirror", secondary.read(person(1, null)).getName());
+        assertFalse(secondary.exists(person(2, null).getNif()));
+        assertEquals("Only in the primary", secondary.read(person(3, null)).getName());
+        dao.read(person(1, null));
+        dao.drain();
+        assertEquals(3, dao.getRepairs());
+        dao.close();
+    }
+
+}
@@ -0,0 +1,116 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import model.entity.Person;
+
+class ObservableDAOTest {
+
+    private void await(ChangeFeed.Subscription subscription, long sequence) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10_000;
+        while (subscription.getCursor() < sequence && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertEquals(sequence, subscription.getCursor());
+    }
+
+    @Test
+    void testPublishesEveryWrite() throws Exception {
+        ObservableDAO dao = new ObservableDAO(new DAOHashMap());
+        dao.insert(person(0, "Before subscribing"));
+        List<ChangeEvent> first = new CopyOnWriteArrayList<>();
+        List<ChangeEvent> second = new CopyOnWriteArrayList<>();
+        ChangeFeed.Subscription one = dao.subscribe(first::add);
+        ChangeFeed.Subscription two = dao.subscribe(event -> {
+            second.add(event);
+            throw new IllegalStateException("Listener error.");
+        });
+
+        dao.insert(person(1, "Inserted"));
+        dao.update(person(1, "Updated"));
+        dao.upsert(person(2, "Upserted"));
+        dao.upsert(person(2, "Upserted again"));
+        dao.delete(person(1, null));
+        BatchReport report = dao.insertAll(Arrays.asList(person(2, "Skipped"), person(3, "Batch")));
+        assertEquals(1, report.count(BatchReport.Status.DONE));
+        dao.deleteAll();
+        await(one, 7);
+        await(two, 7);
+
+        assertEquals("INSERT 00000001R Inserted,UPDATE 00000001R Updated,INSERT 00000002W Upserted,"
+                + "UPDATE 00000002W Upserted again,DELETE 00000001R,INSERT 00000003A Batch,DELETE_ALL null",
+                first.stream().map(e -> e.getType() + " " + e.getNif() + (e.getPerson() != null ? " " + e.getPerson().getName() : ""))
+                        .collect(Collectors.joining(",")));
+        assertEquals(7, second.size());
+        one.close();
+        dao.insert(person(4, "After closing"));
+        await(two, 8);
+        assertEquals(7, first.size());
+        dao.close();
+    }
+
+    @Test
+    void testPublishesNoOpsNorTheCallersPerson() throws Exception {
+        ObservableDAO dao = new ObservableDAO(new DAOHashMap());
+        List<ChangeEvent> events = new CopyOnWriteArrayList<>();
+        ChangeFeed.Subscription subscription = dao.subscribe(events::add);
+        //Not registered.
+        dao.update(person(1, "Updated"));
+        dao.delete(person(1, null));
+        Person p = person(1, "Inserted");
+        dao.insert(p);
+        p.setName("Changed after inserting");
+        await(subscription, 1);
+        assertEquals(1, events.size());
+        assertEquals("Inserted", events.get(0).getPerson().getName());
+        assertNotSame(p, events.get(0).getPerson());
+        dao.close();
+    }
+
+    @Test
+    void testFullRingKeepsOrderPerNif() throws Exception {
+        ObservableDAO dao = new ObservableDAO(new DAOConcurrentHashMap(), new ChangeFeed(4));
+        List<ChangeEvent> events = new ArrayList<>();
+        ChangeFeed.Subscription slow = dao.subscribe(event -> {
+            Thread.sleep(1);
+            events.add(event);
+        });
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        ArrayList<Future<?>> writers = new ArrayList<>();
+        for (int w = 0; w < 4; w++) {
+            int writer = w;
+            writers.add(executor.submit(() -> {
+                for (int i = 0; i < 50; i++) {
+                    dao.upsert(person(i % 5, writer + "-" + i));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> writer : writers) {
+            writer.get();
+        }
+        executor.shutdown();
+        await(slow, 200);
+
+        HashMap<String, String> last = new HashMap<>();
+        for (int i = 0; i < events.size(); i++) {
+            assertEquals(i + 1, events.get(i).getSequence());
+            last.put(events.get(i).getNif(), events.get(i).getPerson().getName());
+        }
+        for (int i = 0; i < 5; i++) {
+            assertEquals(dao.read(person(i, null)).getName(), last.get(person(i, null).getNif()));
+        }
+        dao.close();
+    }
+
+}
@@ -0,0 +1,88 @@
+package model.dao;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import javax.swing.ImageIcon;
+import model.entity.Person;
+
+/**
+ * Compares the size and the encode/decode time of PersonCodec against the
+ * default Java serialization, with and without a photo. It is not run by the
+ * tests; run its main method to print the results.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+public class PersonCodecBenchmark {
+
+    private static final int WARMUP = 20_000;
+    private static final int ROUNDS = 100_000;
+
+    public static void main(String[] args) throws Exception {
+        Person p = new Person("Núria Puig", "12345678Z", new Date(), null);
+        p.setEmail("nuria@mail.com");
+        p.setPhoneNumber("+34600000000");
+        p.setPostalCode("08001");
+        run("Without photo", p, ROUNDS);
+        BufferedImage image = new BufferedImage(120, 160, BufferedImage.TYPE_INT_ARGB);
+        for (int x = 0; x < 120; x++) {
+            image.setRGB(x, x, 0xFF000000 | x * 0x010101);
+        }
+        p.setPhoto(new ImageIcon(image));
+        run("With photo", p, ROUNDS / 50);
+    }
+
+    private static void run(String title, Person p, int rounds) throws Exception {
+        byte[] serialized = serialize(p);
+        byte[] encoded = PersonCodec.encode(p);
+        for (int i = 0; i < Math.min(WARMUP, rounds); i++) {
+            deserialize(serialize(p));
+            PersonCodec.decode(PersonCodec.encode(p));
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            serialize(p);
+        }
+        long serializeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            deserialize(serialized);
+        }
+        long deserializeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            PersonCodec.encode(p);
+        }
+        long encodeTime = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < rounds; i++) {
+            PersonCodec.decode(encoded);
+        }
+        long decodeTime = System.nanoTime() - start;
+        System.out.println(title);
+        System.out.printf("  Java serialization: %7d bytes, write %8.2f us, read %8.2f us%n",
+                serialized.length, serializeTime / 1000.0 / rounds, deserializeTime / 1000.0 / rounds);
+        System.out.printf("  PersonCodec:        %7d bytes, write %8.2f us, read %8.2f us%n",
+                encoded.length, encodeTime / 1000.0 / rounds, decodeTime / 1000.0 / rounds);
+    }
+
+    private static byte[] serialize(Person p) throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(p);
+        oos.close();
+        return baos.toByteArray();
+    }
+
+    private static Person deserialize(byte[] bytes) throws Exception {
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        Person p = (Person) ois.readObject();
+        ois.close();
+        return p;
+    }
+
+}
@@ -0,0 +1,119 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import org.junit.jupiter.api.Test;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.Arrays;
+import java.util.Date;
+import javax.swing.ImageIcon;
+import model.entity.Person;
+import model.entity.PersonSummary;
+
+class PersonCodecTest {
+
+    private Date date(int year, int month, int day) {
+        return Date.from(LocalDate.of(year, month, day).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private Person person() {
+        Person p = new Person("Núria Puig", "12345678Z", date(1985, 3, 14), null);
+        p.setEmail("nuria@mail.com");
+        p.setPhoneNumber("+34600000000");
+        p.setPostalCode("08001");
+        return p;
+    }
+
+    private ImageIcon photo() {
+        BufferedImage image = new BufferedImage(8, 4, BufferedImage.TYPE_INT_ARGB);
+        image.setRGB(3, 2, 0xFF102030);
+        return new ImageIcon(image);
+    }
+
+    @Test
+    void testRoundTrip() throws Exception {
+        Person decoded = PersonCodec.decode(PersonCodec.encode(person()));
+        assertEquals("12345678Z", decoded.getNif());
+        assertEquals("Núria Puig", decoded.getName());
+        assertEquals(date(1985, 3, 14), decoded.getDateOfBirth());
+        assertEquals("nuria@mail.com", decoded.getEmail());
+        assertEquals("+34600000000", decoded.getPhoneNumber());
+        assertEquals("08001", decoded.getPostalCode());
+        assertNull(decoded.getPhoto());
+    }
+
+    @Test
+    void testMissingFieldsStayNull() throws Exception {
+        byte[] bytes = PersonCodec.encode(new Person("12345678Z"));
+        Person decoded = PersonCodec.decode(bytes);
+        assertEquals("12345678Z", decoded.getNif());
+        assertNull(decoded.getName());
+        assertNull(decoded.getDateOfBirth());
+        assertNull(decoded.getEmail());
+        assertFalse(PersonCodec.hasPhoto(bytes));
+    }
+
+    @Test
+    void testDateBefore1970() throws Exception {
+        Person p = person();
+        p.setDateOfBirth(date(1901, 12, 31));
+        assertEquals(date(1901, 12, 31), PersonCodec.decode(PersonCodec.encode(p)).getDateOfBirth());
+    }
+
+    @Test
+    void testPhotoAsPng() throws Exception {
+        Person p = person();
+        p.setPhoto(photo());
+        byte[] bytes = PersonCodec.encode(p);
+        assertTrue(PersonCodec.hasPhoto(bytes));
+        ImageIcon decoded = PersonCodec.decode(bytes).getPhoto();
+        assertEquals(8, decoded.getIconWidth());
+        assertEquals(4, decoded.getIconHeight());
+        assertNull(PersonCodec.decode(bytes, false).getPhoto());
+    }
+
+    @Test
+    void testPhotoAsReference() throws Exception {
+        Person p = person();
+        p.setPhoto(photo());
+        byte[] bytes = PersonCodec.encode(p, "Photos/12345678Z.png");
+        assertTrue(PersonCodec.hasPhoto(bytes));
+        assertEquals("Photos/12345678Z.png", PersonCodec.decode(bytes).getPhoto().getDescription());
+    }
+
+    @Test
+    void testSmallerThanJavaSerialization() throws Exception {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(person());
+        oos.close();
+        assertTrue(PersonCodec.encode(person()).length * 4 < baos.size());
+        assertFalse(PersonCodec.isEncoded(baos.toByteArray()));
+    }
+
+    @Test
+    void testInvalidBytes() throws Exception {
+        byte[] bytes = PersonCodec.encode(person());
+        assertThrows(IOException.class, () -> PersonCodec.decode(Arrays.copyOf(bytes, bytes.length - 3)));
+        bytes[0] = (byte) 0xC7;
+        assertThrows(IOException.class, () -> PersonCodec.decode(bytes));
+        assertThrows(IOException.class, () -> PersonCodec.decode(new byte[]{(byte) 0xAC, (byte) 0xED}));
+    }
+
+    @Test
+    void testSummaryFlagsPhotoWithoutDecodingIt() throws Exception {
+        Person p = person();
+        p.setPhoto(photo());
+        PersonSummary summary = PersonCodec.summary(PersonCodec.encode(p));
+        assertEquals("12345678Z", summary.getNif());
+        assertEquals("Núria Puig", summary.getName());
+        assertEquals("08001", summary.getPostalCode());
+        assertTrue(summary.hasPhoto());
+        assertFalse(PersonCodec.summary(PersonCodec.encode(person())).hasPhoto());
+    }
+
+}
@@ -0,0 +1,78 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import static model.dao.Query.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.stream.Collectors;
+import model.entity.Person;
+
+class QueryTest {
+
+    @TempDir
+    File folder;
+
+    private Date year(int year) {
+        return Date.from(LocalDate.of(year, 1, 1).atStartOfDay(ZoneId.systemDefault()).toInstant());
+    }
+
+    private Person person(int i) {
+        Person p = new Person("Person " + i, nif(i), year(1950 + i), null);
+        p.setPostalCode(i % 2 == 0 ? "08" + (100 + i) : "17" + (100 + i));
+        return p;
+    }
+
+    private String nifs(ArrayList<Person> people) {
+        return people.stream().map(p -> p.getNif().substring(6, 8)).collect(Collectors.joining(","));
+    }
+
+    @Test
+    void testConditionsSortAndLimit() throws Exception {
+        DAOConcurrentHashMap dao = new DAOConcurrentHashMap();
+        for (int i = 0; i < 50; i++) {
+            dao.insert(person(i));
+        }
+        dao.insert(new Person("No data", "99999999R"));
+
+        Query bornBefore1960In08 = new Query(and(range(Field.DATE_OF_BIRTH, null, year(1960)),
+                prefix(Field.POSTAL_CODE, "08")));
+        assertEquals("00,02,04,06,08", nifs(dao.query(bornBefore1960In08.orderBy(Field.NIF, false))));
+        assertEquals("08,06", nifs(dao.query(bornBefore1960In08.orderBy(Field.DATE_OF_BIRTH, true).limit(2))));
+
+        Query either = new Query(or(equal(Field.NAME, "Person 7"), range(Field.NIF, nif(45), null)));
+        assertEquals("07,45,46,47,48,49,99", nifs(dao.query(either.orderBy(Field.NIF, false))));
+        //People without value go last in both orders.
+        assertEquals("99999999R", dao.query(new Query(null).orderBy(Field.POSTAL_CODE, true)).get(50).getNif());
+        assertEquals(1, dao.query(new Query(equal(Field.NIF, nif(3)))).size());
+        assertThrows(IllegalArgumentException.class, () -> equal(Field.DATE_OF_BIRTH, "1980"));
+    }
+
+    @Test
+    void testNifBounds() {
+        assertArrayEquals(new String[]{nif(3), nif(3)},
+                new Query(and(prefix(Field.NAME, "P"), equal(Field.NIF, nif(3)))).nifBounds());
+        assertArrayEquals(new String[]{"1", "3"},
+                new Query(or(range(Field.NIF, "1", "2"), range(Field.NIF, "2", "3"))).nifBounds());
+        assertArrayEquals(new String[2],
+                new Query(or(range(Field.NIF, "1", "2"), prefix(Field.NAME, "P"))).nifBounds());
+    }
+
+    @Test
+    void testIndexedRangeInFile() throws Exception {
+        DAOFileSerializable dao = new DAOFileSerializable(folder);
+        for (int i = 0; i < 30; i++) {
+            dao.insert(person(i));
+        }
+        Query query = new Query(and(prefix(Field.NIF, "0000001"), prefix(Field.POSTAL_CODE, "17")));
+        assertEquals("11,13,15", nifs(dao.query(query.limit(3))));
+        assertEquals("19,17", nifs(dao.query(query.orderBy(Field.NAME, true).limit(2))));
+        dao.close();
+    }
+
+}
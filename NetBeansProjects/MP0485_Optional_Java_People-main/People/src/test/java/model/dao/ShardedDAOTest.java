@@ -0,0 +1,83 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import static model.dao.TestPeople.person;
+import static model.dao.Query.*;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+import model.entity.Person;
+
+class ShardedDAOTest {
+
+    @TempDir
+    File folder;
+
+    private String nifs(List<Person> people) {
+        return people.stream().map(p -> p.getNif().substring(6, 8)).collect(Collectors.joining(","));
+    }
+
+    @Test
+    void testRoutesAndFansOut() throws Exception {
+        ShardedDAO dao = ShardedDAO.files(folder, 3);
+        for (int i = 0; i < 30; i++) {
+            dao.insert(person(i));
+        }
+        assertEquals(30, dao.count());
+        assertEquals(30, dao.readAll().size());
+        //Every person is only in its shard.
+        for (int i = 0; i < 30; i++) {
+            assertTrue(dao.shardOf(person(i).getNif()).exists(person(i).getNif()));
+        }
+        ShardedDAO reopened = ShardedDAO.files(folder, 3);
+        assertEquals(30, reopened.count());
+        int inShards = 0;
+        for (int i = 0; i < 3; i++) {
+            int inShard = new DAOFile(new File(folder, "shard-" + i)).count();
+            assertTrue(inShard < 30);
+            inShards += inShard;
+        }
+        assertEquals(30, inShards);
+
+        Person updated = person(7);
+        updated.setName("Updated");
+        dao.update(updated);
+        assertEquals("Updated", dao.read(person(7)).getName());
+        dao.delete(person(7));
+        assertNull(dao.read(person(7)));
+
+        assertEquals("08,09,10,11", nifs(dao.readPage(nif(6), 4)));
+        assertEquals("29,28,27", nifs(dao.query(new Query(null).orderBy(Field.NIF, true).limit(3))));
+        assertEquals("2,20,21,22", dao.query(new Query(prefix(Field.NAME, "Person 2")).orderBy(Field.NAME, false).limit(4))
+                .stream().map(p -> p.getName().substring(7)).collect(Collectors.joining(",")));
+        assertEquals(29, dao.stream().count());
+        dao.deleteAll();
+        assertEquals(0, dao.count());
+        dao.close();
+        reopened.close();
+    }
+
+    @Test
+    void testBatchesAreSplitByShard() throws Exception {
+        ShardedDAO dao = ShardedDAO.files(folder, 4);
+        ArrayList<Person> people = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            people.add(person(i));
+        }
+        dao.insert(person(3));
+        BatchReport report = dao.insertAll(people);
+        assertEquals(20, report.getResults().size());
+        assertEquals(19, report.count(BatchReport.Status.DONE));
+        assertEquals(1, report.count(BatchReport.Status.SKIPPED));
+        assertEquals(20, dao.count());
+        report = dao.deleteAll(people.subList(0, 10));
+        assertEquals(10, report.count(BatchReport.Status.DONE));
+        assertEquals(10, dao.count());
+        dao.close();
+    }
+
+}
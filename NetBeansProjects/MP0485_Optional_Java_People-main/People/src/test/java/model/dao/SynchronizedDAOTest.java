@@ -0,0 +1,55 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.nif;
+import org.junit.jupiter.api.Test;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.stream.Stream;
+import model.entity.Person;
+
+class SynchronizedDAOTest {
+
+    @Test
+    void testOneCallAtATime() throws Exception {
+        SynchronizedDAO dao = new SynchronizedDAO(new DAOArrayList());
+        assertFalse(AsyncDAO.isThreadSafe(dao.getDAO()));
+        assertTrue(AsyncDAO.isThreadSafe(dao));
+        AsyncDAO async = new AsyncDAO(dao);
+        List<CompletableFuture<Void>> inserts = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            inserts.add(async.insert(new Person(nif(i))));
+            //And from this thread at the same time.
+            dao.insert(new Person(nif(500 + i)));
+        }
+        CompletableFuture.allOf(inserts.toArray(CompletableFuture<?>[]::new)).get();
+        assertEquals(1000, dao.count());
+        async.close();
+    }
+
+    @Test
+    void testOpenStreamKeepsTheLock() throws Exception {
+        SynchronizedDAO dao = new SynchronizedDAO(new DAOHashMap());
+        dao.insert(new Person(nif(1)));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> insert;
+        try (Stream<Person> people = dao.stream()) {
+            insert = executor.submit(() -> {
+                dao.insert(new Person(nif(2)));
+                return null;
+            });
+            assertThrows(TimeoutException.class, () -> insert.get(200, TimeUnit.MILLISECONDS));
+            assertEquals(1, people.count());
+        }
+        insert.get(10, TimeUnit.SECONDS);
+        assertEquals(2, dao.count());
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,47 @@
+package model.dao;
+
+import model.entity.Person;
+import utils.DataValidation;
+
+/**
+ * People for the tests of the storage systems, with NIFs that pass the
+ * letter check of DataValidation. The NIFs sort like their numbers.
+ *
+ * @author Francesc Perez
+ * @version 1.1.0
+ */
+final class TestPeople {
+
+    private TestPeople() {
+    }
+
+    /**
+     * @param i number of the NIF, up to 8 digits
+     * @return the NIF with its letter
+     */
+    static String nif(int i) {
+        return DataValidation.calculateNifLetter(String.format("%08d", i));
+    }
+
+    /**
+     * @param i number of the NIF
+     * @return "Person i", with the email "personi@mail.com"
+     */
+    static Person person(int i) {
+        Person p = person(i, "Person " + i);
+        p.setEmail("person" + i + "@mail.com");
+        return p;
+    }
+
+    /**
+     * @param i number of the NIF
+     * @param name name of the person
+     * @return the person with only the NIF and the name
+     */
+    static Person person(int i, String name) {
+        Person p = new Person(nif(i));
+        p.setName(name);
+        return p;
+    }
+
+}
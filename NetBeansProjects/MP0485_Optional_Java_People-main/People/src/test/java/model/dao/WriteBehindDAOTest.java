@@ -0,0 +1,147 @@
+package model.dao;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static model.dao.TestPeople.person;
+import org.junit.jupiter.api.Test;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import model.entity.Person;
+
+class WriteBehindDAOTest {
+
+    //Counts the batches that reach the durable tier and can be made to fail.
+    private static class CountingDAO extends DAOHashMap {
+
+        private volatile int batches;
+        private volatile boolean failing;
+        //NIF whose insert fails.
+        private volatile String rejected;
+
+        @Override
+        public void insert(Person p) {
+            if (p.getNif().equals(rejected)) {
+                throw new IllegalStateException("Rejected.");
+            }
+            super.insert(p);
+        }
+
+        @Override
+        public BatchReport insertAll(Collection<Person> people) throws Exception {
+            return batch(() -> super.insertAll(people));
+        }
+
+        @Override
+        public BatchReport updateAll(Collection<Person> people) throws Exception {
+            return batch(() -> super.updateAll(people));
+        }
+
+        @Override
+        public BatchReport deleteAll(Collection<Person> people) throws Exception {
+            return batch(() -> super.deleteAll(people));
+        }
+
+        private BatchReport batch(Callable<BatchReport> write) throws Exception {
+            if (failing) {
+                throw new IllegalStateException("Back tier down.");
+            }
+            batches++;
+            return write.call();
+        }
+    }
+
+    @Test
+    void testCoalescesAndDrainsOnClose() throws Exception {
+        CountingDAO back = new CountingDAO();
+        back.insert(person(0, "Loaded"));
+        back.insert(person(3, "Loaded"));
+        //No flush before close.
+        WriteBehindDAO dao = new WriteBehindDAO(back, 60_000, 100);
+        assertEquals("Loaded", dao.read(person(0, null)).getName());
+        for (int i = 0; i < 10; i++) {
+            dao.upsert(person(1, "Version " + i));
+        }
+        dao.insert(person(2, "Deleted"));
+        dao.delete(person(2, null));
+        dao.delete(person(0, null));
+        dao.update(person(3, "Updated"));
+        assertEquals(2, dao.count());
+        assertEquals(2, back.count());
+        assertEquals(4, dao.getPending());
+
+        dao.close();
+        assertEquals(0, dao.getPending());
+        //insertAll, updateAll of the one registered and deleteAll.
+        assertEquals(3, back.batches);
+        assertEquals("Version 9", back.read(person(1, null)).getName());
+        assertEquals("Updated", back.read(person(3, null)).getName());
+        assertFalse(back.exists(person(0, null).getNif()));
+        assertFalse(back.exists(person(2, null).getNif()));
+        assertThrows(IOException.class, () -> dao.insert(person(4, "Late")));
+    }
+
+    @Test
+    void testPeopleNotSavedAreReportedAndRetried() throws Exception {
+        CountingDAO back = new CountingDAO();
+        WriteBehindDAO dao = new WriteBehindDAO(back, 20, 100);
+        List<Exception> errors = new CopyOnWriteArrayList<>();
+        List<Integer> pending = new CopyOnWriteArrayList<>();
+        dao.setErrorListener(ex -> {
+            errors.add(ex);
+            //On the flush thread, so no flush has taken the queue.
+            pending.add(dao.getPending());
+        });
+        back.rejected = person(1, null).getNif();
+        dao.insert(person(1, "Rejected"));
+        dao.insert(person(2, "Saved"));
+        long end = System.currentTimeMillis() + 10_000;
+        while (errors.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        assertTrue(errors.get(0) instanceof IOException);
+        assertTrue(back.exists(person(2, null).getNif()));
+        assertEquals(1, pending.get(0));
+
+        back.rejected = null;
+        dao.close();
+        assertEquals("Rejected", back.read(person(1, null)).getName());
+        assertEquals(0, dao.getPending());
+    }
+
+    @Test
+    void testFailedBatchIsRetriedAndFullQueueWaits() throws Exception {
+        CountingDAO back = new CountingDAO();
+        WriteBehindDAO dao = new WriteBehindDAO(back, 60_000, 5);
+        back.failing = true;
+        for (int i = 0; i < 5; i++) {
+            dao.insert(person(i, "Person " + i));
+        }
+        assertThrows(IllegalStateException.class, dao::flush);
+        assertEquals(5, dao.getPending());
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        Future<?> blocked = executor.submit(() -> {
+            dao.insert(person(5, "Person 5"));
+            return null;
+        });
+        assertThrows(TimeoutException.class, () -> blocked.get(200, TimeUnit.MILLISECONDS));
+        //A NIF already queued does not need room.
+        dao.update(person(0, "Updated"));
+
+        back.failing = false;
+        dao.flush();
+        blocked.get(10, TimeUnit.SECONDS);
+        executor.shutdown();
+        dao.close();
+        assertEquals(6, back.count());
+        assertEquals("Updated", back.read(person(0, null)).getName());
+    }
+
+}